@@ -16,15 +16,50 @@
 
 package uk.co.thinkofdeath.thinkcraft.bukkit;
 
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.event.Event;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.block.*;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.player.PlayerBucketFillEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkPopulateEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 public class Events implements Listener {
 
+    // Blocks that change their state when a player uses them
+    private static final Set<Material> INTERACTIVE = EnumSet.of(
+            Material.WOODEN_DOOR, Material.IRON_DOOR_BLOCK, Material.TRAP_DOOR, Material.FENCE_GATE,
+            Material.LEVER, Material.STONE_BUTTON, Material.WOOD_BUTTON,
+            Material.DIODE_BLOCK_OFF, Material.DIODE_BLOCK_ON,
+            Material.REDSTONE_COMPARATOR_OFF, Material.REDSTONE_COMPARATOR_ON,
+            Material.CAKE_BLOCK, Material.DRAGON_EGG, Material.FLOWER_POT, Material.REDSTONE_ORE,
+            Material.SOIL
+    );
+
     private final ThinkMapPlugin plugin;
+    // Chunks with redstone changes during the current tick. Redstone
+    // can change the same blocks many times a tick so the chunks are
+    // marked once at the end of it instead
+    private final Map<World, TLongSet> redstoneChunks = new HashMap<>();
 
     public Events(ThinkMapPlugin plugin) {
         this.plugin = plugin;
@@ -35,6 +70,15 @@ public class Events implements Listener {
         // Mark the chunk as active so that the map viewer start grabbing the live
         // version instead of the cached one
         plugin.getChunkManager(event.getWorld()).activateChunk(event.getChunk());
+        if (event.isNewChunk()) {
+            plugin.getChunkManager(event.getWorld()).markModified(event.getChunk());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunkPopulate(ChunkPopulateEvent event) {
+        // Trees, ores etc. are added after the chunk is first loaded
+        plugin.getChunkManager(event.getWorld()).markModified(event.getChunk());
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
@@ -43,4 +87,147 @@ public class Events implements Listener {
         // the chunk
         plugin.getChunkManager(event.getWorld()).deactivateChunk(event.getChunk());
     }
+
+    // Track changes to blocks so that untouched chunks don't
+    // have to be saved again when they unload
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPlace(BlockPlaceEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBreak(BlockBreakEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockBurn(BlockBurnEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockIgnite(BlockIgniteEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFade(BlockFadeEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockForm(BlockFormEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockSpread(BlockSpreadEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockGrow(BlockGrowEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockFromTo(BlockFromToEvent event) {
+        markModified(event.getToBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onBlockRedstone(BlockRedstoneEvent event) {
+        Block block = event.getBlock();
+        if (redstoneChunks.isEmpty()) {
+            plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+                @Override
+                public void run() {
+                    markRedstoneChunks();
+                }
+            });
+        }
+        TLongSet chunks = redstoneChunks.get(block.getWorld());
+        if (chunks == null) {
+            redstoneChunks.put(block.getWorld(), chunks = new TLongHashSet());
+        }
+        chunks.add(((long) (block.getX() >> 4) << 32) | ((block.getZ() >> 4) & 0xFFFFFFFFL));
+    }
+
+    // Marks the chunks changed by redstone since the last call
+    private void markRedstoneChunks() {
+        for (Map.Entry<World, TLongSet> entry : redstoneChunks.entrySet()) {
+            for (TLongIterator it = entry.getValue().iterator(); it.hasNext(); ) {
+                long key = it.next();
+                int cx = (int) (key >> 32);
+                int cz = (int) key;
+                // The middle of the chunk, marks the neighbouring
+                // chunks in range of any block in it
+                plugin.getChunkManager(entry.getKey()).markModified((cx << 4) + 8, (cz << 4) + 8);
+            }
+        }
+        redstoneChunks.clear();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonExtend(BlockPistonExtendEvent event) {
+        markModified(event.getBlock());
+        for (Block block : event.getBlocks()) {
+            markModified(block);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBlockPistonRetract(BlockPistonRetractEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLeavesDecay(LeavesDecayEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event) {
+        for (Block block : event.blockList()) {
+            markModified(block);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityChangeBlock(EntityChangeBlockEvent event) {
+        markModified(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onStructureGrow(StructureGrowEvent event) {
+        for (BlockState state : event.getBlocks()) {
+            markModified(state.getBlock());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBucketEmpty(PlayerBucketEmptyEvent event) {
+        markModified(event.getBlockClicked());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onBucketFill(PlayerBucketFillEvent event) {
+        markModified(event.getBlockClicked());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerInteract(PlayerInteractEvent event) {
+        // Doors, levers, repeaters etc. don't fire a block event
+        // when they are used
+        Block block = event.getClickedBlock();
+        if (block != null && event.useInteractedBlock() != Event.Result.DENY
+                && INTERACTIVE.contains(block.getType())) {
+            markModified(block);
+        }
+    }
+
+    private void markModified(Block block) {
+        plugin.getChunkManager(block.getWorld()).markModified(block.getX(), block.getZ());
+    }
 }
@@ -18,8 +18,11 @@ package uk.co.thinkofdeath.thinkcraft.bukkit;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
 import org.apache.commons.io.FileUtils;
+import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.configuration.InvalidConfigurationException;
 import org.bukkit.plugin.java.JavaPlugin;
@@ -27,13 +30,24 @@ import uk.co.thinkofdeath.command.bukkit.BukkitCommandManager;
 import uk.co.thinkofdeath.thinkcraft.bukkit.commands.Commands;
 import uk.co.thinkofdeath.thinkcraft.bukkit.config.InvalidConfigFieldException;
 import uk.co.thinkofdeath.thinkcraft.bukkit.config.PluginConfiguration;
+import uk.co.thinkofdeath.thinkcraft.bukkit.mesh.ChunkMesher;
 import uk.co.thinkofdeath.thinkcraft.bukkit.textures.BufferedTexture;
 import uk.co.thinkofdeath.thinkcraft.bukkit.textures.BufferedTextureFactory;
 import uk.co.thinkofdeath.thinkcraft.bukkit.textures.TextureDetailsSerializer;
+import uk.co.thinkofdeath.thinkcraft.bukkit.web.MapServer;
+import uk.co.thinkofdeath.thinkcraft.bukkit.web.PacketEncoder;
 import uk.co.thinkofdeath.thinkcraft.bukkit.web.WebHandler;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.BlockColours;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkDictionary;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkDictionaryManager;
 import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkManager;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkPrefetcher;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkUpgrader;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.RegionCompactor;
 import uk.co.thinkofdeath.thinkcraft.protocol.Packet;
 import uk.co.thinkofdeath.thinkcraft.protocol.ServerPacketHandler;
+import uk.co.thinkofdeath.thinkcraft.protocol.packets.ServerSettings;
+import uk.co.thinkofdeath.thinkcraft.protocol.packets.SpawnPosition;
 import uk.co.thinkofdeath.thinkcraft.protocol.packets.TimeUpdate;
 import uk.co.thinkofdeath.thinkcraft.resources.*;
 import uk.co.thinkofdeath.thinkcraft.resources.mojang.MojangResourceProvider;
@@ -44,20 +58,25 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
-public class ThinkMapPlugin extends JavaPlugin implements Runnable {
+public class ThinkMapPlugin extends JavaPlugin implements Runnable, MapServer {
 
     // Only needs to be changed when assets we use update
     public static final String MINECRAFT_VERSION = "1.7.9";
     public static final int RESOURCE_VERSION = 6;
-    public static final int WORLD_VERSION = 3;
+    public static final int WORLD_VERSION = 4;
 
     private final Map<String, ChunkManager> chunkManagers = new HashMap<>();
     private final WebHandler webHandler = new WebHandler(this);
+    private final ChunkDictionaryManager chunkDictionaries = new ChunkDictionaryManager(this);
+    private final ChunkPrefetcher prefetcher = new ChunkPrefetcher(this);
     private World targetWorld;
     private PluginConfiguration configuration;
 
@@ -66,6 +85,10 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
     private File resourceDir;
     private File worldDir;
     private Date startUpDate = new Date((System.currentTimeMillis() / 1000) * 1000);
+    // The spawn last saved for the standalone server
+    private Location savedSpawn;
+    private BlockColours blockColours;
+    private ChunkMesher mesher;
 
     @Override
     public void onEnable() {
@@ -115,16 +138,18 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
             }
         }
 
-        // Clear out old Think-worlds
-        if (configuration.getWorldVersion() != WORLD_VERSION) {
+        // Clear out Think-worlds too old (or new) to be upgraded,
+        // anything else is upgraded in place by the ChunkUpgrader
+        if (configuration.getWorldVersion() < ChunkUpgrader.MIN_VERSION
+                || configuration.getWorldVersion() > WORLD_VERSION) {
             getLogger().info("Deleting ThinkMap-Worlds due to a format update");
-            configuration.setWorldVersion(WORLD_VERSION);
             try {
                 FileUtils.deleteDirectory(worldDir);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
+        configuration.setWorldVersion(WORLD_VERSION);
 
         // Save the updated config
         try {
@@ -133,6 +158,29 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
             throw new RuntimeException(e);
         }
 
+        // Keep the region files from fragmenting and recompress
+        // cold chunks whilst the worlds are idle
+        if (configuration.isCompactionEnabled() || configuration.isRecompressionEnabled()) {
+            getServer().getScheduler().runTaskTimerAsynchronously(this, new RegionCompactor(this),
+                    20 * 60l, 20 * 60l);
+        }
+
+        // Convert chunks stored by older versions in the background,
+        // chunks requested before then are converted as they are read
+        getServer().getScheduler().runTaskTimerAsynchronously(this, new ChunkUpgrader(this),
+                20 * 30l, 20 * 30l);
+
+        // Load or train the chunk dictionary, retrying until there
+        // are enough stored chunks to train from
+        if (configuration.isDictionaryEnabled()) {
+            getServer().getScheduler().runTaskTimerAsynchronously(this, chunkDictionaries,
+                    20l, 20 * 60 * 10l);
+        }
+
+        // Keep the areas viewers are likely to request in memory.
+        // Always scheduled so the radius can be changed by command
+        getServer().getScheduler().runTaskTimerAsynchronously(this, prefetcher, 20l, 20l);
+
         resourceDir = new File(getDataFolder(),
                 "resources/"
                         + (configuration.getResourcePackName().length() == 0 ?
@@ -143,7 +191,7 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
         // done (since this is the last step
         File blockInfo = new File(resourceDir, "blocks.json");
         if (blockInfo.exists()) {
-            webHandler.start();
+            getServer().getScheduler().runTaskAsynchronously(this, webHandler);
         } else {
             loadResources();
         }
@@ -235,7 +283,7 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
                     getLogger().info("Stitching complete in " + (System.currentTimeMillis() - start) + "ms");
 
                     // Start the web-server as it wasn't started earlier
-                    webHandler.start();
+                    getServer().getScheduler().runTaskAsynchronously(ThinkMapPlugin.this, webHandler);
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -265,10 +313,162 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
         }
     }
 
+    /**
+     * Returns every chunk manager that has been created so far
+     *
+     * @return The chunk managers
+     */
+    public List<ChunkManager> getChunkManagers() {
+        synchronized (chunkManagers) {
+            return new ArrayList<>(chunkManagers.values());
+        }
+    }
+
+    /**
+     * Returns the manager for the dictionaries used to compress
+     * chunks
+     *
+     * @return The chunk dictionaries
+     */
+    public ChunkDictionaryManager getChunkDictionaries() {
+        return chunkDictionaries;
+    }
+
+    /**
+     * Returns the prefetcher which warms the chunk cache around
+     * the viewers
+     *
+     * @return The chunk prefetcher
+     */
+    public ChunkPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+
     @Override
     public void run() {
         if (getTargetWorld() == null) return;
         sendAll(new TimeUpdate((int) targetWorld.getTime()));
+
+        Location spawn = targetWorld.getSpawnLocation();
+        if (!spawn.equals(savedSpawn)) {
+            savedSpawn = spawn;
+            saveWorldInfo(targetWorld.getName(), spawn);
+        }
+    }
+
+    // Saves the details the standalone server can't get from
+    // the region files alongside them
+    private void saveWorldInfo(final String name, Location spawn) {
+        final Map<String, Object> info = new HashMap<>();
+        info.put("spawnX", spawn.getBlockX());
+        info.put("spawnY", spawn.getBlockY());
+        info.put("spawnZ", spawn.getBlockZ());
+        getServer().getScheduler().runTaskAsynchronously(this, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileUtils.writeStringToFile(new File(new File(worldDir, name), "world.json"),
+                            new Gson().toJson(info));
+                } catch (IOException e) {
+                    getLogger().log(Level.WARNING, "Failed to save the world info", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void initConnection(final Channel channel) {
+        getServer().getScheduler().runTask(this, new Runnable() {
+            @Override
+            public void run() {
+                ChunkDictionary dictionary = chunkDictionaries.getCurrent();
+                channel.write(new ServerSettings(
+                        configuration.shouldHideOres(),
+                        dictionary != null ? dictionary.getId() : "",
+                        configuration.isMeshingEnabled()
+                ));
+                Location spawn = getTargetWorld().getSpawnLocation();
+                // The viewer starts at the spawn
+                getWebHandler().getInterests().seed(channel, spawn.getBlockX() >> 4, spawn.getBlockZ() >> 4);
+                channel.write(new SpawnPosition(
+                        spawn.getBlockX(), spawn.getBlockY(), spawn.getBlockZ()
+                ));
+                channel.writeAndFlush(new TimeUpdate((int) getTargetWorld().getTime()));
+            }
+        });
+    }
+
+    @Override
+    public String getChunkBytes(int x, int z, ByteBuf out, ChunkDictionary dictionary, int sections) {
+        return getChunkManager(getTargetWorld()).getChunkBytes(x, z, out, dictionary, sections);
+    }
+
+    @Override
+    public boolean getTile(int zoom, int x, int y, ByteBuf out) throws IOException {
+        return getChunkManager(getTargetWorld()).getTileStore().getTile(zoom, x, y, out);
+    }
+
+    @Override
+    public boolean getMesh(int x, int z, int section, ByteBuf out) throws IOException {
+        if (!configuration.isMeshingEnabled()) {
+            return false;
+        }
+        ChunkMesher mesher;
+        synchronized (this) {
+            if (this.mesher == null) {
+                this.mesher = new ChunkMesher(this, resourceDir,
+                        configuration.shouldHideOres(), configuration.getMeshCacheSize());
+            }
+            mesher = this.mesher;
+        }
+        return mesher.getMesh(x, z, section, out);
+    }
+
+    /**
+     * Returns the colours used to draw the map tiles, loading them
+     * from the resources if required
+     *
+     * @return The block colours
+     */
+    public synchronized BlockColours getBlockColours() {
+        if (blockColours == null) {
+            try {
+                blockColours = BlockColours.load(resourceDir);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return blockColours;
+    }
+
+    @Override
+    public ChunkDictionary getCurrentDictionary() {
+        return chunkDictionaries.getCurrent();
+    }
+
+    @Override
+    public ChunkDictionary getDictionary(String id) {
+        return chunkDictionaries.get(id);
+    }
+
+    @Override
+    public void updateViewer(Object viewer, int x, int z, int heading) {
+        prefetcher.updateViewer(viewer, (x << 4) + 8, (z << 4) + 8, heading);
+    }
+
+    @Override
+    public void removeViewer(Object viewer) {
+        prefetcher.removeViewer(viewer);
+    }
+
+    @Override
+    public String getAddress() {
+        return configuration.getAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return configuration.getPort();
     }
 
     /**
@@ -278,7 +478,23 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
      *         The packet to send
      */
     public void sendAll(Packet<ServerPacketHandler> packet) {
-        getWebHandler().getChannelGroup().writeAndFlush(packet);
+        send(getWebHandler().getChannelGroup(), packet);
+    }
+
+    // Encodes the packet once and shares the buffer between the
+    // channels instead of each channel encoding its own copy
+    private void send(Collection<Channel> channels, Packet<ServerPacketHandler> packet) {
+        if (channels.isEmpty()) {
+            return;
+        }
+        ByteBuf buf = PacketEncoder.encode(PooledByteBufAllocator.DEFAULT, packet);
+        try {
+            for (Channel channel : channels) {
+                channel.writeAndFlush(buf.duplicate().retain());
+            }
+        } finally {
+            buf.release();
+        }
     }
 
     /**
@@ -321,6 +537,7 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
      *
      * @return The web handler
      */
+    @Override
     public WebHandler getWebHandler() {
         return webHandler;
     }
@@ -330,6 +547,7 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
      *
      * @return The location of the resources
      */
+    @Override
     public File getResourceDir() {
         return resourceDir;
     }
@@ -340,6 +558,7 @@ public class ThinkMapPlugin extends JavaPlugin implements Runnable {
      *
      * @return The start up date
      */
+    @Override
     public Date getStartUpDate() {
         return new Date(startUpDate.getTime());
     }
@@ -17,6 +17,9 @@
 package uk.co.thinkofdeath.thinkcraft.bukkit.commands;
 
 import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
+import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.scheduler.BukkitRunnable;
@@ -25,8 +28,14 @@ import uk.co.thinkofdeath.command.CommandHandler;
 import uk.co.thinkofdeath.parsing.bukkit.validators.HasPermission;
 import uk.co.thinkofdeath.parsing.validators.Range;
 import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkManager;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.MapExporter;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
 
 @SuppressWarnings("unused")
 public class Commands implements CommandHandler {
@@ -47,6 +56,24 @@ public class Commands implements CommandHandler {
                 + " currently connected to the map viewer");
     }
 
+    @Command("thinkmap prefetch ?")
+    @HasPermission(value = "thinkmap.prefetch", wildcard = true)
+    public void prefetch(CommandSender sender, @Range(min = 0, max = 32) int radius) {
+        plugin.getConfiguration().setPrefetchRadius(radius);
+        try {
+            plugin.getConfiguration().save();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (radius == 0) {
+            sender.sendMessage(ChatColor.AQUA + "Prefetching disabled");
+        } else {
+            sender.sendMessage(ChatColor.AQUA + "Prefetching chunks within "
+                    + radius + " chunk" + (radius != 1 ? "s" : "")
+                    + " of the spawn and viewers");
+        }
+    }
+
     @Command("thinkmap force-generate")
     @HasPermission(value = "thinkmap.force-generate", wildcard = true)
     public void forceGen(CommandSender sender) {
@@ -119,4 +146,59 @@ public class Commands implements CommandHandler {
             }
         }.runTaskTimer(plugin, 0, 10);
     }
+
+    @Command("thinkmap export ?")
+    @HasPermission(value = "thinkmap.export", wildcard = true)
+    public void export(final CommandSender sender, String folder) {
+        final World world = plugin.getTargetWorld();
+        final ChunkManager chunkManager = plugin.getChunkManager(world);
+        File target = new File(folder);
+        if (!target.isAbsolute()) {
+            target = new File(plugin.getDataFolder(), folder);
+        }
+        final File out = target;
+
+        // Loaded chunks are only stored once they unload so save
+        // them first to include the latest changes
+        final List<ChunkSnapshot> snapshots = new ArrayList<>();
+        for (Chunk chunk : world.getLoadedChunks()) {
+            snapshots.add(chunk.getChunkSnapshot(false, true, false));
+        }
+        final MapExporter exporter = new MapExporter(plugin.getWorldDir(), world.getName(),
+                plugin.getChunkDictionaries().getCurrent(), chunkManager.getWorldLock(),
+                plugin.getConfiguration().isSurfaceOnly());
+        Location spawn = world.getSpawnLocation();
+        exporter.setSpawn(spawn.getBlockX(), spawn.getBlockY(), spawn.getBlockZ());
+        exporter.setTime((int) world.getTime());
+        exporter.setHideOres(plugin.getConfiguration().shouldHideOres());
+
+        sender.sendMessage(ChatColor.AQUA + "Exporting " + world.getName() + " to " + out);
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+            @Override
+            public void run() {
+                final String message;
+                try {
+                    for (ChunkSnapshot snapshot : snapshots) {
+                        chunkManager.saveChunk(snapshot);
+                    }
+                    int count = exporter.export(out, plugin.getResourceDir());
+                    message = ChatColor.AQUA + "Exported " + count + " chunk" + (count != 1 ? "s" : "");
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to export the map", e);
+                    sendMessage(sender, ChatColor.RED + "Export failed: " + e.getMessage());
+                    return;
+                }
+                sendMessage(sender, message);
+            }
+        });
+    }
+
+    private void sendMessage(final CommandSender sender, final String message) {
+        plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                sender.sendMessage(message);
+            }
+        });
+    }
 }
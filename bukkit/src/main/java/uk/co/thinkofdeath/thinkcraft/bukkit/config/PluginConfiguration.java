@@ -33,6 +33,48 @@ public class PluginConfiguration extends ThinkConfig {
     // Client settings
     @ConfigField("client.hide-ores")
     private boolean hideOres = false;
+    // Only sends the sections of chunks that can be seen from
+    // the surface
+    @ConfigField("client.surface-only")
+    private boolean surfaceOnly = false;
+
+    // Storage
+    @ConfigField("storage.compaction.enabled")
+    private boolean compactionEnabled = true;
+    // In kilobytes per run
+    @ConfigField("storage.compaction.io-budget")
+    private int compactionBudget = 8192;
+    @ConfigField("storage.recompression.enabled")
+    private boolean recompressionEnabled = true;
+    @ConfigField("storage.dictionary.enabled")
+    private boolean dictionaryEnabled = true;
+    // Skips saving chunks that weren't changed whilst loaded,
+    // disable if other plugins edit the world without events
+    @ConfigField("storage.track-modifications")
+    private boolean trackModifications = true;
+
+    // Prefetching
+    // The radius (in chunks) kept warm around the spawn and
+    // viewers, 0 disables prefetching
+    @ConfigField("prefetch.radius")
+    private int prefetchRadius = 6;
+    // In kilobytes per run
+    @ConfigField("prefetch.io-budget")
+    private int prefetchIoBudget = 1024;
+    // Live chunks grabbed from the main thread per run
+    @ConfigField("prefetch.tick-budget")
+    private int prefetchTickBudget = 8;
+    // The number of compressed chunks kept in memory
+    @ConfigField("prefetch.cache-size")
+    private int chunkCacheSize = 1024;
+
+    // Server side meshing, builds the models of chunk sections
+    // for the viewers instead of them building it themselves
+    @ConfigField("meshing.enabled")
+    private boolean meshingEnabled = false;
+    // The number of built sections kept in memory
+    @ConfigField("meshing.cache-size")
+    private int meshCacheSize = 4096;
 
     // Internal
     @ConfigField("no-touchy.resource-version")
@@ -76,6 +118,102 @@ public class PluginConfiguration extends ThinkConfig {
         this.hideOres = hideOres;
     }
 
+    public boolean isSurfaceOnly() {
+        return surfaceOnly;
+    }
+
+    public void setSurfaceOnly(boolean surfaceOnly) {
+        this.surfaceOnly = surfaceOnly;
+    }
+
+    public boolean isCompactionEnabled() {
+        return compactionEnabled;
+    }
+
+    public void setCompactionEnabled(boolean compactionEnabled) {
+        this.compactionEnabled = compactionEnabled;
+    }
+
+    public boolean isRecompressionEnabled() {
+        return recompressionEnabled;
+    }
+
+    public void setRecompressionEnabled(boolean recompressionEnabled) {
+        this.recompressionEnabled = recompressionEnabled;
+    }
+
+    public boolean isDictionaryEnabled() {
+        return dictionaryEnabled;
+    }
+
+    public void setDictionaryEnabled(boolean dictionaryEnabled) {
+        this.dictionaryEnabled = dictionaryEnabled;
+    }
+
+    public int getCompactionBudget() {
+        return compactionBudget;
+    }
+
+    public void setCompactionBudget(int compactionBudget) {
+        this.compactionBudget = compactionBudget;
+    }
+
+    public boolean shouldTrackModifications() {
+        return trackModifications;
+    }
+
+    public void setTrackModifications(boolean trackModifications) {
+        this.trackModifications = trackModifications;
+    }
+
+    public int getPrefetchRadius() {
+        return prefetchRadius;
+    }
+
+    public void setPrefetchRadius(int prefetchRadius) {
+        this.prefetchRadius = prefetchRadius;
+    }
+
+    public int getPrefetchIoBudget() {
+        return prefetchIoBudget;
+    }
+
+    public void setPrefetchIoBudget(int prefetchIoBudget) {
+        this.prefetchIoBudget = prefetchIoBudget;
+    }
+
+    public int getPrefetchTickBudget() {
+        return prefetchTickBudget;
+    }
+
+    public void setPrefetchTickBudget(int prefetchTickBudget) {
+        this.prefetchTickBudget = prefetchTickBudget;
+    }
+
+    public int getChunkCacheSize() {
+        return chunkCacheSize;
+    }
+
+    public void setChunkCacheSize(int chunkCacheSize) {
+        this.chunkCacheSize = chunkCacheSize;
+    }
+
+    public boolean isMeshingEnabled() {
+        return meshingEnabled;
+    }
+
+    public void setMeshingEnabled(boolean meshingEnabled) {
+        this.meshingEnabled = meshingEnabled;
+    }
+
+    public int getMeshCacheSize() {
+        return meshCacheSize;
+    }
+
+    public void setMeshCacheSize(int meshCacheSize) {
+        this.meshCacheSize = meshCacheSize;
+    }
+
     public int getResourceVersion() {
         return resourceVersion;
     }
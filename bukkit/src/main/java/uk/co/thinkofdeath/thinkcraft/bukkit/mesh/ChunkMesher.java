@@ -0,0 +1,259 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.mesh;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.commons.io.IOUtils;
+import uk.co.thinkofdeath.thinkcraft.bukkit.web.MapServer;
+import uk.co.thinkofdeath.thinkcraft.jvm.JvmPlatform;
+import uk.co.thinkofdeath.thinkcraft.jvm.buffer.JvmBuffer;
+import uk.co.thinkofdeath.thinkcraft.jvm.buffer.JvmUByteBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.model.PositionedModel;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UByteBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.worker.ChunkBuildReply;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Builds the models of chunk sections on the server with the same
+ * code the client's web workers use. Viewers upload the models as is
+ * so a popular area is only built once instead of once per viewer.
+ * <p>
+ * Built sections are kept until the section or one of its
+ * neighbours changes. The chunks are fetched in parallel but the
+ * building happens one section at a time as the world isn't thread
+ * safe. The format of a built section is:
+ * <pre>
+ * byte  number of faces
+ * int[] side access per face
+ * int   opaque data length, byte[] opaque data
+ * int   transparent data length, byte[] transparent data
+ * int   number of transparent models
+ *       per model: byte x, byte y, byte z, int start, int length
+ * </pre>
+ * all of it gzip'd
+ */
+public class ChunkMesher {
+
+    // Chunks kept loaded to build from, neighbours included
+    private static final int LOADED_CHUNKS = 256;
+
+    private final MapServer server;
+    private final MeshViewer viewer;
+    private final Map<Long, MeshChunk> loaded = new LinkedHashMap<Long, MeshChunk>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, MeshChunk> eldest) {
+            if (size() > LOADED_CHUNKS) {
+                MeshChunk chunk = eldest.getValue();
+                viewer.getMeshWorld().unloadChunk(chunk.getX(), chunk.getZ());
+                return true;
+            }
+            return false;
+        }
+    };
+    private final Map<Long, BuiltSection> cache;
+    // Given to each chunk loaded into the world so that a section is
+    // rebuilt if any chunk it was built from is replaced
+    private long nextSerial = 1;
+
+    /**
+     * Creates a mesher which builds the chunks served by the server
+     *
+     * @param server
+     *         The server to get the chunks from
+     * @param resourceDir
+     *         The folder containing the client's resources
+     * @param hideOres
+     *         Whether ores are hidden from the client
+     * @param cacheSize
+     *         The number of built sections kept in memory
+     * @throws IOException
+     *         If the resources couldn't be read
+     */
+    public ChunkMesher(MapServer server, File resourceDir, boolean hideOres, final int cacheSize) throws IOException {
+        JvmPlatform.init();
+        this.server = server;
+        viewer = new MeshViewer(resourceDir, hideOres);
+        cache = new LinkedHashMap<Long, BuiltSection>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BuiltSection> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Writes the gzip'd built section into out, building it if it
+     * isn't cached or has changed since it was built
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @param sectionNumber
+     *         The section to build
+     * @param out
+     *         The buffer to write the built section to
+     * @return Whether the section exists
+     * @throws IOException
+     *         If the chunks couldn't be read
+     */
+    public boolean getMesh(int x, int z, int sectionNumber, ByteBuf out) throws IOException {
+        if (sectionNumber < 0 || sectionNumber > 15) {
+            return false;
+        }
+        // The neighbours change the faces and lighting at the
+        // edges of the section so they are needed as well
+        byte[][] data = new byte[9][];
+        for (int i = 0; i < 9; i++) {
+            data[i] = fetchChunk(x + (i % 3) - 1, z + (i / 3) - 1);
+        }
+        if (data[4] == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            long[] version = new long[9];
+            for (int i = 0; i < 9; i++) {
+                MeshChunk chunk = loadChunk(x + (i % 3) - 1, z + (i / 3) - 1, data[i]);
+                version[i] = chunk != null ? chunk.getSerial() : 0;
+            }
+            MeshChunk chunk = loaded.get(chunkKey(x, z));
+            if (chunk == null || !chunk.hasSection(sectionNumber)) {
+                return false;
+            }
+
+            long key = sectionKey(x, z, sectionNumber);
+            BuiltSection section = cache.get(key);
+            if (section == null || !Arrays.equals(section.version, version)) {
+                section = new BuiltSection(version, encode(chunk.build(sectionNumber, 0)));
+                cache.put(key, section);
+            }
+            out.writeBytes(section.data);
+            return true;
+        }
+    }
+
+    // Returns the gzip'd chunk as it would be sent to the client or
+    // null if it doesn't exist
+    private byte[] fetchChunk(int x, int z) {
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            // Without a dictionary the chunk is always gzip'd
+            if (server.getChunkBytes(x, z, buf, null, 0xFFFF) == null) {
+                return null;
+            }
+            byte[] data = new byte[buf.readableBytes()];
+            buf.readBytes(data);
+            return data;
+        } finally {
+            buf.release();
+        }
+    }
+
+    // Loads the chunk into the world if it isn't loaded or has
+    // changed since it was loaded
+    private MeshChunk loadChunk(int x, int z, byte[] data) throws IOException {
+        long key = chunkKey(x, z);
+        MeshChunk chunk = loaded.get(key);
+        if (data == null) {
+            unload(key, chunk);
+            return null;
+        }
+        if (chunk != null && chunk.isLoadedFrom(data)) {
+            return chunk;
+        }
+        unload(key, chunk);
+
+        byte[] raw = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(data)));
+        if (raw.length == 0 || raw[0] == 0) {
+            return null;
+        }
+        chunk = new MeshChunk(viewer.getMeshWorld(), x, z, JvmUByteBuffer.wrap(raw), data, nextSerial++);
+        viewer.getMeshWorld().addChunk(chunk);
+        chunk.postAdd();
+        loaded.put(key, chunk);
+        return chunk;
+    }
+
+    private void unload(long key, MeshChunk chunk) {
+        if (chunk != null) {
+            loaded.remove(key);
+            viewer.getMeshWorld().unloadChunk(chunk.getX(), chunk.getZ());
+        }
+    }
+
+    private static byte[] encode(ChunkBuildReply reply) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+            int[] access = reply.getAccessData();
+            out.writeByte(access.length);
+            for (int side : access) {
+                out.writeInt(side);
+            }
+            writeBuffer(out, reply.getData());
+            writeBuffer(out, reply.getTransData());
+            List<PositionedModel> models = reply.getTrans();
+            out.writeInt(models.size());
+            for (PositionedModel model : models) {
+                out.writeByte(model.getX());
+                out.writeByte(model.getY());
+                out.writeByte(model.getZ());
+                out.writeInt(model.getStart());
+                out.writeInt(model.getLength());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeBuffer(DataOutputStream out, UByteBuffer buffer) throws IOException {
+        byte[] data = ((JvmBuffer) buffer).toByteArray();
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static long chunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    private static long sectionKey(int x, int z, int sectionNumber) {
+        return ((long) x << 36) | ((z & 0xFFFFFFFL) << 4) | sectionNumber;
+    }
+
+    private static class BuiltSection {
+        // The serials of the chunks it was built from
+        private final long[] version;
+        private final byte[] data;
+
+        private BuiltSection(long[] version, byte[] data) {
+            this.version = version;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.mesh;
+
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UByteBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.world.BuildableChunk;
+
+import java.util.Arrays;
+
+class MeshChunk extends BuildableChunk {
+
+    private final byte[] source;
+    private final long serial;
+
+    /**
+     * Creates a chunk at the passed position from the data that
+     * would be sent to the client
+     *
+     * @param world
+     *         The world which owns this chunk
+     * @param x
+     *         The x position
+     * @param z
+     *         The z position
+     * @param data
+     *         The uncompressed chunk data
+     * @param source
+     *         The compressed data it was loaded from
+     * @param serial
+     *         The number given to this load of the chunk
+     */
+    MeshChunk(MeshWorld world, int x, int z, UByteBuffer data, byte[] source, long serial) {
+        super(world, x, z);
+        this.source = source;
+        this.serial = serial;
+        load(data, false);
+    }
+
+    /**
+     * Called after the chunk is added to the world
+     */
+    void postAdd() {
+        updateSections(0xFFFF);
+    }
+
+    /**
+     * Returns whether the chunk was loaded from the compressed data
+     *
+     * @param data
+     *         The compressed data
+     * @return Whether the data is the same
+     */
+    boolean isLoadedFrom(byte[] data) {
+        return Arrays.equals(source, data);
+    }
+
+    /**
+     * Returns the number given to this load of the chunk, unique
+     * within the mesher
+     *
+     * @return The serial
+     */
+    long getSerial() {
+        return serial;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.mesh;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.apache.commons.io.FileUtils;
+import uk.co.thinkofdeath.thinkcraft.shared.IMapViewer;
+import uk.co.thinkofdeath.thinkcraft.shared.Texture;
+import uk.co.thinkofdeath.thinkcraft.shared.TextureMap;
+import uk.co.thinkofdeath.thinkcraft.shared.block.BlockRegistry;
+import uk.co.thinkofdeath.thinkcraft.shared.model.Model;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.Platform;
+import uk.co.thinkofdeath.thinkcraft.shared.serializing.IntArraySerializer;
+import uk.co.thinkofdeath.thinkcraft.shared.serializing.Serializer;
+import uk.co.thinkofdeath.thinkcraft.shared.world.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stands in for the web worker's map viewer so that the shared
+ * block models can be built on the server
+ */
+class MeshViewer implements IMapViewer {
+
+    private final BlockRegistry blockRegistry = new BlockRegistry(this);
+    private final MeshWorld world = new MeshWorld(this);
+    private final HashMap<String, Texture> textures = new HashMap<>();
+
+    /**
+     * Loads the textures the client would use from the resources and
+     * registers the blocks
+     *
+     * @param resourceDir
+     *         The folder containing the client's resources
+     * @param hideOres
+     *         Whether ores are hidden from the client
+     * @throws IOException
+     *         If the resources couldn't be read
+     */
+    MeshViewer(File resourceDir, boolean hideOres) throws IOException {
+        JsonObject info = new Gson().fromJson(
+                FileUtils.readFileToString(new File(resourceDir, "blocks.json")), JsonObject.class);
+        // Same path as the client takes so the two can't disagree
+        TextureMap textureMap = new TextureMap();
+        textureMap.deserialize(toSerializer(info));
+        textureMap.copyTextures(textures);
+        textureMap.copyGrassColormap(Model.grassBiomeColors);
+        textureMap.copyFoliageColormap(Model.foliageBiomeColors);
+
+        if (hideOres) {
+            // Matches the client's replacements
+            Texture replacement = textures.get("stone");
+            textures.put("gold_ore", replacement);
+            textures.put("iron_ore", replacement);
+            textures.put("coal_ore", replacement);
+            textures.put("lapis_ore", replacement);
+            textures.put("diamond_ore", replacement);
+            textures.put("redstone_ore", replacement);
+            textures.put("emerald_ore", replacement);
+            textures.put("quartz_ore", textures.get("netherrack"));
+        }
+        blockRegistry.init();
+    }
+
+    private static Serializer toSerializer(JsonObject object) {
+        Serializer serializer = Platform.workerSerializers().create();
+        for (Map.Entry<String, JsonElement> e : object.entrySet()) {
+            JsonElement value = e.getValue();
+            if (value.isJsonObject()) {
+                serializer.putSub(e.getKey(), toSerializer(value.getAsJsonObject()));
+            } else if (value.isJsonArray()) {
+                // The only arrays in the texture info are frame lists
+                IntArraySerializer array = Platform.workerSerializers().createIntArray();
+                for (JsonElement element : value.getAsJsonArray()) {
+                    array.add(element.getAsInt());
+                }
+                serializer.putArray(e.getKey(), array);
+            } else if (value.isJsonPrimitive()) {
+                JsonPrimitive primitive = value.getAsJsonPrimitive();
+                if (primitive.isBoolean()) {
+                    serializer.putBoolean(e.getKey(), primitive.getAsBoolean());
+                } else if (primitive.isNumber()) {
+                    serializer.putInt(e.getKey(), primitive.getAsInt());
+                } else {
+                    serializer.putString(e.getKey(), primitive.getAsString());
+                }
+            }
+        }
+        return serializer;
+    }
+
+    @Override
+    public BlockRegistry getBlockRegistry() {
+        return blockRegistry;
+    }
+
+    @Override
+    public Texture getTexture(String name) {
+        Texture texture = textures.get(name);
+        if (texture == null) {
+            return textures.get("missing_texture");
+        }
+        return texture;
+    }
+
+    @Override
+    public World getWorld() {
+        return world;
+    }
+
+    /**
+     * Returns the world containing the chunks being built
+     *
+     * @return The world
+     */
+    MeshWorld getMeshWorld() {
+        return world;
+    }
+}
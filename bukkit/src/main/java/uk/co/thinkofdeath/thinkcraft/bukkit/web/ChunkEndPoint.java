@@ -22,7 +22,7 @@ import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import org.apache.commons.io.Charsets;
-import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkDictionary;
 
 import java.net.URI;
 
@@ -33,10 +33,10 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 public class ChunkEndPoint extends EndPoint {
 
-    private final ThinkMapPlugin plugin;
+    private final MapServer server;
 
-    public ChunkEndPoint(ThinkMapPlugin plugin) {
-        this.plugin = plugin;
+    public ChunkEndPoint(MapServer server) {
+        this.server = server;
     }
 
     @Override
@@ -44,15 +44,25 @@ public class ChunkEndPoint extends EndPoint {
         FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, context.alloc().buffer());
         response.headers().add("Access-Control-Allow-Origin", "*");
         response.headers().add("Access-Control-Allow-Methods", "POST");
+        response.headers().add("Access-Control-Expose-Headers", "Content-Encoding");
         if (request.getMethod() == OPTIONS) {
             response.headers().add("Access-Control-Allow-Headers", "origin, content-type, accept");
         }
 
         if (request.getMethod() == POST) {
+            // x:z[:dictionary[:sections]]
             String[] args = request.content().toString(Charsets.UTF_8).split(":");
             ByteBuf out = response.content();
-            if (plugin.getChunkManager(plugin.getTargetWorld()).getChunkBytes(Integer.parseInt(args[0]), Integer.parseInt(args[1]), out)) {
-                response.headers().add("Content-Encoding", "gzip");
+            ChunkDictionary dictionary = server.getCurrentDictionary();
+            if (dictionary != null && (args.length < 3 || !args[2].equals(dictionary.getId()))) {
+                // The client doesn't have the dictionary (yet)
+                dictionary = null;
+            }
+            int sections = args.length >= 4 ? Integer.parseInt(args[3], 16) : 0xFFFF;
+            String encoding = server.getChunkBytes(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                    out, dictionary, sections);
+            if (encoding != null) {
+                response.headers().add("Content-Encoding", encoding);
             } else {
                 out.writeBytes(new byte[1]);
             }
@@ -19,8 +19,6 @@ package uk.co.thinkofdeath.thinkcraft.bukkit.web;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import org.bukkit.Location;
-import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
 import uk.co.thinkofdeath.thinkcraft.protocol.ClientPacketHandler;
 import uk.co.thinkofdeath.thinkcraft.protocol.Packet;
 import uk.co.thinkofdeath.thinkcraft.protocol.packets.*;
@@ -28,11 +26,11 @@ import uk.co.thinkofdeath.thinkcraft.protocol.packets.*;
 public class ClientHandler extends SimpleChannelInboundHandler<Packet<ClientPacketHandler>> implements ClientPacketHandler {
 
     private final Channel channel;
-    private final ThinkMapPlugin plugin;
+    private final MapServer server;
 
-    public ClientHandler(Channel channel, ThinkMapPlugin plugin) {
+    public ClientHandler(Channel channel, MapServer server) {
         this.channel = channel;
-        this.plugin = plugin;
+        this.server = server;
     }
 
     @Override
@@ -42,23 +40,25 @@ public class ClientHandler extends SimpleChannelInboundHandler<Packet<ClientPack
 
     @Override
     public void handle(InitConnection initConnection) {
-        plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
-            @Override
-            public void run() {
-                channel.write(new ServerSettings(
-                        plugin.getConfiguration().shouldHideOres()
-                ));
-                Location spawn = plugin.getTargetWorld().getSpawnLocation();
-                channel.write(new SpawnPosition(
-                        spawn.getBlockX(), spawn.getBlockY(), spawn.getBlockZ()
-                ));
-                channel.writeAndFlush(new TimeUpdate((int) plugin.getTargetWorld().getTime()));
-            }
-        });
+        server.initConnection(channel);
     }
 
     @Override
     public void handle(KeepAlive keepAlive) {
 
     }
+
+    @Override
+    public void handle(ViewerInterest viewerInterest) {
+        server.getWebHandler().getInterests().update(channel,
+                viewerInterest.getX(), viewerInterest.getZ(), viewerInterest.getViewDistance());
+        server.updateViewer(this, viewerInterest.getX(), viewerInterest.getZ(), viewerInterest.getHeading());
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        server.getWebHandler().getInterests().remove(channel);
+        server.removeViewer(this);
+        super.channelInactive(ctx);
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.web;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkDictionary;
+
+import java.net.URI;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Serves the chunk dictionaries at /server/dictionary/{id}.
+ * A dictionary never changes so it may be cached forever
+ */
+public class DictionaryEndPoint extends EndPoint {
+
+    private final MapServer server;
+
+    public DictionaryEndPoint(MapServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void handle(ChannelHandlerContext context, URI uri, FullHttpRequest request) throws Exception {
+        String id = uri.getPath().substring("/server/dictionary/".length());
+        ChunkDictionary dictionary = server.getDictionary(id);
+        if (dictionary == null) {
+            sendHttpResponse(context, request, new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND));
+            return;
+        }
+        FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK,
+                Unpooled.wrappedBuffer(dictionary.getData()));
+        response.headers().set(CONTENT_TYPE, "application/octet-stream");
+        response.headers().set(CACHE_CONTROL, "public, max-age=31536000");
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        sendHttpResponse(context, request, response);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.web;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the encoded packets written to a viewer and sends them
+ * as a single websocket frame. Flushes are delayed until the end of
+ * the current event loop task so packets written together, or queued
+ * from another thread at the same time, share one frame and one
+ * write to the socket. The client reads packets from a frame until
+ * it runs out of data
+ */
+public class FrameCoalescer extends ChannelHandlerAdapter {
+
+    // Frames are sent early once they reach this size
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+
+    private final List<ChannelPromise> promises = new ArrayList<>();
+    private ByteBuf pending;
+    private boolean flushScheduled;
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            // Anything else (e.g. a close frame) must stay behind the
+            // packets written before it
+            writeFrame(ctx);
+            ctx.write(msg, promise);
+            return;
+        }
+        ByteBuf buf = (ByteBuf) msg;
+        try {
+            if (pending == null) {
+                pending = ctx.alloc().buffer();
+            }
+            pending.writeBytes(buf);
+        } finally {
+            buf.release();
+        }
+        promises.add(promise);
+        if (pending.readableBytes() >= MAX_FRAME_SIZE) {
+            writeFrame(ctx);
+        }
+    }
+
+    @Override
+    public void flush(final ChannelHandlerContext ctx) throws Exception {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        ctx.executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                flushScheduled = false;
+                writeFrame(ctx);
+                ctx.flush();
+            }
+        });
+    }
+
+    private void writeFrame(ChannelHandlerContext ctx) {
+        if (pending == null) {
+            return;
+        }
+        final ChannelPromise[] waiting = promises.toArray(new ChannelPromise[promises.size()]);
+        promises.clear();
+        ChannelFuture future = ctx.write(new BinaryWebSocketFrame(pending));
+        pending = null;
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                for (ChannelPromise promise : waiting) {
+                    if (future.isSuccess()) {
+                        promise.trySuccess();
+                    } else {
+                        promise.tryFailure(future.cause());
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (pending != null) {
+            pending.release();
+            pending = null;
+        }
+        for (ChannelPromise promise : promises) {
+            promise.tryFailure(new ClosedChannelException());
+        }
+        promises.clear();
+    }
+}
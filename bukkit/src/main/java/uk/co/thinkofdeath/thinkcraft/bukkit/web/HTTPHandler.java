@@ -25,7 +25,6 @@ import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.util.CharsetUtil;
-import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
 
 import java.net.URI;
 
@@ -38,10 +37,10 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
 public class HTTPHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 
-    private final ThinkMapPlugin plugin;
+    private final MapServer server;
 
-    public HTTPHandler(ThinkMapPlugin plugin) {
-        this.plugin = plugin;
+    public HTTPHandler(MapServer server) {
+        this.server = server;
     }
 
     @Override
@@ -63,7 +62,7 @@ public class HTTPHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
             return;
         }
 
-        plugin.getWebHandler().getEndPointManager().handle(context, uri, request);
+        server.getWebHandler().getEndPointManager().handle(context, uri, request);
     }
 
     public static void sendHttpResponse(ChannelHandlerContext context, FullHttpRequest request, FullHttpResponse response) {
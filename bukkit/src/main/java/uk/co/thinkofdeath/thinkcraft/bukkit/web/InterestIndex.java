@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.web;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import io.netty.channel.Channel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the area each connected viewer is looking at so that
+ * updates to a chunk only have to go to the viewers that can see it.
+ * The world is split into regions and each viewer is stored in every
+ * region its view covers, so a lookup only has to check the few
+ * viewers near the chunk instead of every viewer
+ */
+public class InterestIndex {
+
+    /**
+     * The view distance of the client, used until a viewer reports
+     * its own
+     */
+    public static final int DEFAULT_VIEW_DISTANCE = 6;
+
+    // Regions are 8x8 chunks
+    private static final int REGION_SHIFT = 3;
+    // Limits how many regions a single viewer can be stored in
+    private static final int MAX_VIEW_DISTANCE = 32;
+
+    private final Map<Channel, Interest> interests = new HashMap<>();
+    private final TLongObjectMap<List<Interest>> regions = new TLongObjectHashMap<>();
+
+    /**
+     * Updates the area the viewer is interested in
+     *
+     * @param channel
+     *         The viewer's channel
+     * @param x
+     *         The x coordinate of the chunk the viewer is in
+     * @param z
+     *         The z coordinate of the chunk the viewer is in
+     * @param viewDistance
+     *         How far (in chunks) the viewer can see
+     */
+    public synchronized void update(Channel channel, int x, int z, int viewDistance) {
+        viewDistance = Math.min(viewDistance, MAX_VIEW_DISTANCE);
+        Interest interest = interests.get(channel);
+        if (interest == null) {
+            interest = new Interest(channel);
+            interests.put(channel, interest);
+        } else if (interest.x == x && interest.z == z && interest.viewDistance == viewDistance) {
+            return;
+        } else {
+            unlink(interest);
+        }
+        interest.x = x;
+        interest.z = z;
+        interest.viewDistance = viewDistance;
+        link(interest);
+    }
+
+    /**
+     * Adds a newly connected viewer at the position it starts at,
+     * unless it has already reported where it is. Viewers that have
+     * disconnected are ignored
+     *
+     * @param channel
+     *         The viewer's channel
+     * @param x
+     *         The x coordinate of the chunk the viewer starts in
+     * @param z
+     *         The z coordinate of the chunk the viewer starts in
+     */
+    public synchronized void seed(Channel channel, int x, int z) {
+        if (channel.isActive() && !interests.containsKey(channel)) {
+            update(channel, x, z, DEFAULT_VIEW_DISTANCE);
+        }
+    }
+
+    /**
+     * Removes the viewer from the index
+     *
+     * @param channel
+     *         The viewer's channel
+     */
+    public synchronized void remove(Channel channel) {
+        Interest interest = interests.remove(channel);
+        if (interest != null) {
+            unlink(interest);
+        }
+    }
+
+    /**
+     * Returns the channels of the viewers that can see the chunk
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @return The interested viewers' channels
+     */
+    public synchronized List<Channel> getInterested(int x, int z) {
+        List<Channel> channels = new ArrayList<>();
+        List<Interest> region = regions.get(regionKey(x >> REGION_SHIFT, z >> REGION_SHIFT));
+        if (region == null) {
+            return channels;
+        }
+        for (Interest interest : region) {
+            if (interest.covers(x, z)) {
+                channels.add(interest.channel);
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Returns the number of viewers that have reported what they
+     * are looking at
+     *
+     * @return The number of viewers
+     */
+    public synchronized int size() {
+        return interests.size();
+    }
+
+    private void link(Interest interest) {
+        for (int rx = interest.minRegionX(); rx <= interest.maxRegionX(); rx++) {
+            for (int rz = interest.minRegionZ(); rz <= interest.maxRegionZ(); rz++) {
+                long key = regionKey(rx, rz);
+                List<Interest> region = regions.get(key);
+                if (region == null) {
+                    region = new ArrayList<>();
+                    regions.put(key, region);
+                }
+                region.add(interest);
+            }
+        }
+    }
+
+    private void unlink(Interest interest) {
+        for (int rx = interest.minRegionX(); rx <= interest.maxRegionX(); rx++) {
+            for (int rz = interest.minRegionZ(); rz <= interest.maxRegionZ(); rz++) {
+                long key = regionKey(rx, rz);
+                List<Interest> region = regions.get(key);
+                if (region == null) {
+                    continue;
+                }
+                region.remove(interest);
+                if (region.isEmpty()) {
+                    regions.remove(key);
+                }
+            }
+        }
+    }
+
+    private static long regionKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    private static class Interest {
+        private final Channel channel;
+        private int x;
+        private int z;
+        private int viewDistance;
+
+        Interest(Channel channel) {
+            this.channel = channel;
+        }
+
+        boolean covers(int x, int z) {
+            return Math.abs(x - this.x) <= viewDistance && Math.abs(z - this.z) <= viewDistance;
+        }
+
+        int minRegionX() {
+            return (x - viewDistance) >> REGION_SHIFT;
+        }
+
+        int maxRegionX() {
+            return (x + viewDistance) >> REGION_SHIFT;
+        }
+
+        int minRegionZ() {
+            return (z - viewDistance) >> REGION_SHIFT;
+        }
+
+        int maxRegionZ() {
+            return (z + viewDistance) >> REGION_SHIFT;
+        }
+    }
+}
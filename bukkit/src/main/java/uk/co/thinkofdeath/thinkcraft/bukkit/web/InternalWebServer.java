@@ -26,7 +26,6 @@ import io.netty.handler.codec.http.FullHttpResponse;
 import io.netty.handler.codec.http.HttpMethod;
 import org.apache.commons.io.Charsets;
 import org.apache.commons.io.IOUtils;
-import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
 
 import java.io.InputStream;
 import java.net.URI;
@@ -53,10 +52,10 @@ public class InternalWebServer extends EndPoint {
 
 
     private final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
-    private final ThinkMapPlugin plugin;
+    private final MapServer server;
 
-    public InternalWebServer(ThinkMapPlugin plugin) {
-        this.plugin = plugin;
+    public InternalWebServer(MapServer server) {
+        this.server = server;
     }
 
     @Override
@@ -69,7 +68,7 @@ public class InternalWebServer extends EndPoint {
         if (modified != null && !modified.isEmpty()) {
             Date modifiedDate = format.parse(modified);
 
-            if (modifiedDate.equals(plugin.getStartUpDate())) {
+            if (modifiedDate.equals(server.getStartUpDate())) {
                 sendHttpResponse(context, request, new DefaultFullHttpResponse(HTTP_1_1, NOT_MODIFIED));
                 return;
             }
@@ -94,7 +93,7 @@ public class InternalWebServer extends EndPoint {
 
         if (path.equals("/index.html")) {
             String page = buffer.toString(Charsets.UTF_8);
-            page = page.replaceAll("%SERVERPORT%", Integer.toString(plugin.getConfiguration().getPort()));
+            page = page.replaceAll("%SERVERPORT%", Integer.toString(server.getPort()));
             buffer.release();
             buffer = Unpooled.wrappedBuffer(page.getBytes(Charsets.UTF_8));
         }
@@ -102,7 +101,7 @@ public class InternalWebServer extends EndPoint {
         FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, buffer);
 
         response.headers().set(DATE, format.format(new Date()));
-        response.headers().set(LAST_MODIFIED, format.format(plugin.getStartUpDate()));
+        response.headers().set(LAST_MODIFIED, format.format(server.getStartUpDate()));
 
 
         String ext = path.substring(path.lastIndexOf('.') + 1);
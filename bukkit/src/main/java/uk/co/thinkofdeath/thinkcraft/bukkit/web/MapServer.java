@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.web;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkDictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * The map served by the web server. Implemented by the plugin and
+ * by the standalone server which serves the stored worlds without
+ * the game server
+ */
+public interface MapServer {
+
+    /**
+     * Returns the address the web server binds to
+     *
+     * @return The bind address
+     */
+    String getAddress();
+
+    /**
+     * Returns the port the web server listens on
+     *
+     * @return The port
+     */
+    int getPort();
+
+    /**
+     * Returns the date that map viewer started up at
+     * (used for caching)
+     *
+     * @return The start up date
+     */
+    Date getStartUpDate();
+
+    /**
+     * Returns the location of the resources used by the client
+     *
+     * @return The location of the resources
+     */
+    File getResourceDir();
+
+    /**
+     * Returns the web handler serving this map
+     *
+     * @return The web handler
+     */
+    WebHandler getWebHandler();
+
+    /**
+     * Returns the dictionary chunks should be compressed with or
+     * null if there isn't one yet
+     *
+     * @return The current dictionary
+     */
+    ChunkDictionary getCurrentDictionary();
+
+    /**
+     * Returns the dictionary with the id
+     *
+     * @param id
+     *         The id of the dictionary
+     * @return The dictionary or null if it doesn't exist
+     */
+    ChunkDictionary getDictionary(String id);
+
+    /**
+     * Gets the compressed chunk data for the location and stores it
+     * in out
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @param out
+     *         The buffer to write the data to
+     * @param dictionary
+     *         The dictionary the client has or null
+     * @param sections
+     *         The mask of sections the client wants
+     * @return The content encoding of the data or null if the chunk
+     * wasn't loaded for any reason
+     */
+    String getChunkBytes(int x, int z, ByteBuf out, ChunkDictionary dictionary, int sections);
+
+    /**
+     * Writes the gzip'd map tile into out
+     *
+     * @param zoom
+     *         The zoom level of the tile, 0 being the most detailed
+     * @param x
+     *         The x coordinate of the tile
+     * @param y
+     *         The y (z in the world) coordinate of the tile
+     * @param out
+     *         The buffer to write the tile to
+     * @return Whether the tile exists
+     * @throws IOException
+     *         If the tile couldn't be rendered
+     * @see uk.co.thinkofdeath.thinkcraft.bukkit.world.TileStore
+     */
+    boolean getTile(int zoom, int x, int y, ByteBuf out) throws IOException;
+
+    /**
+     * Writes the gzip'd built chunk section into out
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @param section
+     *         The section to build
+     * @param out
+     *         The buffer to write the built section to
+     * @return Whether the section was built, false if server side
+     * meshing is disabled or the section doesn't exist
+     * @throws IOException
+     *         If the section couldn't be built
+     * @see uk.co.thinkofdeath.thinkcraft.bukkit.mesh.ChunkMesher
+     */
+    boolean getMesh(int x, int z, int section, ByteBuf out) throws IOException;
+
+    /**
+     * Sends the settings, spawn position and time to a newly
+     * connected viewer
+     *
+     * @param channel
+     *         The viewer's channel
+     */
+    void initConnection(Channel channel);
+
+    /**
+     * Called when a viewer moves into another chunk or turns
+     *
+     * @param viewer
+     *         The viewer
+     * @param x
+     *         The x coordinate of the chunk the viewer is in
+     * @param z
+     *         The z coordinate of the chunk the viewer is in
+     * @param heading
+     *         The direction the viewer is facing in 256ths of a turn
+     */
+    void updateViewer(Object viewer, int x, int z, int heading);
+
+    /**
+     * Called when a viewer disconnects
+     *
+     * @param viewer
+     *         The viewer
+     */
+    void removeViewer(Object viewer);
+}
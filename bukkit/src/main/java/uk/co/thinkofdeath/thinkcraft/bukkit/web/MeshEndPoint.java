@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.web;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import org.apache.commons.io.Charsets;
+
+import java.io.IOException;
+import java.net.URI;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpMethod.OPTIONS;
+import static io.netty.handler.codec.http.HttpMethod.POST;
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Serves the chunk sections built by the server. The section is
+ * requested with a POST of x:z:section, a 404 tells the client to
+ * build it itself
+ *
+ * @see uk.co.thinkofdeath.thinkcraft.bukkit.mesh.ChunkMesher
+ */
+public class MeshEndPoint extends EndPoint {
+
+    private final MapServer server;
+
+    public MeshEndPoint(MapServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void handle(final ChannelHandlerContext context, URI uri, final FullHttpRequest request) throws Exception {
+        if (request.getMethod() != POST) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK);
+            if (request.getMethod() == OPTIONS) {
+                response.headers().add("Access-Control-Allow-Headers", "origin, content-type, accept");
+            }
+            sendResponse(context, request, response);
+            return;
+        }
+        final String[] args = request.content().toString(Charsets.UTF_8).split(":");
+        if (args.length != 3) {
+            sendResponse(context, request, new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND));
+            return;
+        }
+        final int x = Integer.parseInt(args[0]);
+        final int z = Integer.parseInt(args[1]);
+        final int section = Integer.parseInt(args[2]);
+        // Building may have to wait on the disk and for other sections
+        server.getWebHandler().getBlockingGroup().execute(new Runnable() {
+            @Override
+            public void run() {
+                FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, context.alloc().buffer());
+                try {
+                    if (!server.getMesh(x, z, section, response.content())) {
+                        response.release();
+                        response = new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND);
+                    } else {
+                        response.headers().set(CONTENT_TYPE, "application/octet-stream");
+                        response.headers().set(CONTENT_ENCODING, "gzip");
+                    }
+                } catch (IOException e) {
+                    response.release();
+                    response = new DefaultFullHttpResponse(HTTP_1_1, INTERNAL_SERVER_ERROR);
+                    context.fireExceptionCaught(e);
+                }
+                sendResponse(context, request, response);
+            }
+        });
+    }
+
+    private static void sendResponse(ChannelHandlerContext context, FullHttpRequest request, FullHttpResponse response) {
+        response.headers().add("Access-Control-Allow-Origin", "*");
+        response.headers().add("Access-Control-Allow-Methods", "POST");
+        sendHttpResponse(context, request, response);
+    }
+}
@@ -17,21 +17,42 @@
 package uk.co.thinkofdeath.thinkcraft.bukkit.web;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageEncoder;
-import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import uk.co.thinkofdeath.thinkcraft.protocol.Packet;
 import uk.co.thinkofdeath.thinkcraft.protocol.Packets;
 import uk.co.thinkofdeath.thinkcraft.protocol.ServerPacketHandler;
 
 import java.util.List;
 
+/**
+ * Encodes packets into buffers which the {@link FrameCoalescer} then
+ * groups into websocket frames. Packets that were already encoded
+ * (see {@link #encode(ByteBufAllocator, Packet)}) aren't packets so
+ * they pass through untouched
+ */
 public class PacketEncoder extends MessageToMessageEncoder<Packet<ServerPacketHandler>> {
     @Override
     protected void encode(ChannelHandlerContext ctx, Packet<ServerPacketHandler> msg, List<Object> out) throws Exception {
-        ByteBuf buf = ctx.alloc().buffer();
-        buf.writeByte(Packets.getServerPacketId(msg));
-        msg.write(new ByteBufPacketStream(buf));
-        out.add(new BinaryWebSocketFrame(buf));
+        out.add(encode(ctx.alloc(), msg));
+    }
+
+    /**
+     * Encodes the packet into a buffer. This allows a packet sent to
+     * many viewers to be encoded once and then written to each channel
+     * as a retained duplicate of the buffer
+     *
+     * @param alloc
+     *         The allocator to create the buffer with
+     * @param packet
+     *         The packet to encode
+     * @return The encoded packet
+     */
+    public static ByteBuf encode(ByteBufAllocator alloc, Packet<ServerPacketHandler> packet) {
+        ByteBuf buf = alloc.buffer();
+        buf.writeByte(Packets.getServerPacketId(packet));
+        packet.write(new ByteBufPacketStream(buf));
+        return buf;
     }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.web;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerAdapter;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Negotiates the permessage-deflate websocket extension (RFC 7692)
+ * with viewers that offer it and then compresses the frames sent to
+ * them and decompresses the frames they send. Both directions keep
+ * their compression context between messages, which suits the many
+ * small, similar packets the map sends
+ */
+public class PerMessageDeflateHandler extends ChannelHandlerAdapter {
+
+    private static final String EXTENSIONS = "Sec-WebSocket-Extensions";
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+    // The compressed flag on a frame
+    private static final int RSV1 = 0x4;
+    // Smaller frames gain nothing from compression
+    private static final int MIN_SIZE = 64;
+    // Limits how large a message from a viewer can inflate to
+    private static final int MAX_INFLATED_SIZE = 64 * 1024;
+    // Every flushed deflate block ends with this, it is removed
+    // before sending and added back before inflating
+    private static final byte[] TAIL = {0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
+
+    private final byte[] chunk = new byte[8192];
+    private boolean offered;
+    private Deflater deflater;
+    private Inflater inflater;
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof FullHttpRequest) {
+            offered = acceptable(((FullHttpRequest) msg).headers().get(EXTENSIONS));
+        } else if (inflater != null && msg instanceof BinaryWebSocketFrame
+                && (((WebSocketFrame) msg).rsv() & RSV1) != 0) {
+            msg = inflate(ctx, (BinaryWebSocketFrame) msg);
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (offered && msg instanceof HttpResponse
+                && ((HttpResponse) msg).getStatus().code() == HttpResponseStatus.SWITCHING_PROTOCOLS.code()) {
+            offered = false;
+            ((HttpResponse) msg).headers().set(EXTENSIONS, PERMESSAGE_DEFLATE);
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            inflater = new Inflater(true);
+        } else if (deflater != null && msg instanceof BinaryWebSocketFrame) {
+            BinaryWebSocketFrame frame = (BinaryWebSocketFrame) msg;
+            if (frame.rsv() == 0 && frame.content().readableBytes() >= MIN_SIZE) {
+                msg = deflate(ctx, frame);
+            }
+        }
+        ctx.write(msg, promise);
+    }
+
+    // Only the parameters browsers send are supported, offers that
+    // limit the server's window are declined
+    private static boolean acceptable(String extensions) {
+        if (extensions == null) {
+            return false;
+        }
+        for (String extension : extensions.split(",")) {
+            String[] params = extension.split(";");
+            if (!params[0].trim().equals(PERMESSAGE_DEFLATE)) {
+                continue;
+            }
+            boolean ok = true;
+            for (int i = 1; i < params.length; i++) {
+                String name = params[i].split("=")[0].trim();
+                if (!name.equals("client_max_window_bits")
+                        && !name.equals("client_no_context_takeover")) {
+                    ok = false;
+                }
+            }
+            if (ok) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private BinaryWebSocketFrame deflate(ChannelHandlerContext ctx, BinaryWebSocketFrame frame) {
+        ByteBuf content = frame.content();
+        byte[] input = new byte[content.readableBytes()];
+        content.readBytes(input);
+        frame.release();
+
+        deflater.setInput(input);
+        ByteBuf out = ctx.alloc().buffer(input.length);
+        int count;
+        do {
+            count = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+            out.writeBytes(chunk, 0, count);
+        } while (count == chunk.length);
+        out.writerIndex(out.writerIndex() - TAIL.length);
+        return new BinaryWebSocketFrame(true, RSV1, out);
+    }
+
+    private BinaryWebSocketFrame inflate(ChannelHandlerContext ctx, BinaryWebSocketFrame frame) throws DataFormatException {
+        ByteBuf content = frame.content();
+        byte[] input = new byte[content.readableBytes() + TAIL.length];
+        content.readBytes(input, 0, input.length - TAIL.length);
+        System.arraycopy(TAIL, 0, input, input.length - TAIL.length, TAIL.length);
+        frame.release();
+
+        inflater.setInput(input);
+        ByteBuf out = ctx.alloc().buffer(input.length * 2);
+        int count;
+        while ((count = inflater.inflate(chunk)) > 0) {
+            out.writeBytes(chunk, 0, count);
+            if (out.readableBytes() > MAX_INFLATED_SIZE) {
+                out.release();
+                throw new DataFormatException("Message too large");
+            }
+        }
+        return new BinaryWebSocketFrame(true, 0, out);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (deflater != null) {
+            deflater.end();
+            inflater.end();
+        }
+    }
+}
@@ -23,7 +23,6 @@ import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
 import org.apache.commons.io.IOUtils;
-import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -50,16 +49,16 @@ public class ResourcesServer extends EndPoint {
         mimeTypes.put("css", "text/css");
     }
 
-    private final ThinkMapPlugin plugin;
+    private final MapServer server;
     private final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
 
-    public ResourcesServer(ThinkMapPlugin plugin) {
-        this.plugin = plugin;
+    public ResourcesServer(MapServer server) {
+        this.server = server;
     }
 
     @Override
     public void handle(ChannelHandlerContext context, URI uri, FullHttpRequest request) throws Exception {
-        File file = new File(plugin.getResourceDir(), uri.getPath().substring("/resources/".length()));
+        File file = new File(server.getResourceDir(), uri.getPath().substring("/resources/".length()));
         if (!file.exists()) {
             sendHttpResponse(context, request, new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND));
             return;
@@ -69,7 +68,7 @@ public class ResourcesServer extends EndPoint {
         if (modified != null && !modified.isEmpty()) {
             Date modifiedDate = format.parse(modified);
 
-            if (modifiedDate.equals(plugin.getStartUpDate())) {
+            if (modifiedDate.equals(server.getStartUpDate())) {
                 sendHttpResponse(context, request, new DefaultFullHttpResponse(HTTP_1_1, NOT_MODIFIED));
                 return;
             }
@@ -86,7 +85,7 @@ public class ResourcesServer extends EndPoint {
         FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, buffer);
 
         response.headers().set(DATE, format.format(new Date()));
-        response.headers().set(LAST_MODIFIED, format.format(plugin.getStartUpDate()));
+        response.headers().set(LAST_MODIFIED, format.format(server.getStartUpDate()));
 
         if (uri.getPath().startsWith("/resources/assets")) {
             Calendar calendar = Calendar.getInstance();
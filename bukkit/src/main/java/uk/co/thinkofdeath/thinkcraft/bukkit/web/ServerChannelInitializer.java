@@ -24,14 +24,13 @@ import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.timeout.ReadTimeoutHandler;
-import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
 
 public class ServerChannelInitializer extends ChannelInitializer<SocketChannel> {
 
-    private final ThinkMapPlugin plugin;
+    private final MapServer server;
 
-    public ServerChannelInitializer(ThinkMapPlugin plugin) {
-        this.plugin = plugin;
+    public ServerChannelInitializer(MapServer server) {
+        this.server = server;
     }
 
     @Override
@@ -40,14 +39,17 @@ public class ServerChannelInitializer extends ChannelInitializer<SocketChannel>
         pipeline.addLast("timeout", new ReadTimeoutHandler(15));
         pipeline.addLast("codec-http", new HttpServerCodec());
         pipeline.addLast("aggregator", new HttpObjectAggregator(65536));
-        pipeline.addLast("handler", new HTTPHandler(plugin));
-        pipeline.addLast("websocket", new WebSocketServerProtocolHandler("/server"));
+        pipeline.addLast("handler", new HTTPHandler(server));
+        pipeline.addLast("websocket-deflate", new PerMessageDeflateHandler());
+        // Extensions are allowed so that compressed frames are accepted
+        pipeline.addLast("websocket", new WebSocketServerProtocolHandler("/server", null, true));
+        pipeline.addLast("frame-coalescer", new FrameCoalescer());
         pipeline.addLast("packet-decoder", new PacketDecoder());
         pipeline.addLast("packet-encoder", new PacketEncoder());
-        pipeline.addLast("packet-handler", new ClientHandler(socketChannel, plugin));
+        pipeline.addLast("packet-handler", new ClientHandler(socketChannel, server));
 
         socketChannel.config().setAllocator(PooledByteBufAllocator.DEFAULT);
 
-        plugin.getWebHandler().getChannelGroup().add(socketChannel);
+        server.getWebHandler().getChannelGroup().add(socketChannel);
     }
 }
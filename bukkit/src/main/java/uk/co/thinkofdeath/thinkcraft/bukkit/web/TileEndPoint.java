@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.web;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Serves the top down map tiles at /server/tiles/{zoom}/{x}/{y}
+ *
+ * @see uk.co.thinkofdeath.thinkcraft.bukkit.world.TileStore
+ */
+public class TileEndPoint extends EndPoint {
+
+    private static final Pattern PATH = Pattern.compile("^/server/tiles/([0-9]+)/(-?[0-9]+)/(-?[0-9]+)$");
+
+    private final MapServer server;
+
+    public TileEndPoint(MapServer server) {
+        this.server = server;
+    }
+
+    @Override
+    public void handle(final ChannelHandlerContext context, URI uri, final FullHttpRequest request) throws Exception {
+        Matcher matcher = PATH.matcher(uri.getPath());
+        if (!matcher.matches()) {
+            FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND);
+            response.headers().add("Access-Control-Allow-Origin", "*");
+            sendHttpResponse(context, request, response);
+            return;
+        }
+        final int zoom = Integer.parseInt(matcher.group(1));
+        final int x = Integer.parseInt(matcher.group(2));
+        final int y = Integer.parseInt(matcher.group(3));
+        // Rendering a tile may read a lot of region files
+        server.getWebHandler().getBlockingGroup().execute(new Runnable() {
+            @Override
+            public void run() {
+                FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, context.alloc().buffer());
+                try {
+                    if (!server.getTile(zoom, x, y, response.content())) {
+                        response.release();
+                        response = new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND);
+                    } else {
+                        response.headers().set(CONTENT_TYPE, "application/octet-stream");
+                        response.headers().set(CONTENT_ENCODING, "gzip");
+                        // Tiles change as the world does but slowly
+                        response.headers().set(CACHE_CONTROL, "public, max-age=60");
+                    }
+                } catch (IOException e) {
+                    response.release();
+                    response = new DefaultFullHttpResponse(HTTP_1_1, INTERNAL_SERVER_ERROR);
+                    context.fireExceptionCaught(e);
+                }
+                response.headers().add("Access-Control-Allow-Origin", "*");
+                sendHttpResponse(context, request, response);
+            }
+        });
+    }
+}
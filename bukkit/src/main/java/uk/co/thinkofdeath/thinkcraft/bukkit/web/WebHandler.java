@@ -23,8 +23,9 @@ import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
 import io.netty.util.concurrent.GlobalEventExecutor;
-import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
 
 import java.util.regex.Pattern;
 
@@ -33,37 +34,39 @@ public class WebHandler implements Runnable {
 
     private final ChannelGroup channels =
             new DefaultChannelGroup("ThinkMap Connections", GlobalEventExecutor.INSTANCE);
-    private final ThinkMapPlugin plugin;
+    private final MapServer server;
     private final EndPointManager endPointManager = new EndPointManager();
+    private final InterestIndex interests = new InterestIndex();
     private Channel channel;
+    private volatile EventExecutorGroup blockingGroup;
 
-    public WebHandler(ThinkMapPlugin plugin) {
-        this.plugin = plugin;
+    public WebHandler(MapServer server) {
+        this.server = server;
 
-        endPointManager.setDefault(new InternalWebServer(plugin));
-        endPointManager.add(Pattern.compile("/resources/.*"), new ResourcesServer(plugin));
+        endPointManager.setDefault(new InternalWebServer(server));
+        endPointManager.add(Pattern.compile("/resources/.*"), new ResourcesServer(server));
 
-        endPointManager.add("/server/chunk", new ChunkEndPoint(plugin));
+        endPointManager.add("/server/chunk", new ChunkEndPoint(server));
+        endPointManager.add(Pattern.compile("^/server/dictionary/"), new DictionaryEndPoint(server));
+        endPointManager.add(Pattern.compile("^/server/tiles/"), new TileEndPoint(server));
+        endPointManager.add("/server/mesh", new MeshEndPoint(server));
         endPointManager.add("/server/ws", new ServerEndPoint());
     }
 
-    public void start() {
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this);
-    }
-
     @Override
     public void run() {
         EventLoopGroup bossGroup = new NioEventLoopGroup();
         EventLoopGroup workerGroup = new NioEventLoopGroup();
+        blockingGroup = new DefaultEventExecutorGroup(Runtime.getRuntime().availableProcessors());
         try {
             ServerBootstrap bootstrap = new ServerBootstrap();
             bootstrap.group(bossGroup, workerGroup)
                     .channel(NioServerSocketChannel.class)
-                    .childHandler(new ServerChannelInitializer(plugin));
+                    .childHandler(new ServerChannelInitializer(server));
 
             channel = bootstrap.bind(
-                    plugin.getConfiguration().getAddress(),
-                    plugin.getConfiguration().getPort()
+                    server.getAddress(),
+                    server.getPort()
             ).sync().channel();
 
             channel.closeFuture().sync();
@@ -72,6 +75,7 @@ public class WebHandler implements Runnable {
         } finally {
             bossGroup.shutdownGracefully();
             workerGroup.shutdownGracefully();
+            blockingGroup.shutdownGracefully();
         }
     }
 
@@ -83,6 +87,21 @@ public class WebHandler implements Runnable {
         return channels;
     }
 
+    public InterestIndex getInterests() {
+        return interests;
+    }
+
+    /**
+     * Returns the executors used for requests that have to wait on
+     * the disk or build something, so they don't hold up the event
+     * loop serving every other connection
+     *
+     * @return The executors for blocking requests
+     */
+    public EventExecutorGroup getBlockingGroup() {
+        return blockingGroup;
+    }
+
     public Channel getChannel() {
         return channel;
     }
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.apache.commons.io.FileUtils;
+import uk.co.thinkofdeath.thinkcraft.shared.world.Biome;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The colour of each block when seen from above, used to render
+ * the map tiles. Colours are the average of the block's top
+ * texture taken from the stitched resources, tinted by the biome
+ * for grass and leaves
+ */
+public class BlockColours {
+
+    // Must match the size used by the texture stitcher
+    private static final int ATLAS_SIZE = 512;
+    private static final int MISSING = 0x7F7F7F;
+    private static final int DEFAULT_GRASS = 0x8DB360;
+    private static final int DEFAULT_FOLIAGE = 0x71A74D;
+
+    private static final int TINT_NONE = 0;
+    private static final int TINT_GRASS = 1;
+    private static final int TINT_FOLIAGE = 2;
+
+    private static final String[] COLOURS = {
+            "white", "orange", "magenta", "light_blue", "yellow", "lime", "pink", "gray",
+            "silver", "cyan", "purple", "blue", "brown", "green", "red", "black"
+    };
+    private static final String[] PLANKS = {"oak", "spruce", "birch", "jungle", "acacia", "big_oak"};
+
+    private final String[] textures = new String[4096];
+    private final byte[] tints = new byte[4096];
+    private final int[] colours = new int[4096];
+    private final Map<Integer, Integer> grassColours = new HashMap<>();
+    private final Map<Integer, Integer> foliageColours = new HashMap<>();
+
+    private BlockColours() {
+        register(1, "stone");
+        register(2, "grass_top", TINT_GRASS);
+        register(3, "dirt");
+        register(3, 2, "dirt_podzol_top");
+        register(4, "cobblestone");
+        for (int i = 0; i < PLANKS.length; i++) {
+            register(5, i, "planks_" + PLANKS[i]);
+            register(125, i, "planks_" + PLANKS[i]);
+            register(126, i, "planks_" + PLANKS[i]);
+            register(126, i | 8, "planks_" + PLANKS[i]);
+        }
+        register(7, "bedrock");
+        register(8, "water_still");
+        register(9, "water_still");
+        register(10, "lava_still");
+        register(11, "lava_still");
+        register(12, "sand");
+        register(12, 1, "red_sand");
+        register(13, "gravel");
+        register(14, "gold_ore");
+        register(15, "iron_ore");
+        register(16, "coal_ore");
+        for (int i = 0; i < 16; i++) {
+            register(17, i, "log_" + PLANKS[i & 3] + "_top");
+            register(18, i, "leaves_" + PLANKS[i & 3], TINT_FOLIAGE);
+            register(161, i, "leaves_" + PLANKS[4 + (i & 1)], TINT_FOLIAGE);
+            register(162, i, "log_" + PLANKS[4 + (i & 1)] + "_top");
+            register(35, i, "wool_colored_" + COLOURS[i]);
+            register(171, i, "wool_colored_" + COLOURS[i]);
+            register(159, i, "hardened_clay_stained_" + COLOURS[i]);
+        }
+        register(19, "sponge");
+        register(20, "glass");
+        register(21, "lapis_ore");
+        register(22, "lapis_block");
+        register(24, "sandstone_top");
+        register(41, "gold_block");
+        register(42, "iron_block");
+        register(43, "stone_slab_top");
+        register(44, "stone_slab_top");
+        register(45, "brick");
+        register(46, "tnt_top");
+        register(47, "planks_oak");
+        register(48, "cobblestone_mossy");
+        register(49, "obsidian");
+        register(52, "mob_spawner");
+        register(53, "planks_oak");
+        register(54, "planks_oak");
+        register(56, "diamond_ore");
+        register(57, "diamond_block");
+        register(58, "crafting_table_top");
+        register(60, "farmland_wet");
+        register(61, "furnace_top");
+        register(62, "furnace_top");
+        register(67, "cobblestone");
+        register(73, "redstone_ore");
+        register(74, "redstone_ore");
+        register(78, "snow");
+        register(79, "ice");
+        register(80, "snow");
+        register(81, "cactus_top");
+        register(82, "clay");
+        register(86, "pumpkin_top");
+        register(87, "netherrack");
+        register(88, "soul_sand");
+        register(89, "glowstone");
+        register(91, "pumpkin_top");
+        register(97, "stone");
+        register(98, "stonebrick");
+        register(99, "mushroom_block_skin_brown");
+        register(100, "mushroom_block_skin_red");
+        register(103, "melon_top");
+        register(106, "vine", TINT_FOLIAGE);
+        register(108, "brick");
+        register(109, "stonebrick");
+        register(110, "mycelium_top");
+        register(111, "waterlily", TINT_FOLIAGE);
+        register(112, "nether_brick");
+        register(114, "nether_brick");
+        register(121, "end_stone");
+        register(128, "sandstone_top");
+        register(129, "emerald_ore");
+        register(133, "emerald_block");
+        register(134, "planks_spruce");
+        register(135, "planks_birch");
+        register(136, "planks_jungle");
+        register(152, "redstone_block");
+        register(153, "quartz_ore");
+        register(155, "quartz_block_top");
+        register(156, "quartz_block_top");
+        register(163, "planks_acacia");
+        register(164, "planks_big_oak");
+        register(170, "hay_block_top");
+        register(172, "hardened_clay");
+        register(173, "coal_block");
+        register(174, "ice_packed");
+    }
+
+    private void register(int id, String texture) {
+        register(id, texture, TINT_NONE);
+    }
+
+    private void register(int id, String texture, int tint) {
+        for (int data = 0; data < 16; data++) {
+            register(id, data, texture, tint);
+        }
+    }
+
+    private void register(int id, int data, String texture) {
+        register(id, data, texture, TINT_NONE);
+    }
+
+    private void register(int id, int data, String texture, int tint) {
+        textures[(id << 4) | data] = texture;
+        tints[(id << 4) | data] = (byte) tint;
+    }
+
+    /**
+     * Loads the colours from the stitched textures in the
+     * resource folder
+     *
+     * @param resourceDir
+     *         The folder containing the client's resources
+     * @return The block colours
+     * @throws IOException
+     *         If the resources couldn't be read
+     */
+    public static BlockColours load(File resourceDir) throws IOException {
+        BlockColours blockColours = new BlockColours();
+        JsonObject info = new Gson().fromJson(
+                FileUtils.readFileToString(new File(resourceDir, "blocks.json")), JsonObject.class);
+        JsonObject textureInfo = info.getAsJsonObject("textures");
+
+        BufferedImage[] images = new BufferedImage[info.get("textureImages").getAsInt()];
+        Map<String, Integer> averages = new HashMap<>();
+        for (int i = 0; i < blockColours.textures.length; i++) {
+            String name = blockColours.textures[i];
+            if (name == null || !textureInfo.has(name)) {
+                blockColours.colours[i] = MISSING;
+                continue;
+            }
+            Integer colour = averages.get(name);
+            if (colour == null) {
+                JsonObject texture = textureInfo.getAsJsonObject(name);
+                int posY = texture.get("posY").getAsInt();
+                int image = posY / ATLAS_SIZE;
+                if (images[image] == null) {
+                    images[image] = ImageIO.read(new File(resourceDir, "blocks_" + image + ".png"));
+                }
+                colour = average(images[image], texture.get("posX").getAsInt(), posY % ATLAS_SIZE,
+                        texture.get("size").getAsInt());
+                averages.put(name, colour);
+            }
+            blockColours.colours[i] = colour;
+        }
+
+        loadColormap(info.getAsJsonObject("grassColormap"), blockColours.grassColours);
+        loadColormap(info.getAsJsonObject("foliageColormap"), blockColours.foliageColours);
+        return blockColours;
+    }
+
+    // Averages the visible pixels of the first frame of the texture
+    private static int average(BufferedImage image, int x, int y, int size) {
+        int[] pixels = image.getRGB(x, y, size, size, null, 0, size);
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        int count = 0;
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) < 128) {
+                continue;
+            }
+            r += (pixel >> 16) & 0xFF;
+            g += (pixel >> 8) & 0xFF;
+            b += pixel & 0xFF;
+            count++;
+        }
+        if (count == 0) {
+            return MISSING;
+        }
+        return (int) ((r / count) << 16 | (g / count) << 8 | (b / count));
+    }
+
+    private static void loadColormap(JsonObject colormap, Map<Integer, Integer> out) {
+        if (colormap == null) {
+            return;
+        }
+        for (Map.Entry<String, JsonElement> e : colormap.entrySet()) {
+            out.put(Integer.valueOf(e.getKey()), e.getValue().getAsInt());
+        }
+    }
+
+    /**
+     * Returns the colour of the block as seen from above
+     *
+     * @param block
+     *         The block (id << 4 | data)
+     * @param biome
+     *         The id of the biome the block is in
+     * @return The colour as rgb
+     */
+    public int getColour(int block, int biome) {
+        int colour = colours[block & 0xFFF];
+        switch (tints[block & 0xFFF]) {
+            case TINT_GRASS:
+                return tint(colour, getBiomeColour(grassColours, biome, DEFAULT_GRASS));
+            case TINT_FOLIAGE:
+                return tint(colour, getBiomeColour(foliageColours, biome, DEFAULT_FOLIAGE));
+            default:
+                return colour;
+        }
+    }
+
+    private static int getBiomeColour(Map<Integer, Integer> colormap, int biome, int def) {
+        Integer colour = colormap.get(Biome.getById(biome & 0xFF).getColorIndex());
+        return colour != null ? colour : def;
+    }
+
+    private static int tint(int colour, int tint) {
+        int r = (((colour >> 16) & 0xFF) * ((tint >> 16) & 0xFF)) / 255;
+        int g = (((colour >> 8) & 0xFF) * ((tint >> 8) & 0xFF)) / 255;
+        int b = ((colour & 0xFF) * (tint & 0xFF)) / 255;
+        return (r << 16) | (g << 8) | b;
+    }
+}
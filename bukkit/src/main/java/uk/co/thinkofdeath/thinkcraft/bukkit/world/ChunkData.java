@@ -0,0 +1,320 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+/**
+ * Helpers for the uncompressed chunk format sent to the client.
+ * <p>
+ * The data starts with a flags byte and the mask of the sections
+ * included. This is followed by the blocks, then the block light
+ * and then the sky light of every included section, then the biomes.
+ * Depending on the flags, masks of hidden and pending sections
+ * follow the biomes.
+ * <p>
+ * Sections whose sky light can be worked out from a per column
+ * heightmap (fully lit above it, dark below) leave out their sky
+ * light. In that case the mask of sections that still have sky light
+ * follows the section mask and the heightmap follows the biomes
+ */
+final class ChunkData {
+
+    /**
+     * Set when the chunk exists
+     */
+    static final int FLAG_EXISTS = 0x1;
+    /**
+     * Set when the mask of sections left out as they can't be
+     * seen from the surface follows the biomes
+     */
+    static final int FLAG_HIDDEN_SECTIONS = 0x2;
+    /**
+     * Set when the mask of sections that exist but weren't
+     * requested follows the biomes (and the hidden sections)
+     */
+    static final int FLAG_PENDING_SECTIONS = 0x4;
+    /**
+     * Set when some sections leave out their sky light in favour
+     * of the heightmap
+     */
+    static final int FLAG_SKY_HEIGHTMAP = 0x8;
+
+    static final int SECTION_SIZE = 16 * 16 * 16;
+
+    private ChunkData() {
+    }
+
+    /**
+     * Returns the mask of sections included in the data
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @return The section mask
+     */
+    static int getMask(byte[] raw) {
+        return ((raw[1] & 0xFF) << 8) | (raw[2] & 0xFF);
+    }
+
+    /**
+     * Returns the mask of sections that include their sky light
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @return The sky light mask
+     */
+    static int getSkyMask(byte[] raw) {
+        if ((raw[0] & FLAG_SKY_HEIGHTMAP) == 0) {
+            return getMask(raw);
+        }
+        return ((raw[3] & 0xFF) << 8) | (raw[4] & 0xFF);
+    }
+
+    /**
+     * Returns the offset of the first section's blocks
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @return The offset of the section data
+     */
+    static int getDataOffset(byte[] raw) {
+        return (raw[0] & FLAG_SKY_HEIGHTMAP) != 0 ? 5 : 3;
+    }
+
+    /**
+     * Returns the offset of the first section's sky light
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @return The offset of the sky light
+     */
+    static int getSkyOffset(byte[] raw) {
+        return getDataOffset(raw) + SECTION_SIZE * 3 * Integer.bitCount(getMask(raw));
+    }
+
+    /**
+     * Returns the offset of the biomes
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @return The offset of the biomes
+     */
+    static int getBiomeOffset(byte[] raw) {
+        return getSkyOffset(raw) + SECTION_SIZE * Integer.bitCount(getSkyMask(raw));
+    }
+
+    // Offset of the data following the biomes (and heightmap)
+    private static int getTrailerOffset(byte[] raw) {
+        return getBiomeOffset(raw) + 256 + ((raw[0] & FLAG_SKY_HEIGHTMAP) != 0 ? 256 : 0);
+    }
+
+    /**
+     * Returns the mask of sections that were left out because
+     * they can't be seen from the surface
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @return The hidden sections
+     */
+    static int getHiddenSections(byte[] raw) {
+        if ((raw[0] & FLAG_HIDDEN_SECTIONS) == 0) {
+            return 0;
+        }
+        int offset = getTrailerOffset(raw);
+        return ((raw[offset] & 0xFF) << 8) | (raw[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Leaves out the sky light of sections that match the light
+     * given by the chunk's heightmap. The heightmap holds the lowest
+     * y of each column from which the sky light is always 15, below
+     * that the light is expected to be 0
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @return The new chunk data or the passed data if no section
+     * matches the heightmap
+     */
+    static byte[] elideSkyLight(byte[] raw) {
+        if (raw.length < 3 || raw[0] == 0 || (raw[0] & FLAG_SKY_HEIGHTMAP) != 0) {
+            return raw;
+        }
+        int mask = getMask(raw);
+        int count = Integer.bitCount(mask);
+        int skyOffset = getSkyOffset(raw);
+        int[] index = new int[16];
+        for (int i = 0, j = 0; i < 16; i++) {
+            index[i] = (mask & (1 << i)) != 0 ? j++ : -1;
+        }
+
+        byte[] heightmap = new byte[256];
+        for (int column = 0; column < 256; column++) {
+            int height = 0;
+            for (int y = 255; y >= 0; y--) {
+                // Missing sections are empty and lit by the sky
+                int section = index[y >> 4];
+                if (section != -1
+                        && raw[skyOffset + section * SECTION_SIZE + ((y & 0xF) << 8) + column] != 15) {
+                    height = y + 1;
+                    break;
+                }
+            }
+            heightmap[column] = (byte) Math.min(height, 255);
+        }
+
+        int skyMask = 0;
+        for (int i = 0; i < 16; i++) {
+            if (index[i] == -1) {
+                continue;
+            }
+            int start = skyOffset + index[i] * SECTION_SIZE;
+            for (int j = 0; j < SECTION_SIZE; j++) {
+                int y = (i << 4) + (j >> 8);
+                if (raw[start + j] != (y >= (heightmap[j & 0xFF] & 0xFF) ? 15 : 0)) {
+                    skyMask |= 1 << i;
+                    break;
+                }
+            }
+        }
+        if (skyMask == mask) {
+            return raw;
+        }
+
+        int biomes = skyOffset + SECTION_SIZE * count;
+        int skyCount = Integer.bitCount(skyMask);
+        byte[] out = new byte[raw.length + 2 + 256 - SECTION_SIZE * (count - skyCount)];
+        out[0] = (byte) (raw[0] | FLAG_SKY_HEIGHTMAP);
+        out[1] = raw[1];
+        out[2] = raw[2];
+        out[3] = (byte) (skyMask >> 8);
+        out[4] = (byte) skyMask;
+        // Blocks and block light
+        System.arraycopy(raw, 3, out, 5, SECTION_SIZE * 3 * count);
+        int offset = 5 + SECTION_SIZE * 3 * count;
+        for (int i = 0; i < 16; i++) {
+            if ((skyMask & (1 << i)) != 0) {
+                System.arraycopy(raw, skyOffset + index[i] * SECTION_SIZE, out, offset, SECTION_SIZE);
+                offset += SECTION_SIZE;
+            }
+        }
+        System.arraycopy(raw, biomes, out, offset, 256);
+        offset += 256;
+        System.arraycopy(heightmap, 0, out, offset, 256);
+        offset += 256;
+        // Hidden and pending sections
+        System.arraycopy(raw, biomes + 256, out, offset, raw.length - biomes - 256);
+        return out;
+    }
+
+    /**
+     * Returns the data with only the requested sections. The
+     * sections that exist but weren't requested are listed as
+     * pending
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @param sections
+     *         The mask of sections wanted
+     * @return The data with only the wanted sections, or the passed
+     * data if it doesn't include any unwanted sections
+     */
+    static byte[] select(byte[] raw, int sections) {
+        if (raw.length < 3 || raw[0] == 0) {
+            return raw;
+        }
+        int mask = getMask(raw);
+        if ((mask & ~sections) == 0) {
+            return raw;
+        }
+        return rebuild(raw, mask & sections, getHiddenSections(raw), mask & ~sections);
+    }
+
+    /**
+     * Copies the data keeping only the sections in the mask
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @param keep
+     *         The sections to keep
+     * @param hidden
+     *         The hidden sections, 0 for none
+     * @param pending
+     *         The pending sections, 0 for none
+     * @return The new chunk data
+     */
+    static byte[] rebuild(byte[] raw, int keep, int hidden, int pending) {
+        boolean heightmap = (raw[0] & FLAG_SKY_HEIGHTMAP) != 0;
+        int mask = getMask(raw);
+        int skyMask = getSkyMask(raw);
+        int count = Integer.bitCount(mask);
+        keep &= mask;
+        int newCount = Integer.bitCount(keep);
+        int newSkyMask = skyMask & keep;
+        int from = getDataOffset(raw);
+        int to = heightmap ? 5 : 3;
+        int biomes = to + SECTION_SIZE * 3 * newCount + SECTION_SIZE * Integer.bitCount(newSkyMask);
+        byte[] out = new byte[biomes + 256 + (heightmap ? 256 : 0)
+                + (hidden != 0 ? 2 : 0) + (pending != 0 ? 2 : 0)];
+        out[0] = (byte) (FLAG_EXISTS
+                | (hidden != 0 ? FLAG_HIDDEN_SECTIONS : 0)
+                | (pending != 0 ? FLAG_PENDING_SECTIONS : 0)
+                | (heightmap ? FLAG_SKY_HEIGHTMAP : 0));
+        out[1] = (byte) (keep >> 8);
+        out[2] = (byte) keep;
+        if (heightmap) {
+            out[3] = (byte) (newSkyMask >> 8);
+            out[4] = (byte) newSkyMask;
+        }
+        int fromSky = from + SECTION_SIZE * 3 * count;
+        int toSky = to + SECTION_SIZE * 3 * newCount;
+        for (int i = 0, f = 0, t = 0, fs = 0, ts = 0; i < 16; i++) {
+            if ((mask & (1 << i)) == 0) {
+                continue;
+            }
+            boolean sky = (skyMask & (1 << i)) != 0;
+            if ((keep & (1 << i)) != 0) {
+                // Blocks
+                System.arraycopy(raw, from + f * SECTION_SIZE * 2,
+                        out, to + t * SECTION_SIZE * 2, SECTION_SIZE * 2);
+                // Block light
+                System.arraycopy(raw, from + SECTION_SIZE * 2 * count + f * SECTION_SIZE,
+                        out, to + SECTION_SIZE * 2 * newCount + t * SECTION_SIZE, SECTION_SIZE);
+                // Sky light
+                if (sky) {
+                    System.arraycopy(raw, fromSky + fs * SECTION_SIZE,
+                            out, toSky + ts * SECTION_SIZE, SECTION_SIZE);
+                    ts++;
+                }
+                t++;
+            }
+            if (sky) {
+                fs++;
+            }
+            f++;
+        }
+        int fromBiomes = getBiomeOffset(raw);
+        System.arraycopy(raw, fromBiomes, out, biomes, heightmap ? 512 : 256);
+        int offset = biomes + (heightmap ? 512 : 256);
+        if (hidden != 0) {
+            out[offset++] = (byte) (hidden >> 8);
+            out[offset++] = (byte) hidden;
+        }
+        if (pending != 0) {
+            out[offset++] = (byte) (pending >> 8);
+            out[offset] = (byte) pending;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A preset deflate dictionary built from the contents of stored
+ * chunks. Chunk data repeats a lot of structure (stone filled
+ * sections, fully lit sky light and so on) which plain gzip has
+ * to relearn for every chunk.
+ * <p>
+ * Data compressed with a dictionary uses the zlib format which
+ * records the id of the dictionary it needs in its header.
+ */
+public class ChunkDictionary {
+
+    /**
+     * The content encoding used for chunks compressed with a
+     * dictionary
+     */
+    public static final String ENCODING = "x-thinkmap-deflate";
+
+    // Deflate can't reference further back than this
+    private static final int MAX_SIZE = 32 * 1024;
+    private static final int SEGMENT_SIZE = 32;
+
+    private final byte[] data;
+    private final String id;
+
+    public ChunkDictionary(byte[] data) {
+        this.data = data;
+        Adler32 adler = new Adler32();
+        adler.update(data);
+        id = String.format("%08x", adler.getValue());
+    }
+
+    /**
+     * Builds a dictionary from the most common segments of the
+     * sampled chunks. The most common segments are placed at the
+     * end of the dictionary as deflate encodes closer matches in
+     * fewer bits
+     *
+     * @param samples
+     *         The uncompressed chunk data to train on
+     * @return The dictionary
+     */
+    public static ChunkDictionary train(List<byte[]> samples) {
+        final Map<ByteBuffer, Integer> counts = new HashMap<>();
+        for (byte[] sample : samples) {
+            // Only count a segment once per sample so that a single
+            // chunk can't dominate the dictionary
+            Set<ByteBuffer> seen = new HashSet<>();
+            for (int i = 0; i + SEGMENT_SIZE <= sample.length; i += SEGMENT_SIZE) {
+                ByteBuffer segment = ByteBuffer.wrap(sample, i, SEGMENT_SIZE).slice();
+                if (seen.add(segment)) {
+                    Integer count = counts.get(segment);
+                    counts.put(segment, count == null ? 1 : count + 1);
+                }
+            }
+        }
+
+        List<ByteBuffer> segments = new ArrayList<>();
+        for (Map.Entry<ByteBuffer, Integer> e : counts.entrySet()) {
+            if (e.getValue() > 1) {
+                segments.add(e.getKey());
+            }
+        }
+        Collections.sort(segments, new Comparator<ByteBuffer>() {
+            @Override
+            public int compare(ByteBuffer o1, ByteBuffer o2) {
+                return counts.get(o2) - counts.get(o1);
+            }
+        });
+
+        int size = Math.min(segments.size(), MAX_SIZE / SEGMENT_SIZE) * SEGMENT_SIZE;
+        byte[] dictionary = new byte[size];
+        for (int i = 0; i < size / SEGMENT_SIZE; i++) {
+            segments.get(i).duplicate().get(dictionary, size - (i + 1) * SEGMENT_SIZE, SEGMENT_SIZE);
+        }
+        return new ChunkDictionary(dictionary);
+    }
+
+    /**
+     * Loads the dictionary from the file
+     *
+     * @param file
+     *         The file to load from
+     * @return The dictionary
+     * @throws IOException
+     *         If the file can't be read
+     */
+    public static ChunkDictionary load(File file) throws IOException {
+        return new ChunkDictionary(FileUtils.readFileToByteArray(file));
+    }
+
+    /**
+     * Saves the dictionary into the folder as {@code <id>.dict}
+     *
+     * @param folder
+     *         The folder to save into
+     * @throws IOException
+     *         If the file can't be written
+     */
+    public void save(File folder) throws IOException {
+        FileUtils.writeByteArrayToFile(new File(folder, id + ".dict"), data);
+    }
+
+    /**
+     * Returns the id of the dictionary that the compressed data
+     * requires, or null if it isn't compressed with a dictionary
+     *
+     * @param compressed
+     *         The compressed data
+     * @return The dictionary id or null
+     */
+    public static String idOf(byte[] compressed) {
+        if (compressed.length < 6 || (compressed[0] & 0xF) != 8 || (compressed[1] & 0x20) == 0) {
+            return null;
+        }
+        return String.format("%02x%02x%02x%02x", compressed[2], compressed[3], compressed[4], compressed[5]);
+    }
+
+    /**
+     * Compresses the data with this dictionary
+     *
+     * @param raw
+     *         The data to compress
+     * @param level
+     *         The deflate level to use
+     * @return The compressed data
+     */
+    public byte[] compress(byte[] raw, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setDictionary(data);
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses data compressed with this dictionary
+     *
+     * @param compressed
+     *         The compressed data
+     * @return The uncompressed data
+     * @throws IOException
+     *         If the data isn't valid
+     */
+    public byte[] decompress(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(data);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Truncated chunk data");
+                    }
+                }
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the id of this dictionary. This is the adler32
+     * checksum used by zlib to identify the dictionary
+     *
+     * @return The id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the contents of the dictionary
+     *
+     * @return The dictionary
+     */
+    public byte[] getData() {
+        return data;
+    }
+}
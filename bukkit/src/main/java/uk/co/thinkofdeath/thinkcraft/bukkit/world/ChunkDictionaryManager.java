@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+
+/**
+ * Keeps track of the chunk dictionaries. Dictionaries are never
+ * removed as stored chunks may still require an older one
+ */
+public class ChunkDictionaryManager implements Runnable {
+
+    // The number of stored chunks needed before a dictionary
+    // is trained
+    private static final int MIN_SAMPLES = 64;
+    private static final int MAX_SAMPLES = 512;
+    // Chunks sampled per region
+    private static final int REGION_SAMPLES = 16;
+
+    private final ThinkMapPlugin plugin;
+    private final Map<String, ChunkDictionary> dictionaries = new HashMap<>();
+    private volatile ChunkDictionary current;
+
+    public ChunkDictionaryManager(ThinkMapPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Loads the newest dictionary or trains a new one from the
+     * stored chunks if there isn't one. Does nothing once a
+     * dictionary has been loaded
+     */
+    @Override
+    public void run() {
+        if (current != null) {
+            return;
+        }
+        File[] files = getFolder().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".dict");
+            }
+        });
+        try {
+            if (files != null && files.length > 0) {
+                File newest = files[0];
+                for (File file : files) {
+                    if (file.lastModified() > newest.lastModified()) {
+                        newest = file;
+                    }
+                }
+                current = get(newest.getName().substring(0, newest.getName().length() - 5));
+                return;
+            }
+
+            List<byte[]> samples = sample();
+            if (samples.size() < MIN_SAMPLES) {
+                // Try again next time
+                return;
+            }
+            long start = System.currentTimeMillis();
+            ChunkDictionary dictionary = ChunkDictionary.train(samples);
+            if (dictionary.getData().length == 0) {
+                // Nothing in common to share
+                return;
+            }
+            if (!getFolder().exists() && !getFolder().mkdirs()) {
+                throw new IOException("Failed to create " + getFolder());
+            }
+            dictionary.save(getFolder());
+            synchronized (dictionaries) {
+                dictionaries.put(dictionary.getId(), dictionary);
+            }
+            current = dictionary;
+            plugin.getLogger().info("Trained chunk dictionary " + dictionary.getId() + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to load the chunk dictionary", e);
+        }
+    }
+
+    // Reads a spread of stored chunks to train from
+    private List<byte[]> sample() throws IOException {
+        List<byte[]> samples = new ArrayList<>();
+        for (ChunkManager chunkManager : plugin.getChunkManagers()) {
+            File[] files = chunkManager.getWorldFolder().listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.startsWith("region_") && name.endsWith(".dat");
+                }
+            });
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                Lock lock = chunkManager.getWorldLock().readLock();
+                lock.lock();
+                try (RegionFile region = RegionFile.open(file)) {
+                    if (region == null) continue;
+                    int count = 0;
+                    for (int id = 0; id < RegionFile.ENTRIES && count < REGION_SAMPLES; id += 7) {
+                        byte[] data = region.read(id);
+                        if (data == null || ChunkDictionary.idOf(data) != null) {
+                            continue;
+                        }
+                        samples.add(ChunkUpgrader.upgrade(ChunkManager.gunzip(data), region.getDataVersion(id)));
+                        count++;
+                        if (samples.size() >= MAX_SAMPLES) {
+                            return samples;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Returns the dictionary new chunks should be compressed
+     * with or null if there isn't one yet
+     *
+     * @return The current dictionary
+     */
+    public ChunkDictionary getCurrent() {
+        return current;
+    }
+
+    /**
+     * Returns the dictionary with the id, loading it if required
+     *
+     * @param id
+     *         The id of the dictionary
+     * @return The dictionary or null if it doesn't exist
+     */
+    public ChunkDictionary get(String id) {
+        synchronized (dictionaries) {
+            ChunkDictionary dictionary = dictionaries.get(id);
+            if (dictionary != null) {
+                return dictionary;
+            }
+            File file = new File(getFolder(), id + ".dict");
+            if (!id.matches("[0-9a-f]{8}") || !file.exists()) {
+                return null;
+            }
+            try {
+                dictionary = ChunkDictionary.load(file);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to load the chunk dictionary " + id, e);
+                return null;
+            }
+            dictionaries.put(id, dictionary);
+            return dictionary;
+        }
+    }
+
+    private File getFolder() {
+        return new File(plugin.getWorldDir(), "dictionaries");
+    }
+}
@@ -25,29 +25,59 @@ import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.util.ReferenceCountUtil;
 import org.bukkit.Chunk;
 import org.bukkit.ChunkSnapshot;
+import org.apache.commons.io.IOUtils;
 import org.bukkit.World;
 import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class ChunkManager {
 
+    // Live chunks can be changed without an event (e.g. by other
+    // plugins) so their cached copies expire after this time
+    private static final long LIVE_CACHE_TIME = 5 * 60 * 1000;
+
     private final ThinkMapPlugin plugin;
     private final World world;
     private final TLongSet activeChunks = new TLongHashSet();
+    private final TLongSet modifiedChunks = new TLongHashSet();
+    private final TLongSet storedChunks = new TLongHashSet();
+    // Chunks with a summary for the map tiles. Guarded by storedChunks
+    private final TLongSet summarisedChunks = new TLongHashSet();
+    private final TLongSet indexedRegions = new TLongHashSet();
     private final ReadWriteLock worldLock = new ReentrantReadWriteLock();
     private final ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+    // Guarded by the cache
+    private final Map<String, FutureTask<EncodedChunk>> inFlight = new HashMap<>();
+    private final Map<Long, EncodedChunk> cache = new LinkedHashMap<Long, EncodedChunk>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, EncodedChunk> eldest) {
+            return size() > plugin.getConfiguration().getChunkCacheSize();
+        }
+    };
+    private volatile long lastWrite;
+    private TileStore tileStore;
 
     public ChunkManager(ThinkMapPlugin plugin, World world) {
         this.plugin = plugin;
@@ -65,6 +95,103 @@ public class ChunkManager {
         synchronized (activeChunks) {
             activeChunks.add(chunkKey(chunk.getX(), chunk.getZ()));
         }
+        loadRegionIndex(chunk.getX() >> 5, chunk.getZ() >> 5);
+    }
+
+    /**
+     * Marks every chunk that could be effected by a change to
+     * the block at the location as modified so that they will
+     * be saved when they unload. This includes the neighbouring
+     * chunks in the range of a light change
+     *
+     * @param x
+     *         The x coordinate of the block
+     * @param z
+     *         The z coordinate of the block
+     */
+    public void markModified(int x, int z) {
+        synchronized (modifiedChunks) {
+            for (int cx = (x - 15) >> 4; cx <= (x + 15) >> 4; cx++) {
+                for (int cz = (z - 15) >> 4; cz <= (z + 15) >> 4; cz++) {
+                    modifiedChunks.add(chunkKey(cx, cz));
+                }
+            }
+        }
+        for (int cx = (x - 15) >> 4; cx <= (x + 15) >> 4; cx++) {
+            for (int cz = (z - 15) >> 4; cz <= (z + 15) >> 4; cz++) {
+                invalidate(cx, cz);
+            }
+        }
+    }
+
+    /**
+     * Marks the chunk as modified so that it will be saved when
+     * it unloads
+     *
+     * @param chunk
+     *         The chunk to mark
+     */
+    public void markModified(Chunk chunk) {
+        synchronized (modifiedChunks) {
+            modifiedChunks.add(chunkKey(chunk.getX(), chunk.getZ()));
+        }
+        invalidate(chunk.getX(), chunk.getZ());
+    }
+
+    /**
+     * Drops the cached and loading copies of the chunk
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     */
+    void invalidate(int x, int z) {
+        String prefix = x + ":" + z + ":";
+        synchronized (cache) {
+            cache.remove(chunkKey(x, z));
+            for (Iterator<String> it = inFlight.keySet().iterator(); it.hasNext(); ) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    // Reads which chunks of the region are already stored
+    // so unmodified chunks don't have to be saved again
+    private void loadRegionIndex(final int rx, final int rz) {
+        synchronized (indexedRegions) {
+            if (!indexedRegions.add(chunkKey(rx, rz))) {
+                return;
+            }
+        }
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+            @Override
+            public void run() {
+                Lock lock = worldLock.readLock();
+                lock.lock();
+                try (RegionFile region = RegionFile.open(getRegionFile(rx, rz));
+                     RegionFile tiles = RegionFile.open(TileStore.getSummaryFile(getWorldFolder(), rx, rz))) {
+                    if (region == null) return;
+                    synchronized (storedChunks) {
+                        for (int id = 0; id < RegionFile.ENTRIES; id++) {
+                            long key = chunkKey((rx << 5) | (id & 0x1F), (rz << 5) | (id >> 5));
+                            if (region.contains(id)) {
+                                storedChunks.add(key);
+                            }
+                            if (tiles != null && tiles.contains(id)) {
+                                summarisedChunks.add(key);
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to read region " + rx + ":" + rz, e);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
     }
 
     /**
@@ -75,9 +202,25 @@ public class ChunkManager {
      *         The chunk to mark as inactive
      */
     public void deactivateChunk(Chunk chunk) {
+        long key = chunkKey(chunk.getX(), chunk.getZ());
         // Stop the map viewer from requesting live versions
         synchronized (activeChunks) {
-            activeChunks.remove(chunkKey(chunk.getX(), chunk.getZ()));
+            activeChunks.remove(key);
+        }
+        boolean modified;
+        synchronized (modifiedChunks) {
+            modified = modifiedChunks.remove(key);
+        }
+        if (!modified && plugin.getConfiguration().shouldTrackModifications()) {
+            synchronized (storedChunks) {
+                // Chunks stored before the tiles existed are saved
+                // once more to create their summary
+                if (storedChunks.contains(key) && summarisedChunks.contains(key)) {
+                    // Nothing has changed since the chunk was loaded
+                    // so the stored copy is still up to date
+                    return;
+                }
+            }
         }
         // Grab a final copy to save to the region file
         final ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, true, false);
@@ -86,120 +229,132 @@ public class ChunkManager {
             @Override
             public void run() {
                 try {
-                    // Lock the world for writing
-                    Lock lock = worldLock.writeLock();
-                    lock.lock();
+                    saveChunk(snapshot);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
 
-                    File worldFolder = new File(plugin.getWorldDir(), world.getName());
-                    if (!worldFolder.exists() && !worldFolder.mkdirs()) {
-                        throw new RuntimeException("Failed to create world folder");
-                    }
+    /**
+     * Saves the snapshot to the region file unless the stored copy
+     * is identical. Blocks whilst the region files are in use
+     *
+     * @param snapshot
+     *         The chunk to save
+     * @throws IOException
+     *         If the region file couldn't be written
+     */
+    public void saveChunk(ChunkSnapshot snapshot) throws IOException {
+        // Lock the world for writing
+        Lock lock = worldLock.writeLock();
+        lock.lock();
+        lastWrite = System.currentTimeMillis();
 
-                    ByteBuf data = allocator.buffer();
+        File worldFolder = getWorldFolder();
+        if (!worldFolder.exists() && !worldFolder.mkdirs()) {
+            throw new RuntimeException("Failed to create world folder");
+        }
 
-                    try (RandomAccessFile region = new RandomAccessFile(new File(worldFolder,
-                            String.format("region_%d-%d.dat", snapshot.getX() >> 5, snapshot.getZ() >> 5)
-                    ), "rw")) {
-                        // Save and compress the chunk
-                        gzipChunk(snapshot, data);
+        ByteBuf data = allocator.buffer();
 
-                        if (region.length() < 4096 * 3) {
-                            // Init header with enough space for size + location
-                            // with a little bit extra for expansion
-                            region.seek(4096 * 3);
-                            region.writeByte(0);
-                        }
-                        int id = ((snapshot.getX() & 0x1F) | ((snapshot.getZ() & 0x1F) << 5));
-                        region.seek(8 * id);
-                        int offset = region.readInt();
-                        int size = region.readInt();
-                        if (offset != 0) {
-                            // Try and reuse the old space
-                            if (data.readableBytes() < ((size / 4096) + 1) * 4096) {
-                                size = data.readableBytes();
-                                region.seek(8 * id);
-                                region.writeInt(offset);
-                                region.writeInt(size);
-                                region.seek(offset * 4096);
-                                byte[] bytes = new byte[data.readableBytes()];
-                                data.readBytes(bytes);
-                                region.write(bytes);
-                                return;
-                            }
-                        }
+        try (RegionFile region = RegionFile.openForWriting(
+                getRegionFile(snapshot.getX() >> 5, snapshot.getZ() >> 5))) {
+            int id = RegionFile.chunkId(snapshot.getX(), snapshot.getZ());
+            byte[] raw = encodeChunk(snapshot);
+            int hash = hashChunk(raw);
+            // Checked separately as chunks stored before the tiles
+            // existed won't have a summary yet
+            saveSummary(snapshot.getX(), snapshot.getZ(), raw);
+            if (region.contains(id) && region.getHash(id) == hash) {
+                // Unchanged, no need to rewrite it
+                return;
+            }
+            // Save and compress the chunk, it'll be recompressed
+            // at a higher level once it has gone cold
+            gzip(raw, data, Deflater.BEST_SPEED);
+            byte[] bytes = new byte[data.readableBytes()];
+            data.readBytes(bytes);
+            region.write(id, bytes, hash, 0, ChunkUpgrader.VERSION);
+            synchronized (storedChunks) {
+                storedChunks.add(chunkKey(snapshot.getX(), snapshot.getZ()));
+            }
+            // A request between the unload and this write could
+            // have cached the old copy
+            invalidate(snapshot.getX(), snapshot.getZ());
+        } finally {
+            lock.unlock();
+            ReferenceCountUtil.release(data);
+        }
+    }
 
-                        // Search for a new location
-
-                        // Fill in the used spaces first
-                        boolean[] usedSpace = new boolean[(int) ((region.length() / 4096) + 1)];
-                        usedSpace[0] = usedSpace[1] = usedSpace[2] = true;
-                        for (int i = 0; i < 32 * 32; i++) {
-                            if (i == id) continue;
-                            region.seek(8 * i);
-                            int oo = region.readInt();
-                            int os = region.readInt();
-                            for (int j = oo; j < oo + ((os / 4096) + 1); j++) {
-                                usedSpace[j] = true;
-                            }
-                        }
-                        offset = usedSpace.length;
-                        size = data.readableBytes();
-                        // Search though every location until a location with a large enough
-                        // space is found
-                        search:
-                        for (int i = 2; i < usedSpace.length; i++) {
-                            if (!usedSpace[i]) {
-                                for (int j = i + 1; j < i + ((size / 4096) + 1); j++) {
-                                    if (j >= usedSpace.length || usedSpace[j]) {
-                                        i += ((size / 4096) + 1);
-                                        continue search;
-                                    }
-                                }
-                                offset = i;
-                                break;
-                            }
-                        }
-                        region.seek(offset * 4096);
-                        byte[] bytes = new byte[data.readableBytes()];
-                        data.readBytes(bytes);
-                        region.write(bytes);
-                        region.seek(8 * id);
-                        region.writeInt(offset);
-                        region.writeInt(size);
-                    } finally {
-                        lock.unlock();
-                        ReferenceCountUtil.release(data);
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+    /**
+     * Removes the stored copy of a chunk that can't be read so that
+     * it is saved again the next time the chunk is unloaded. The
+     * world's write lock must be held
+     *
+     * @param region
+     *         The region containing the chunk, open for writing
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @throws IOException
+     *         If the region file couldn't be written
+     */
+    void discardChunk(RegionFile region, int x, int z) throws IOException {
+        region.remove(RegionFile.chunkId(x, z));
+        synchronized (storedChunks) {
+            storedChunks.remove(chunkKey(x, z));
+        }
+        invalidate(x, z);
+    }
+
+    // Stores the top down summary of the chunk used to render the
+    // map tiles. Requires the world's write lock
+    private void saveSummary(int x, int z, byte[] raw) throws IOException {
+        byte[] summary = ChunkTile.summarise(raw);
+        if (summary != null) {
+            try (RegionFile tiles = RegionFile.openForWriting(TileStore.getSummaryFile(getWorldFolder(), x >> 5, z >> 5))) {
+                int id = RegionFile.chunkId(x, z);
+                int hash = hashChunk(summary);
+                if (!tiles.contains(id) || tiles.getHash(id) != hash) {
+                    tiles.write(id, gzip(summary, Deflater.BEST_COMPRESSION), hash, 0, ChunkUpgrader.VERSION);
                 }
             }
-        });
+        }
+        // Chunks without a summary (nothing to draw) are counted
+        // as well so they aren't saved again for it
+        synchronized (storedChunks) {
+            summarisedChunks.add(chunkKey(x, z));
+        }
+    }
+
+    /**
+     * Returns the map tiles of this world
+     *
+     * @return The tile store
+     */
+    public TileStore getTileStore() {
+        synchronized (worldLock) {
+            if (tileStore == null) {
+                tileStore = new TileStore(getWorldFolder(), worldLock, plugin.getBlockColours());
+            }
+            return tileStore;
+        }
     }
 
     // Reads the chunk data for the location
-    private byte[] getChunkData(final int x, final int z) {
-        File worldFolder = new File(plugin.getWorldDir(), world.getName());
+    private StoredChunk getChunkData(final int x, final int z) {
         Lock lock = worldLock.readLock();
         lock.lock();
-        try (RandomAccessFile region = new RandomAccessFile(new File(worldFolder,
-                String.format("region_%d-%d.dat", x >> 5, z >> 5)
-        ), "r")) {
-            if (region.length() < 4096 * 3) return null;
-            int id = ((x & 0x1F) | ((z & 0x1F) << 5));
-            // Read the header
-            region.seek(8 * id);
-            int offset = region.readInt();
-            int size = region.readInt();
-            if (offset == 0) { // No entry
-                return null;
-            }
-            region.seek(offset * 4096);
-            byte[] data = new byte[size];
-            region.readFully(data);
-            return data;
-        } catch (FileNotFoundException e) {
-            return null;
+        try (RegionFile region = RegionFile.open(getRegionFile(x >> 5, z >> 5))) {
+            if (region == null) return null;
+            int id = RegionFile.chunkId(x, z);
+            byte[] data = region.read(id);
+            if (data == null) return null;
+            return new StoredChunk(data, region.getHash(id), region.getDataVersion(id));
         } catch (IOException e) {
             return null;
         } finally {
@@ -207,9 +362,294 @@ public class ChunkManager {
         }
     }
 
-    // Gets the gzip'd chunk data for the location and stores it
-    // in out, returns false if the chunk wasn't loaded for any reason
-    public boolean getChunkBytes(final int x, final int z, ByteBuf out) {
+    // Replaces the stored copy of the chunk with one converted to
+    // the current format, unless it was saved again in the meantime
+    private void saveUpgraded(final int x, final int z, final byte[] raw, final StoredChunk old) {
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+            @Override
+            public void run() {
+                byte[] data = gzip(raw, Deflater.BEST_SPEED);
+                Lock lock = worldLock.writeLock();
+                lock.lock();
+                try (RegionFile region = RegionFile.openForWriting(getRegionFile(x >> 5, z >> 5))) {
+                    int id = RegionFile.chunkId(x, z);
+                    if (region.contains(id) && region.getHash(id) == old.hash
+                            && region.getDataVersion(id) == old.version) {
+                        region.write(id, data, hashChunk(raw), 0, ChunkUpgrader.VERSION);
+                    }
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to upgrade chunk " + x + ":" + z, e);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Decompresses stored chunk data, using the chunk dictionary it
+     * was compressed with if any
+     *
+     * @param data
+     *         The stored data
+     * @return The uncompressed data or null if the dictionary it
+     * needs is missing
+     * @throws IOException
+     *         If the data isn't valid
+     */
+    byte[] decompress(byte[] data) throws IOException {
+        String id = ChunkDictionary.idOf(data);
+        if (id == null) {
+            return gunzip(data);
+        }
+        ChunkDictionary stored = plugin.getChunkDictionaries().get(id);
+        if (stored == null) {
+            return null;
+        }
+        return stored.decompress(data);
+    }
+
+    /**
+     * Gets the compressed chunk data for the location and stores it
+     * in out. If the client has the dictionary the data may be
+     * compressed with it otherwise gzip is used.
+     * <p>
+     * Recently requested chunks are served from memory and concurrent
+     * requests for the same chunk (and dictionary) share a single load
+     * instead of each grabbing and encoding the chunk themselves
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @param out
+     *         The buffer to write the data to
+     * @param dictionary
+     *         The dictionary the client has or null
+     * @param sections
+     *         The mask of sections the client wants, the rest are
+     *         marked as pending
+     * @return The content encoding of the data or null if the chunk
+     * wasn't loaded for any reason
+     */
+    public String getChunkBytes(int x, int z, ByteBuf out, ChunkDictionary dictionary, int sections) {
+        EncodedChunk chunk = fetchChunk(x, z, dictionary);
+        if (chunk == null) {
+            return null;
+        }
+        try {
+            writeSections(out, chunk.data, chunk.encoding, dictionary, sections, chunk.slices);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to decompress chunk " + x + ":" + z, e);
+            return null;
+        }
+        return chunk.encoding;
+    }
+
+    /**
+     * Writes the wanted sections of the compressed chunk to out.
+     * The whole chunk is cached so the sections are taken from it
+     * when only some are wanted, the result is kept in slices for
+     * the next request for the same sections
+     *
+     * @param out
+     *         The buffer to write the data to
+     * @param data
+     *         The compressed chunk
+     * @param encoding
+     *         The encoding of the compressed chunk
+     * @param dictionary
+     *         The dictionary the chunk was compressed with, if any
+     * @param sections
+     *         The mask of sections wanted
+     * @param slices
+     *         The sections already taken from the chunk
+     * @throws IOException
+     *         If the chunk couldn't be decompressed
+     */
+    static void writeSections(ByteBuf out, byte[] data, String encoding, ChunkDictionary dictionary,
+                              int sections, SectionSlices slices) throws IOException {
+        sections &= 0xFFFF;
+        if (sections == 0xFFFF) {
+            out.writeBytes(data);
+            return;
+        }
+        byte[] slice = slices.get(sections);
+        if (slice == null) {
+            byte[] raw;
+            if (encoding.equals(ChunkDictionary.ENCODING)) {
+                raw = dictionary.decompress(data);
+            } else {
+                raw = gunzip(data);
+            }
+            byte[] selected = ChunkData.select(raw, sections);
+            if (selected == raw) {
+                slice = data;
+            } else if (encoding.equals(ChunkDictionary.ENCODING)) {
+                slice = dictionary.compress(selected, Deflater.BEST_SPEED);
+            } else {
+                slice = gzip(selected, Deflater.BEST_SPEED);
+            }
+            slices.put(sections, slice);
+        }
+        out.writeBytes(slice);
+    }
+
+    /**
+     * Loads the compressed chunk into the cache, if it isn't already
+     * cached, so that later requests for it don't have to wait
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @param dictionary
+     *         The dictionary clients will request the chunk with or null
+     * @return The size of the compressed chunk if it was loaded
+     * otherwise 0
+     */
+    public int warmChunk(int x, int z, ChunkDictionary dictionary) {
+        if (isCached(x, z, dictionary)) {
+            return 0;
+        }
+        if (!isActive(x, z)) {
+            // Don't bother reading chunks the index says don't exist
+            boolean indexed;
+            synchronized (indexedRegions) {
+                indexed = indexedRegions.contains(chunkKey(x >> 5, z >> 5));
+            }
+            if (indexed) {
+                synchronized (storedChunks) {
+                    if (!storedChunks.contains(chunkKey(x, z))) {
+                        return 0;
+                    }
+                }
+            }
+        }
+        EncodedChunk chunk = fetchChunk(x, z, dictionary);
+        return chunk != null ? chunk.data.length : 0;
+    }
+
+    /**
+     * Returns whether a compressed copy of the chunk for the
+     * dictionary is cached
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @param dictionary
+     *         The dictionary the chunk would be requested with or null
+     * @return Whether the chunk is cached
+     */
+    public boolean isCached(int x, int z, ChunkDictionary dictionary) {
+        synchronized (cache) {
+            return getCached(chunkKey(x, z), dictionary != null ? dictionary.getId() : "") != null;
+        }
+    }
+
+    /**
+     * Returns whether the chunk is loaded by the server, live chunks
+     * have to be grabbed on the main thread
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @return Whether the chunk is active
+     */
+    public boolean isActive(int x, int z) {
+        synchronized (activeChunks) {
+            return activeChunks.contains(chunkKey(x, z));
+        }
+    }
+
+    // Returns the cached copy of the chunk or loads it. Concurrent
+    // loads of the same chunk are shared
+    private EncodedChunk fetchChunk(final int x, final int z, final ChunkDictionary dictionary) {
+        long chunkKey = chunkKey(x, z);
+        String key = x + ":" + z + ":" + (dictionary != null ? dictionary.getId() : "");
+        FutureTask<EncodedChunk> task;
+        boolean owner = false;
+        synchronized (cache) {
+            EncodedChunk cached = getCached(chunkKey, dictionary != null ? dictionary.getId() : "");
+            if (cached != null) {
+                return cached;
+            }
+            task = inFlight.get(key);
+            if (task == null) {
+                task = new FutureTask<>(new Callable<EncodedChunk>() {
+                    @Override
+                    public EncodedChunk call() throws Exception {
+                        return loadChunk(x, z, dictionary);
+                    }
+                });
+                inFlight.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            // Only the first request does the work, everyone else
+            // waits on the result
+            task.run();
+            synchronized (cache) {
+                // The task will have been removed already if the chunk
+                // was modified whilst loading, the result may be outdated
+                // so it isn't cached
+                if (inFlight.get(key) == task) {
+                    inFlight.remove(key);
+                    cacheResult(chunkKey, task);
+                }
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Returns the cached chunk if it was compressed for the dictionary
+    // and hasn't expired. Must be called whilst holding the cache
+    private EncodedChunk getCached(long key, String dictionaryId) {
+        EncodedChunk cached = cache.get(key);
+        if (cached == null || !cached.dictionaryId.equals(dictionaryId)) {
+            return null;
+        }
+        if (cached.live && System.currentTimeMillis() - cached.time > LIVE_CACHE_TIME) {
+            cache.remove(key);
+            return null;
+        }
+        return cached;
+    }
+
+    // Caches the result of the completed task if it loaded
+    private void cacheResult(long key, FutureTask<EncodedChunk> task) {
+        EncodedChunk chunk;
+        try {
+            chunk = task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            // Reported to the requests waiting on the task
+            return;
+        }
+        if (chunk == null) {
+            return;
+        }
+        // Without tracking there is no way to tell when a live
+        // chunk changes
+        if (chunk.live && !plugin.getConfiguration().shouldTrackModifications()) {
+            return;
+        }
+        cache.put(key, chunk);
+    }
+
+    // Grabs or reads the chunk and compresses it for a client
+    // with the dictionary
+    private EncodedChunk loadChunk(final int x, final int z, ChunkDictionary dictionary) {
+        String dictionaryId = dictionary != null ? dictionary.getId() : "";
         ChunkSnapshot chunk = null;
         boolean shouldGrabChunk;
         // Check if the chunk is already loaded
@@ -240,21 +680,59 @@ public class ChunkManager {
                 plugin.getLogger().warning("Failed to load chunk on time. Time out");
             }
         }
+        boolean surfaceOnly = plugin.getConfiguration().isSurfaceOnly();
+        byte[] raw;
         if (chunk == null) { // Inactive chunk
-            byte[] data = getChunkData(x, z);
-            if (data == null) {
-                return false;
+            StoredChunk stored = getChunkData(x, z);
+            if (stored == null) {
+                return null;
             }
-            out.writeBytes(data);
-            return true;
+            byte[] data = stored.data;
+            boolean current = stored.version >= ChunkUpgrader.VERSION;
+            String id = ChunkDictionary.idOf(data);
+            if (!surfaceOnly && current) {
+                // The stored copy can be sent as is
+                if (id == null) {
+                    return new EncodedChunk(dictionaryId, false, "gzip", data);
+                }
+                if (dictionary != null && dictionary.getId().equals(id)) {
+                    return new EncodedChunk(dictionaryId, false, ChunkDictionary.ENCODING, data);
+                }
+            }
+            try {
+                raw = decompress(data);
+                if (raw == null) {
+                    return null;
+                }
+                if (!current) {
+                    // Converted on its first read instead of waiting
+                    // for the background upgrade to reach it
+                    raw = ChunkUpgrader.upgrade(raw, stored.version);
+                    saveUpgraded(x, z, raw, stored);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to decompress chunk " + x + ":" + z, e);
+                return null;
+            }
+        } else {
+            raw = encodeChunk(chunk);
         }
-        // Active chunk
-        gzipChunk(chunk, out);
-        return true;
+        if (surfaceOnly) {
+            raw = SurfaceFilter.filter(raw);
+        }
+        // Speed is preferred over size as live chunks are likely to
+        // change soon and the rest are cached
+        boolean live = chunk != null;
+        if (dictionary != null) {
+            return new EncodedChunk(dictionaryId, live, ChunkDictionary.ENCODING,
+                    dictionary.compress(raw, Deflater.BEST_SPEED));
+        }
+        return new EncodedChunk(dictionaryId, live, "gzip", gzip(raw, Deflater.BEST_SPEED));
     }
 
-    // Gzips a ChunkSnapshot and stores it in out
-    private void gzipChunk(ChunkSnapshot chunk, ByteBuf out) {
+    // Converts a ChunkSnapshot into the uncompressed format
+    // used by the map viewer
+    private byte[] encodeChunk(ChunkSnapshot chunk) {
         int mask = 0;
         int count = 0;
         for (int i = 0; i < 16; i++) {
@@ -295,15 +773,149 @@ public class ChunkManager {
         }
         data.writerIndex(data.capacity());
         try {
-            GZIPOutputStream gzip = new GZIPOutputStream(new ByteBufOutputStream(out));
             byte[] bytes = new byte[data.readableBytes()];
             data.readBytes(bytes);
-            gzip.write(bytes);
+            return ChunkData.elideSkyLight(bytes);
+        } finally {
+            data.release();
+        }
+    }
+
+    // Gzips the data at the compression level and stores it in out
+    static void gzip(byte[] data, ByteBuf out, int level) {
+        try {
+            GZIPOutputStream gzip = gzipStream(new ByteBufOutputStream(out), level);
+            gzip.write(data);
             gzip.close();
         } catch (IOException e) {
             throw new RuntimeException();
-        } finally {
-            data.release();
+        }
+    }
+
+    /**
+     * Gzips the data at the compression level
+     *
+     * @param data
+     *         The data to compress
+     * @param level
+     *         The deflate level to use
+     * @return The compressed data
+     */
+    static byte[] gzip(byte[] data, int level) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = gzipStream(out, level)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses gzip'd chunk data
+     *
+     * @param data
+     *         The compressed data
+     * @return The uncompressed data
+     * @throws IOException
+     *         If the data isn't valid
+     */
+    static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static GZIPOutputStream gzipStream(OutputStream out, final int level) throws IOException {
+        return new GZIPOutputStream(out) {
+            {
+                def.setLevel(level);
+            }
+        };
+    }
+
+    // Returns the hash stored for the uncompressed chunk data,
+    // 0 is reserved for unknown hashes
+    static int hashChunk(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        int hash = (int) crc.getValue();
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Returns the folder the region files for this world are
+     * stored in
+     *
+     * @return The world folder
+     */
+    File getWorldFolder() {
+        return new File(plugin.getWorldDir(), world.getName());
+    }
+
+    // Returns the region file for the region coordinates
+    File getRegionFile(int rx, int rz) {
+        return new File(getWorldFolder(), String.format("region_%d-%d.dat", rx, rz));
+    }
+
+    /**
+     * Returns the lock which guards the region files of
+     * this world
+     *
+     * @return The world lock
+     */
+    public ReadWriteLock getWorldLock() {
+        return worldLock;
+    }
+
+    /**
+     * Returns the time (in milliseconds) at which a chunk was
+     * last written to a region file of this world
+     *
+     * @return The time of the last write
+     */
+    long getLastWrite() {
+        return lastWrite;
+    }
+
+    /**
+     * Returns the world this manager handles
+     *
+     * @return The world
+     */
+    public World getWorld() {
+        return world;
+    }
+
+    // Compressed chunk data shared between requests and the
+    // cache. Must not be modified once created
+    private static class EncodedChunk {
+        // The dictionary the client requested the chunk with
+        private final String dictionaryId;
+        private final boolean live;
+        private final long time = System.currentTimeMillis();
+        private final String encoding;
+        private final byte[] data;
+        private final SectionSlices slices = new SectionSlices();
+
+        EncodedChunk(String dictionaryId, boolean live, String encoding, byte[] data) {
+            this.dictionaryId = dictionaryId;
+            this.live = live;
+            this.encoding = encoding;
+            this.data = data;
+        }
+    }
+
+    // A chunk as read from its region file
+    private static class StoredChunk {
+        private final byte[] data;
+        private final int hash;
+        private final int version;
+
+        StoredChunk(byte[] data, int hash, int version) {
+            this.data = data;
+            this.hash = hash;
+            this.version = version;
         }
     }
 
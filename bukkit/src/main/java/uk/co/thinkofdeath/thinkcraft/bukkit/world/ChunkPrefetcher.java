@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.bukkit.Location;
+import org.bukkit.World;
+import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
+
+import java.util.*;
+
+/**
+ * Keeps the chunks around the spawn and the areas viewers are
+ * heading towards in the chunk cache so that their requests can be
+ * served from memory instead of waiting on the disk or the main
+ * thread. Each run is limited by the prefetch budgets so this never
+ * competes with the server for long
+ */
+public class ChunkPrefetcher implements Runnable {
+
+    // How far ahead (in seconds) a viewer's position is predicted
+    private static final double LOOK_AHEAD = 4;
+    // Limits the prediction for viewers that jump across the map
+    private static final double MAX_SPEED = 64;
+    // Viewers only report their position when they move into
+    // another chunk, after this they are treated as stopped
+    private static final long STOP_TIME = 5 * 1000;
+    // How far (in blocks) ahead of a stopped viewer to look
+    private static final double HEADING_LOOK_AHEAD = 32;
+
+    private final ThinkMapPlugin plugin;
+    private final Map<Object, Viewer> viewers = new HashMap<>();
+    private int[][] offsets = new int[0][];
+
+    public ChunkPrefetcher(ThinkMapPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Updates the position of the viewer
+     *
+     * @param viewer
+     *         The viewer that moved
+     * @param x
+     *         The x coordinate of the viewer (in blocks)
+     * @param z
+     *         The z coordinate of the viewer (in blocks)
+     * @param heading
+     *         The direction the viewer is facing in 256ths of a turn
+     */
+    public void updateViewer(Object viewer, int x, int z, int heading) {
+        long now = System.currentTimeMillis();
+        synchronized (viewers) {
+            Viewer current = viewers.get(viewer);
+            if (current == null) {
+                current = new Viewer(x, z, now);
+                viewers.put(viewer, current);
+            } else if (current.x != x || current.z != z) {
+                current.update(x, z, now);
+            }
+            current.heading = heading;
+        }
+    }
+
+    /**
+     * Stops prefetching for the viewer
+     *
+     * @param viewer
+     *         The viewer that disconnected
+     */
+    public void removeViewer(Object viewer) {
+        synchronized (viewers) {
+            viewers.remove(viewer);
+        }
+    }
+
+    @Override
+    public synchronized void run() {
+        int radius = plugin.getConfiguration().getPrefetchRadius();
+        if (radius <= 0) {
+            return;
+        }
+        if (offsets.length != (radius * 2 + 1) * (radius * 2 + 1)) {
+            offsets = createOffsets(radius);
+        }
+        World world = plugin.getTargetWorld();
+        ChunkManager chunkManager = plugin.getChunkManager(world);
+        ChunkDictionary dictionary = plugin.getChunkDictionaries().getCurrent();
+        Budget budget = new Budget(
+                plugin.getConfiguration().getPrefetchIoBudget() * 1024,
+                plugin.getConfiguration().getPrefetchTickBudget()
+        );
+        TLongSet visited = new TLongHashSet();
+
+        // New viewers always start at the spawn
+        Location spawn = world.getSpawnLocation();
+        if (!prefetch(chunkManager, dictionary, spawn.getBlockX() >> 4, spawn.getBlockZ() >> 4, budget, visited)) {
+            return;
+        }
+
+        List<int[]> targets = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        synchronized (viewers) {
+            for (Viewer viewer : viewers.values()) {
+                targets.add(viewer.predict(now));
+            }
+        }
+        for (int[] target : targets) {
+            if (!prefetch(chunkManager, dictionary, target[0] >> 4, target[1] >> 4, budget, visited)) {
+                return;
+            }
+        }
+    }
+
+    // Warms the chunks around the center, closest first. Returns
+    // false once the budget has run out
+    private boolean prefetch(ChunkManager chunkManager, ChunkDictionary dictionary,
+                             int cx, int cz, Budget budget, TLongSet visited) {
+        for (int[] offset : offsets) {
+            int x = cx + offset[0];
+            int z = cz + offset[1];
+            if (!visited.add(((long) x << 32) | (z & 0xFFFFFFFFL))
+                    || chunkManager.isCached(x, z, dictionary)) {
+                continue;
+            }
+            if (chunkManager.isActive(x, z)) {
+                if (budget.snapshots <= 0) {
+                    continue;
+                }
+                budget.snapshots--;
+                chunkManager.warmChunk(x, z, dictionary);
+            } else if (budget.bytes > 0) {
+                budget.bytes -= chunkManager.warmChunk(x, z, dictionary);
+            }
+            if (budget.snapshots <= 0 && budget.bytes <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Offsets within the radius sorted by their distance from the
+    // center
+    private static int[][] createOffsets(int radius) {
+        int[][] offsets = new int[(radius * 2 + 1) * (radius * 2 + 1)][];
+        int i = 0;
+        for (int x = -radius; x <= radius; x++) {
+            for (int z = -radius; z <= radius; z++) {
+                offsets[i++] = new int[]{x, z};
+            }
+        }
+        Arrays.sort(offsets, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] o1, int[] o2) {
+                return (o1[0] * o1[0] + o1[1] * o1[1]) - (o2[0] * o2[0] + o2[1] * o2[1]);
+            }
+        });
+        return offsets;
+    }
+
+    private static class Budget {
+        private int bytes;
+        private int snapshots;
+
+        Budget(int bytes, int snapshots) {
+            this.bytes = bytes;
+            this.snapshots = snapshots;
+        }
+    }
+
+    private static class Viewer {
+        private int x;
+        private int z;
+        private long time;
+        // In blocks per second
+        private double velocityX;
+        private double velocityZ;
+        private int heading;
+
+        Viewer(int x, int z, long time) {
+            this.x = x;
+            this.z = z;
+            this.time = time;
+        }
+
+        void update(int x, int z, long now) {
+            double seconds = (now - time) / 1000.0;
+            if (seconds > 0) {
+                if (now - time > STOP_TIME) {
+                    // Started moving again
+                    velocityX = 0;
+                    velocityZ = 0;
+                }
+                // Smooth the velocity as positions are only
+                // reported per chunk
+                velocityX = (velocityX + clamp((x - this.x) / seconds)) / 2;
+                velocityZ = (velocityZ + clamp((z - this.z) / seconds)) / 2;
+            }
+            this.x = x;
+            this.z = z;
+            time = now;
+        }
+
+        // Returns where the viewer is expected to be shortly
+        int[] predict(long now) {
+            if (now - time > STOP_TIME) {
+                // Not moving, so look where they are facing
+                double angle = heading * (Math.PI * 2) / 256;
+                return new int[]{
+                        (int) (x + Math.sin(angle) * HEADING_LOOK_AHEAD),
+                        (int) (z - Math.cos(angle) * HEADING_LOOK_AHEAD)
+                };
+            }
+            return new int[]{
+                    (int) (x + velocityX * LOOK_AHEAD),
+                    (int) (z + velocityZ * LOOK_AHEAD)
+            };
+        }
+
+        private static double clamp(double speed) {
+            return Math.max(-MAX_SPEED, Math.min(MAX_SPEED, speed));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import org.bukkit.Material;
+
+/**
+ * Works out the top down summary of a chunk used to render the
+ * map tiles. Every column stores the block seen from above
+ * (id << 4 | data as a short), the height of its top face and
+ * the biome. Columns without any blocks have a height of 0
+ */
+final class ChunkTile {
+
+    /**
+     * The size of a chunk's summary in bytes
+     */
+    static final int SIZE = 16 * 16 * 4;
+
+    // Blocks too small to be seen from above (plants, torches,
+    // rails and so on), the block below them is used instead
+    private static final boolean[] skipped = new boolean[4096];
+
+    static {
+        for (int id = 0; id < skipped.length; id++) {
+            Material material = Material.getMaterial(id);
+            skipped[id] = material == null
+                    || (!material.isSolid() && material != Material.WATER && material != Material.STATIONARY_WATER
+                    && material != Material.LAVA && material != Material.STATIONARY_LAVA
+                    && material != Material.SNOW);
+        }
+    }
+
+    private ChunkTile() {
+    }
+
+    /**
+     * Creates the summary of the chunk
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @return The summary or null if the chunk doesn't exist
+     */
+    static byte[] summarise(byte[] raw) {
+        if (raw.length < 3 || raw[0] == 0) {
+            return null;
+        }
+        int mask = ChunkData.getMask(raw);
+        int[] index = new int[16];
+        for (int i = 0, j = 0; i < 16; i++) {
+            index[i] = (mask & (1 << i)) != 0 ? j++ : -1;
+        }
+        int start = ChunkData.getDataOffset(raw);
+        int biomes = ChunkData.getBiomeOffset(raw);
+
+        byte[] summary = new byte[SIZE];
+        for (int i = 0; i < 256; i++) {
+            int out = i << 2;
+            summary[out + 3] = raw[biomes + i];
+            for (int y = 255; y >= 0; y--) {
+                int section = index[y >> 4];
+                if (section == -1) {
+                    // Skip the rest of the empty section
+                    y &= ~0xF;
+                    continue;
+                }
+                int offset = start + ((section * ChunkData.SECTION_SIZE + (((y & 0xF) << 8) | i)) << 1);
+                int block = ((raw[offset] & 0xFF) << 8) | (raw[offset + 1] & 0xFF);
+                if (skipped[block >> 4]) {
+                    continue;
+                }
+                summary[out] = (byte) (block >> 8);
+                summary[out + 1] = (byte) block;
+                summary[out + 2] = (byte) Math.min(y + 1, 255);
+                break;
+            }
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * Brings chunks stored in an older format up to date. Every entry of
+ * a region file records the format its data was written in so when
+ * the format changes the stored worlds are kept. Old entries are
+ * converted when they are first read (see {@link #upgrade(byte[], int)})
+ * and this task works through the rest in the background, a limited
+ * amount per run
+ */
+public class ChunkUpgrader implements Runnable {
+
+    /**
+     * The format chunks are stored in
+     */
+    public static final int VERSION = ThinkMapPlugin.WORLD_VERSION;
+    /**
+     * The oldest format that can be upgraded, stored worlds older
+     * than this have to be deleted
+     */
+    public static final int MIN_VERSION = 3;
+
+    // Entries written before the version was stored per entry
+    private static final int UNVERSIONED = 3;
+    // The amount of stored data (in bytes) converted per run
+    private static final long BUDGET = 4 * 1024 * 1024;
+    private static final Pattern REGION_FILE = Pattern.compile("region_(-?[0-9]+)-(-?[0-9]+)\\.dat");
+
+    private final ThinkMapPlugin plugin;
+    // Regions with nothing left to convert. New entries are always
+    // written in the current format so they stay that way
+    private final Set<File> upgraded = new HashSet<>();
+
+    public ChunkUpgrader(ThinkMapPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Converts uncompressed chunk data to the current format
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @param version
+     *         The format the data was stored in, 0 if unknown
+     * @return The converted data, or the passed data if it was
+     * already current
+     */
+    public static byte[] upgrade(byte[] raw, int version) {
+        if (version == 0) {
+            version = UNVERSIONED;
+        }
+        if (version < 4) {
+            // Sky light that matches the heightmap is left out
+            raw = ChunkData.elideSkyLight(raw);
+        }
+        return raw;
+    }
+
+    @Override
+    public synchronized void run() {
+        long budget = BUDGET;
+        for (ChunkManager chunkManager : plugin.getChunkManagers()) {
+            if (budget <= 0) {
+                return;
+            }
+            try {
+                budget -= upgrade(chunkManager, budget);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to upgrade the chunks of "
+                        + chunkManager.getWorld().getName(), e);
+            }
+        }
+    }
+
+    // Converts the old entries of the world's regions until the
+    // budget runs out. Returns the number of bytes used
+    private long upgrade(ChunkManager chunkManager, long budget) throws IOException {
+        File[] files = chunkManager.getWorldFolder().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return REGION_FILE.matcher(name).matches();
+            }
+        });
+        if (files == null) {
+            return 0;
+        }
+
+        long used = 0;
+        for (File file : files) {
+            if (used >= budget) {
+                break;
+            }
+            if (upgraded.contains(file)) {
+                continue;
+            }
+            Matcher matcher = REGION_FILE.matcher(file.getName());
+            matcher.matches();
+            int rx = Integer.parseInt(matcher.group(1));
+            int rz = Integer.parseInt(matcher.group(2));
+
+            List<Integer> ids = new ArrayList<>();
+            List<byte[]> datas = new ArrayList<>();
+            List<Integer> hashes = new ArrayList<>();
+            List<Integer> versions = new ArrayList<>();
+            Lock lock = chunkManager.getWorldLock().readLock();
+            lock.lock();
+            try (RegionFile region = RegionFile.open(file)) {
+                if (region == null) {
+                    continue;
+                }
+                if (!region.hasDataOlderThan(VERSION)) {
+                    upgraded.add(file);
+                    continue;
+                }
+                for (int id = 0; id < RegionFile.ENTRIES && used < budget; id++) {
+                    if (!region.contains(id) || region.getDataVersion(id) >= VERSION) {
+                        continue;
+                    }
+                    byte[] data = region.read(id);
+                    used += data.length;
+                    ids.add(id);
+                    datas.add(data);
+                    hashes.add(region.getHash(id));
+                    versions.add(region.getDataVersion(id));
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // Convert without holding the lock
+            List<Integer> newHashes = new ArrayList<>();
+            boolean[] unreadable = new boolean[datas.size()];
+            for (int i = 0; i < datas.size(); i++) {
+                byte[] raw;
+                try {
+                    raw = chunkManager.decompress(datas.get(i));
+                } catch (IOException e) {
+                    // Dropped below so the rest of the region is
+                    // still upgraded
+                    int id = ids.get(i);
+                    plugin.getLogger().log(Level.WARNING, "Discarding unreadable chunk " + ((rx << 5) | (id & 0x1F))
+                            + ":" + ((rz << 5) | (id >> 5)) + " of " + chunkManager.getWorld().getName(), e);
+                    unreadable[i] = true;
+                    raw = null;
+                }
+                if (raw == null) {
+                    // The dictionary it needs is missing
+                    datas.set(i, null);
+                    newHashes.add(0);
+                    continue;
+                }
+                raw = upgrade(raw, versions.get(i));
+                // Recompressed at a higher level once the region is cold
+                datas.set(i, ChunkManager.gzip(raw, Deflater.BEST_SPEED));
+                newHashes.add(ChunkManager.hashChunk(raw));
+            }
+
+            lock = chunkManager.getWorldLock().writeLock();
+            lock.lock();
+            try (RegionFile region = RegionFile.openForWriting(file)) {
+                for (int i = 0; i < ids.size(); i++) {
+                    int id = ids.get(i);
+                    // Skip chunks that were saved again in the meantime
+                    if (!region.contains(id)
+                            || region.getHash(id) != hashes.get(i)
+                            || region.getDataVersion(id) != versions.get(i)) {
+                        continue;
+                    }
+                    if (unreadable[i]) {
+                        chunkManager.discardChunk(region, (rx << 5) | (id & 0x1F), (rz << 5) | (id >> 5));
+                        continue;
+                    }
+                    if (datas.get(i) == null) {
+                        continue;
+                    }
+                    region.write(id, datas.get(i), newHashes.get(i), 0, VERSION);
+                    chunkManager.invalidate((rx << 5) | (id & 0x1F), (rz << 5) | (id >> 5));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return used;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import com.google.gson.Gson;
+import org.apache.commons.io.Charsets;
+import org.apache.commons.io.FileUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * Exports a stored world as plain files so the map can be hosted
+ * by any static file host. Every chunk is written pre-compressed
+ * to {@code chunks/<rx>_<rz>/<x>_<z>.bin} (zlib, with the preset
+ * dictionary if there is one) alongside the client, its resources
+ * and a {@code manifest.json} describing the world. The client
+ * switches to static mode when loaded from the export
+ */
+public class MapExporter {
+
+    /**
+     * The version of the export layout, stored in the manifest
+     */
+    public static final int VERSION = 1;
+
+    private static final Pattern REGION_FILE = Pattern.compile("region_(-?[0-9]+)-(-?[0-9]+)\\.dat");
+
+    private final File worldFolder;
+    private final File dictionaryFolder;
+    private final ChunkDictionary dictionary;
+    private final ReadWriteLock worldLock;
+    private final boolean surfaceOnly;
+    private final Map<String, ChunkDictionary> dictionaries = new HashMap<>();
+
+    private int spawnX;
+    private int spawnY = 64;
+    private int spawnZ;
+    private int time = 6000;
+    private boolean hideOres;
+
+    /**
+     * Creates an exporter for the stored world
+     *
+     * @param worldDir
+     *         The folder containing the ThinkMap worlds
+     * @param worldName
+     *         The name of the world
+     * @param dictionary
+     *         The dictionary to compress the chunks with or null
+     * @param worldLock
+     *         The lock guarding the region files
+     * @param surfaceOnly
+     *         Whether sections that can't be seen from the surface
+     *         are left out
+     */
+    public MapExporter(File worldDir, String worldName, ChunkDictionary dictionary,
+                       ReadWriteLock worldLock, boolean surfaceOnly) {
+        this.worldFolder = new File(worldDir, worldName);
+        this.dictionaryFolder = new File(worldDir, "dictionaries");
+        this.dictionary = dictionary;
+        this.worldLock = worldLock;
+        this.surfaceOnly = surfaceOnly;
+    }
+
+    /**
+     * Exports the world, the client and its resources into the
+     * folder
+     *
+     * @param out
+     *         The folder to export to
+     * @param resourceDir
+     *         The folder containing the client's resources
+     * @return The number of chunks exported
+     * @throws IOException
+     *         If the export couldn't be written
+     */
+    public int export(File out, File resourceDir) throws IOException {
+        if (!out.exists() && !out.mkdirs()) {
+            throw new IOException("Failed to create " + out);
+        }
+        copyClient(out);
+        FileUtils.copyDirectory(resourceDir, new File(out, "resources"));
+        if (dictionary != null) {
+            FileUtils.writeByteArrayToFile(new File(out, "dictionary/" + dictionary.getId()), dictionary.getData());
+        }
+        int count = exportChunks(new File(out, "chunks"));
+
+        Map<String, Object> manifest = new LinkedHashMap<>();
+        manifest.put("version", VERSION);
+        manifest.put("world", worldFolder.getName());
+        manifest.put("spawnX", spawnX);
+        manifest.put("spawnY", spawnY);
+        manifest.put("spawnZ", spawnZ);
+        manifest.put("time", time);
+        manifest.put("hideOres", hideOres);
+        manifest.put("dictionary", dictionary != null ? dictionary.getId() : "");
+        manifest.put("chunks", count);
+        FileUtils.writeStringToFile(new File(out, "manifest.json"), new Gson().toJson(manifest), Charsets.UTF_8);
+        return count;
+    }
+
+    // Writes every stored chunk as its own file
+    private int exportChunks(File out) throws IOException {
+        File[] files = worldFolder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return REGION_FILE.matcher(name).matches();
+            }
+        });
+        if (files == null) {
+            return 0;
+        }
+        int count = 0;
+        for (File file : files) {
+            Matcher matcher = REGION_FILE.matcher(file.getName());
+            matcher.matches();
+            int rx = Integer.parseInt(matcher.group(1));
+            int rz = Integer.parseInt(matcher.group(2));
+            File regionOut = new File(out, rx + "_" + rz);
+
+            Map<Integer, byte[]> stored = new HashMap<>();
+            Map<Integer, Integer> versions = new HashMap<>();
+            // Only hold the lock whilst reading so the plugin can
+            // keep saving chunks during the export
+            Lock lock = worldLock.readLock();
+            lock.lock();
+            try (RegionFile region = RegionFile.open(file)) {
+                if (region == null) continue;
+                for (int id = 0; id < RegionFile.ENTRIES; id++) {
+                    byte[] data = region.read(id);
+                    if (data != null) {
+                        stored.put(id, data);
+                        versions.put(id, region.getDataVersion(id));
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            for (Map.Entry<Integer, byte[]> e : stored.entrySet()) {
+                byte[] raw = decode(e.getValue(), versions.get(e.getKey()));
+                if (raw == null) {
+                    continue;
+                }
+                int x = (rx << 5) | (e.getKey() & 0x1F);
+                int z = (rz << 5) | (e.getKey() >> 5);
+                FileUtils.writeByteArrayToFile(new File(regionOut, x + "_" + z + ".bin"), compress(raw));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Decompresses the stored chunk into the format sent to the
+    // client
+    private byte[] decode(byte[] data, int version) throws IOException {
+        byte[] raw;
+        String id = ChunkDictionary.idOf(data);
+        if (id == null) {
+            raw = ChunkManager.gunzip(data);
+        } else {
+            ChunkDictionary stored = getDictionary(id);
+            if (stored == null) {
+                return null;
+            }
+            raw = stored.decompress(data);
+        }
+        raw = ChunkUpgrader.upgrade(raw, version);
+        if (surfaceOnly) {
+            raw = SurfaceFilter.filter(raw);
+        }
+        return raw;
+    }
+
+    // Static hosts won't mark the files as compressed so the client
+    // decompresses them itself, zlib is used either way so there is
+    // only one format to handle
+    private byte[] compress(byte[] raw) {
+        if (dictionary != null) {
+            return dictionary.compress(raw, Deflater.BEST_COMPRESSION);
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private ChunkDictionary getDictionary(String id) throws IOException {
+        ChunkDictionary stored = dictionaries.get(id);
+        if (stored == null) {
+            File file = new File(dictionaryFolder, id + ".dict");
+            if (!file.exists()) {
+                return null;
+            }
+            stored = ChunkDictionary.load(file);
+            dictionaries.put(id, stored);
+        }
+        return stored;
+    }
+
+    // Copies the client (the www folder bundled with the plugin)
+    private void copyClient(File out) throws IOException {
+        File source;
+        try {
+            source = new File(MapExporter.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+        if (source.isDirectory()) {
+            File www = new File(source, "www");
+            if (www.exists()) {
+                FileUtils.copyDirectory(www, out);
+            }
+        } else {
+            try (JarFile jar = new JarFile(source)) {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements()) {
+                    JarEntry entry = entries.nextElement();
+                    if (entry.isDirectory() || !entry.getName().startsWith("www/")) {
+                        continue;
+                    }
+                    try (InputStream in = jar.getInputStream(entry)) {
+                        FileUtils.copyInputStreamToFile(in, new File(out, entry.getName().substring(4)));
+                    }
+                }
+            }
+        }
+        File index = new File(out, "index.html");
+        if (index.exists()) {
+            String page = FileUtils.readFileToString(index, Charsets.UTF_8);
+            page = page.replace("MapViewerConfig = {", "MapViewerConfig = {\n            staticMode: true,");
+            FileUtils.writeStringToFile(index, page, Charsets.UTF_8);
+        }
+    }
+
+    /**
+     * Sets the position the viewer starts at
+     *
+     * @param x
+     *         The x coordinate of the spawn
+     * @param y
+     *         The y coordinate of the spawn
+     * @param z
+     *         The z coordinate of the spawn
+     */
+    public void setSpawn(int x, int y, int z) {
+        spawnX = x;
+        spawnY = y;
+        spawnZ = z;
+    }
+
+    /**
+     * Sets the time of day shown by the export
+     *
+     * @param time
+     *         The time in ticks
+     */
+    public void setTime(int time) {
+        this.time = time;
+    }
+
+    /**
+     * Sets whether ores are hidden by the client
+     *
+     * @param hideOres
+     *         Whether ores are hidden
+     */
+    public void setHideOres(boolean hideOres) {
+        this.hideOres = hideOres;
+    }
+}
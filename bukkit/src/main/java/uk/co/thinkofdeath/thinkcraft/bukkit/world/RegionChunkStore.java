@@ -0,0 +1,299 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+/**
+ * Read-only access to the chunks a world has stored in its region
+ * files. Used to serve the map without the game server, the region
+ * files are written by the plugin in another process so the cached
+ * chunks of a region have to be invalidated when it changes
+ */
+public class RegionChunkStore {
+
+    private final File worldFolder;
+    private final File dictionaryFolder;
+    private final Logger logger;
+    private final boolean surfaceOnly;
+    private final int cacheSize;
+    private final Map<Long, StoredChunk> cache = new LinkedHashMap<Long, StoredChunk>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, StoredChunk> eldest) {
+            return size() > cacheSize;
+        }
+    };
+    private final Map<String, ChunkDictionary> dictionaries = new HashMap<>();
+    private volatile ChunkDictionary current;
+
+    /**
+     * Creates a store for the world's region files
+     *
+     * @param worldDir
+     *         The folder containing the ThinkMap worlds
+     * @param worldName
+     *         The name of the world
+     * @param cacheSize
+     *         The number of compressed chunks to keep in memory
+     * @param surfaceOnly
+     *         Whether sections that can't be seen from the surface
+     *         are left out
+     * @param logger
+     *         The logger to report errors to
+     */
+    public RegionChunkStore(File worldDir, String worldName, int cacheSize, boolean surfaceOnly, Logger logger) {
+        this.worldFolder = new File(worldDir, worldName);
+        this.dictionaryFolder = new File(worldDir, "dictionaries");
+        this.cacheSize = cacheSize;
+        this.surfaceOnly = surfaceOnly;
+        this.logger = logger;
+        reloadDictionaries();
+    }
+
+    /**
+     * Gets the compressed chunk data for the location and stores it
+     * in out. If the client has the dictionary the data may be
+     * compressed with it otherwise gzip is used.
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @param out
+     *         The buffer to write the data to
+     * @param dictionary
+     *         The dictionary the client has or null
+     * @param sections
+     *         The mask of sections the client wants
+     * @return The content encoding of the data or null if the chunk
+     * isn't stored
+     */
+    public String getChunkBytes(int x, int z, ByteBuf out, ChunkDictionary dictionary, int sections) {
+        String dictionaryId = dictionary != null ? dictionary.getId() : "";
+        long key = chunkKey(x, z);
+        StoredChunk chunk;
+        synchronized (cache) {
+            chunk = cache.get(key);
+        }
+        try {
+            if (chunk == null || !chunk.dictionaryId.equals(dictionaryId)) {
+                chunk = loadChunk(x, z, dictionary);
+                if (chunk == null) {
+                    return null;
+                }
+                synchronized (cache) {
+                    cache.put(key, chunk);
+                }
+            }
+            ChunkManager.writeSections(out, chunk.data, chunk.encoding, dictionary, sections, chunk.slices);
+        } catch (IOException e) {
+            // The plugin may have been part way through writing to
+            // the region, the client will ask again later
+            logger.log(Level.WARNING, "Failed to read chunk " + x + ":" + z, e);
+            return null;
+        }
+        return chunk.encoding;
+    }
+
+    // Reads the chunk and compresses it for a client
+    private StoredChunk loadChunk(int x, int z, ChunkDictionary dictionary) throws IOException {
+        String dictionaryId = dictionary != null ? dictionary.getId() : "";
+        byte[] data;
+        int version;
+        File file = new File(worldFolder, String.format("region_%d-%d.dat", x >> 5, z >> 5));
+        try (RegionFile region = RegionFile.open(file)) {
+            if (region == null) return null;
+            int cid = RegionFile.chunkId(x, z);
+            data = region.read(cid);
+            version = region.getDataVersion(cid);
+        }
+        if (data == null) {
+            return null;
+        }
+        String id = ChunkDictionary.idOf(data);
+        if (!surfaceOnly && version >= ChunkUpgrader.VERSION) {
+            // The stored copy can be sent as is
+            if (id == null) {
+                return new StoredChunk(dictionaryId, "gzip", data);
+            }
+            if (dictionary != null && dictionary.getId().equals(id)) {
+                return new StoredChunk(dictionaryId, ChunkDictionary.ENCODING, data);
+            }
+        }
+        byte[] raw;
+        if (id == null) {
+            raw = ChunkManager.gunzip(data);
+        } else {
+            ChunkDictionary stored = getDictionary(id);
+            if (stored == null) {
+                return null;
+            }
+            raw = stored.decompress(data);
+        }
+        // The store is read only so older chunks are only converted
+        // in memory
+        raw = ChunkUpgrader.upgrade(raw, version);
+        if (surfaceOnly) {
+            raw = SurfaceFilter.filter(raw);
+        }
+        if (dictionary != null) {
+            return new StoredChunk(dictionaryId, ChunkDictionary.ENCODING,
+                    dictionary.compress(raw, Deflater.BEST_SPEED));
+        }
+        return new StoredChunk(dictionaryId, "gzip", ChunkManager.gzip(raw, Deflater.BEST_SPEED));
+    }
+
+    /**
+     * Drops the cached chunks of the region so they are read again
+     * on their next request
+     *
+     * @param rx
+     *         The x coordinate of the region
+     * @param rz
+     *         The z coordinate of the region
+     */
+    public void invalidateRegion(int rx, int rz) {
+        synchronized (cache) {
+            Iterator<Long> it = cache.keySet().iterator();
+            while (it.hasNext()) {
+                long key = it.next();
+                if (((int) (key >> 32)) >> 5 == rx && ((int) key) >> 5 == rz) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops every cached chunk
+     */
+    public void invalidateAll() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Switches to the newest dictionary in the dictionary folder.
+     * Chunks are compressed with it for clients that have it
+     */
+    public void reloadDictionaries() {
+        File[] files = dictionaryFolder.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".dict");
+            }
+        });
+        if (files == null || files.length == 0) {
+            return;
+        }
+        File newest = files[0];
+        for (File file : files) {
+            if (file.lastModified() > newest.lastModified()) {
+                newest = file;
+            }
+        }
+        ChunkDictionary dictionary = getDictionary(newest.getName().substring(0, newest.getName().length() - 5));
+        if (dictionary != null) {
+            current = dictionary;
+        }
+    }
+
+    /**
+     * Returns the dictionary chunks should be compressed with or
+     * null if there isn't one
+     *
+     * @return The current dictionary
+     */
+    public ChunkDictionary getCurrentDictionary() {
+        return current;
+    }
+
+    /**
+     * Returns the dictionary with the id, loading it if required
+     *
+     * @param id
+     *         The id of the dictionary
+     * @return The dictionary or null if it doesn't exist
+     */
+    public ChunkDictionary getDictionary(String id) {
+        synchronized (dictionaries) {
+            ChunkDictionary dictionary = dictionaries.get(id);
+            if (dictionary != null) {
+                return dictionary;
+            }
+            File file = new File(dictionaryFolder, id + ".dict");
+            if (!id.matches("[0-9a-f]{8}") || !file.exists()) {
+                return null;
+            }
+            try {
+                dictionary = ChunkDictionary.load(file);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Failed to load the chunk dictionary " + id, e);
+                return null;
+            }
+            dictionaries.put(id, dictionary);
+            return dictionary;
+        }
+    }
+
+    /**
+     * Returns the folder containing the world's region files
+     *
+     * @return The world folder
+     */
+    public File getWorldFolder() {
+        return worldFolder;
+    }
+
+    /**
+     * Returns the folder containing the chunk dictionaries
+     *
+     * @return The dictionary folder
+     */
+    public File getDictionaryFolder() {
+        return dictionaryFolder;
+    }
+
+    private static long chunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    private static class StoredChunk {
+        private final String dictionaryId;
+        private final String encoding;
+        private final byte[] data;
+        private final SectionSlices slices = new SectionSlices();
+
+        private StoredChunk(String dictionaryId, String encoding, byte[] data) {
+            this.dictionaryId = dictionaryId;
+            this.encoding = encoding;
+            this.data = data;
+        }
+    }
+}
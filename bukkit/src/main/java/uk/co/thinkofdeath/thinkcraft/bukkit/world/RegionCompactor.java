@@ -0,0 +1,304 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import uk.co.thinkofdeath.thinkcraft.bukkit.ThinkMapPlugin;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * Rewrites fragmented region files into tightly packed copies
+ * with their chunks stored in coordinate order. Region files in
+ * the legacy format are converted at the same time. Before that
+ * chunks which were saved quickly and haven't changed for a while
+ * are recompressed at the highest level. Only runs whilst a world
+ * hasn't been written to for a while and limits the amount of data
+ * it moves per run.
+ */
+public class RegionCompactor implements Runnable {
+
+    // How long a world must go without writes before it
+    // is considered idle
+    private static final long IDLE_TIME = 60 * 1000;
+    // The minimum amount of wasted space (and the percentage
+    // of the file) before a region is worth compacting
+    private static final int MIN_WASTED_BYTES = 16 * 1024;
+    private static final double MIN_WASTED_RATIO = 0.2;
+    // How long a region must go without writes before its
+    // chunks are recompressed
+    private static final long COLD_TIME = 10 * 60 * 1000;
+    private static final Pattern REGION_FILE = Pattern.compile("region_(-?[0-9]+)-(-?[0-9]+)\\.dat");
+
+    private final ThinkMapPlugin plugin;
+
+    public RegionCompactor(ThinkMapPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void run() {
+        long budget = plugin.getConfiguration().getCompactionBudget() * 1024L;
+        for (ChunkManager chunkManager : plugin.getChunkManagers()) {
+            if (budget <= 0) {
+                return;
+            }
+            if (System.currentTimeMillis() - chunkManager.getLastWrite() < IDLE_TIME) {
+                continue;
+            }
+            try {
+                if (plugin.getConfiguration().isRecompressionEnabled()) {
+                    budget -= recompress(chunkManager, budget);
+                }
+                if (plugin.getConfiguration().isCompactionEnabled() && budget > 0) {
+                    budget -= compact(chunkManager, budget);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to compact the regions of "
+                        + chunkManager.getWorld().getName(), e);
+            }
+        }
+    }
+
+    // Recompresses the chunks of cold regions at the highest level
+    // until the budget runs out. Returns the number of bytes used
+    private long recompress(ChunkManager chunkManager, long budget) throws IOException {
+        File[] files = listRegions(chunkManager);
+        if (files == null) {
+            return 0;
+        }
+
+        long used = 0;
+        for (File file : files) {
+            if (used >= budget) {
+                break;
+            }
+            Matcher matcher = REGION_FILE.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            int rx = Integer.parseInt(matcher.group(1));
+            int rz = Integer.parseInt(matcher.group(2));
+            // Read the chunks that still need recompressing
+            List<Integer> ids = new ArrayList<>();
+            List<byte[]> datas = new ArrayList<>();
+            List<Integer> hashes = new ArrayList<>();
+            boolean complete = true;
+            Lock lock = chunkManager.getWorldLock().readLock();
+            lock.lock();
+            try (RegionFile region = RegionFile.open(file)) {
+                if (region == null || region.isLegacy()
+                        || System.currentTimeMillis() - region.getLastWrite() < COLD_TIME
+                        || (region.getWatermark() != 0 && region.getWatermark() >= region.getLastWrite())) {
+                    continue;
+                }
+                for (int id = 0; id < RegionFile.ENTRIES; id++) {
+                    if (!region.contains(id) || (region.getFlags(id) & RegionFile.FLAG_RECOMPRESSED) != 0) {
+                        continue;
+                    }
+                    if (used >= budget) {
+                        complete = false;
+                        break;
+                    }
+                    byte[] data = region.read(id);
+                    used += data.length;
+                    ids.add(id);
+                    datas.add(data);
+                    hashes.add(region.getHash(id));
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // Compress without holding the lock, using the chunk
+            // dictionary if it helps
+            ChunkDictionary dictionary = plugin.getChunkDictionaries().getCurrent();
+            for (int i = 0; i < datas.size(); i++) {
+                byte[] data = datas.get(i);
+                if (ChunkDictionary.idOf(data) != null) {
+                    continue;
+                }
+                byte[] raw;
+                try {
+                    raw = ChunkManager.gunzip(data);
+                } catch (IOException e) {
+                    // Dropped below so the rest of the region is
+                    // still recompressed
+                    int id = ids.get(i);
+                    plugin.getLogger().log(Level.WARNING, "Discarding unreadable chunk " + ((rx << 5) | (id & 0x1F))
+                            + ":" + ((rz << 5) | (id >> 5)) + " of " + chunkManager.getWorld().getName(), e);
+                    datas.set(i, null);
+                    continue;
+                }
+                byte[] compressed = ChunkManager.gzip(raw, Deflater.BEST_COMPRESSION);
+                if (dictionary != null) {
+                    byte[] withDictionary = dictionary.compress(raw, Deflater.BEST_COMPRESSION);
+                    if (withDictionary.length < compressed.length) {
+                        compressed = withDictionary;
+                    }
+                }
+                if (compressed.length < data.length) {
+                    datas.set(i, compressed);
+                }
+            }
+
+            lock = chunkManager.getWorldLock().writeLock();
+            lock.lock();
+            try (RegionFile region = RegionFile.openForWriting(file)) {
+                for (int i = 0; i < ids.size(); i++) {
+                    int id = ids.get(i);
+                    // Skip chunks that changed whilst they were being compressed
+                    if (!region.contains(id)
+                            || region.getHash(id) != hashes.get(i)
+                            || (region.getFlags(id) & RegionFile.FLAG_RECOMPRESSED) != 0) {
+                        continue;
+                    }
+                    if (datas.get(i) == null) {
+                        chunkManager.discardChunk(region, (rx << 5) | (id & 0x1F), (rz << 5) | (id >> 5));
+                        continue;
+                    }
+                    region.write(id, datas.get(i), hashes.get(i),
+                            region.getFlags(id) | RegionFile.FLAG_RECOMPRESSED, region.getDataVersion(id));
+                }
+                if (complete && System.currentTimeMillis() - region.getLastWrite() >= COLD_TIME) {
+                    // Nothing left to do until the region is next written to
+                    region.setWatermark(System.currentTimeMillis());
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return used;
+    }
+
+    // Compacts the most fragmented regions of the world until
+    // the budget runs out. Returns the number of bytes used
+    private long compact(ChunkManager chunkManager, long budget) throws IOException {
+        File[] files = listRegions(chunkManager);
+        if (files == null) {
+            return 0;
+        }
+
+        long used = 0;
+        List<RegionInfo> candidates = new ArrayList<>();
+        Lock lock = chunkManager.getWorldLock().readLock();
+        lock.lock();
+        try {
+            for (File file : files) {
+                RegionInfo info = RegionInfo.read(file);
+                used += RegionFile.HEADER_SIZE;
+                if (info != null && info.shouldCompact()) {
+                    candidates.add(info);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Legacy files first, then worst first
+        Collections.sort(candidates, new Comparator<RegionInfo>() {
+            @Override
+            public int compare(RegionInfo o1, RegionInfo o2) {
+                if (o1.legacy != o2.legacy) {
+                    return o1.legacy ? -1 : 1;
+                }
+                return Long.compare(o2.wastedBytes, o1.wastedBytes);
+            }
+        });
+
+        boolean first = true;
+        for (RegionInfo info : candidates) {
+            long cost = info.usedBytes * 2;
+            // Always allow one region per run so that large regions
+            // still get compacted eventually
+            if (!first && used + cost > budget) {
+                break;
+            }
+            first = false;
+            lock = chunkManager.getWorldLock().writeLock();
+            lock.lock();
+            try {
+                // The region may have changed since it was checked
+                RegionInfo current = RegionInfo.read(info.file);
+                if (current != null && current.shouldCompact()) {
+                    RegionFile.rewrite(current.file);
+                }
+            } finally {
+                lock.unlock();
+            }
+            used += cost;
+        }
+        return used;
+    }
+
+    // Lists the region files of the world
+    private static File[] listRegions(ChunkManager chunkManager) {
+        return chunkManager.getWorldFolder().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith("region_") && name.endsWith(".dat");
+            }
+        });
+    }
+
+    private static class RegionInfo {
+        private final File file;
+        private boolean legacy;
+        private long usedBytes;
+        private long wastedBytes;
+        private int usedSectors;
+        private int wastedSectors;
+
+        private RegionInfo(File file) {
+            this.file = file;
+        }
+
+        // Reads the location table of the region file
+        static RegionInfo read(File file) throws IOException {
+            RegionInfo info = new RegionInfo(file);
+            try (RegionFile region = RegionFile.open(file)) {
+                if (region == null) {
+                    return null;
+                }
+                info.legacy = region.isLegacy();
+                info.usedSectors = region.getUsedSectors();
+                info.wastedSectors = region.getFileSectors() - region.getHeaderSectors()
+                        - info.usedSectors;
+                info.usedBytes = info.usedSectors * (long) region.getSectorSize();
+                info.wastedBytes = info.wastedSectors * (long) region.getSectorSize();
+            }
+            return info;
+        }
+
+        boolean shouldCompact() {
+            // Legacy files are converted to the current format
+            // whilst they are idle
+            return legacy || (wastedBytes >= MIN_WASTED_BYTES
+                    && wastedSectors >= usedSectors * MIN_WASTED_RATIO);
+        }
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A region file containing the stored copies of 32x32 chunks.
+ * <p>
+ * The file starts with a location table of 1024 entries (a sector
+ * offset and a size in bytes for each chunk) followed by a small
+ * block of metadata describing the format of the file, a table of
+ * the format version each entry's data was written in and then a
+ * table of hashes of the uncompressed chunk data. The top byte of an
+ * entry's size holds its flags. Legacy files
+ * (version 0 has no metadata and uses 4096 byte sectors, version 1
+ * has no hashes, version 2 has no data versions) are readable but are
+ * converted before they are written to.
+ */
+class RegionFile implements Closeable {
+
+    // 'TMRG'
+    static final int MAGIC = 0x544D5247;
+    static final int VERSION = 3;
+
+    static final int SECTOR_SIZE = 256;
+    static final int LEGACY_SECTOR_SIZE = 4096;
+    static final int HEADER_SIZE = 4096 * 4;
+    static final int LEGACY_HEADER_SIZE = 4096 * 3;
+    static final int ENTRIES = 32 * 32;
+
+    // Set on entries that have been recompressed at the
+    // highest level
+    static final int FLAG_RECOMPRESSED = 0x1;
+
+    private static final int META_OFFSET = ENTRIES * 8;
+    private static final int DATA_VERSION_OFFSET = META_OFFSET + 64;
+    private static final int HASH_OFFSET = LEGACY_HEADER_SIZE;
+
+    private final File file;
+    private final RandomAccessFile region;
+    private final int version;
+    private final int[] offsets = new int[ENTRIES];
+    private final int[] sizes = new int[ENTRIES];
+    private final int[] hashes = new int[ENTRIES];
+    private final int[] flags = new int[ENTRIES];
+    private final byte[] dataVersions = new byte[ENTRIES];
+    private long lastWrite;
+    private long watermark;
+
+    private RegionFile(File file, RandomAccessFile region) throws IOException {
+        this.file = file;
+        this.region = region;
+
+        if (region.length() < LEGACY_HEADER_SIZE) {
+            // New file
+            region.setLength(HEADER_SIZE);
+            writeMeta(region);
+        }
+        ByteBuffer header = ByteBuffer.allocate(META_OFFSET + 24);
+        region.seek(0);
+        region.readFully(header.array());
+        for (int i = 0; i < ENTRIES; i++) {
+            offsets[i] = header.getInt();
+            int size = header.getInt();
+            sizes[i] = size & 0xFFFFFF;
+            flags[i] = size >>> 24;
+        }
+        version = header.getInt() == MAGIC ? header.getInt() : 0;
+        lastWrite = header.getLong();
+        watermark = header.getLong();
+
+        if (version >= 2) {
+            ByteBuffer hashTable = ByteBuffer.allocate(ENTRIES * 4);
+            region.seek(HASH_OFFSET);
+            region.readFully(hashTable.array());
+            for (int i = 0; i < ENTRIES; i++) {
+                hashes[i] = hashTable.getInt();
+            }
+        }
+        if (version >= 3) {
+            region.seek(DATA_VERSION_OFFSET);
+            region.readFully(dataVersions);
+        }
+    }
+
+    /**
+     * Opens the region file for reading
+     *
+     * @param file
+     *         The file to open
+     * @return The region or null if it doesn't exist
+     * @throws IOException
+     *         If the file can't be read
+     */
+    static RegionFile open(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile region = new RandomAccessFile(file, "r");
+        try {
+            if (region.length() < LEGACY_HEADER_SIZE) {
+                region.close();
+                return null;
+            }
+            return new RegionFile(file, region);
+        } catch (IOException e) {
+            region.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the region file for writing, creating it if
+     * needed. Legacy files are converted to the current
+     * format first
+     *
+     * @param file
+     *         The file to open
+     * @return The region
+     * @throws IOException
+     *         If the file can't be opened
+     */
+    static RegionFile openForWriting(File file) throws IOException {
+        RegionFile regionFile = new RegionFile(file, new RandomAccessFile(file, "rw"));
+        if (regionFile.isLegacy()) {
+            regionFile.close();
+            rewrite(file);
+            regionFile = new RegionFile(file, new RandomAccessFile(file, "rw"));
+        }
+        return regionFile;
+    }
+
+    /**
+     * Copies every entry of the region into a new tightly
+     * packed file in the current format (in the order of their
+     * ids) and atomically swaps it with the original
+     *
+     * @param file
+     *         The region file to rewrite
+     * @throws IOException
+     *         If the rewrite fails
+     */
+    static void rewrite(File file) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (RegionFile in = open(file);
+             RandomAccessFile out = new RandomAccessFile(temp, "rw")) {
+            out.setLength(0);
+            out.setLength(HEADER_SIZE);
+            writeMeta(out);
+
+            int nextSector = HEADER_SIZE / SECTOR_SIZE;
+            for (int id = 0; id < ENTRIES; id++) {
+                byte[] data = in != null ? in.read(id) : null;
+                if (data == null) {
+                    continue;
+                }
+                out.seek(nextSector * (long) SECTOR_SIZE);
+                out.write(data);
+                out.seek(8 * id);
+                out.writeInt(nextSector);
+                out.writeInt(data.length | (in.getFlags(id) << 24));
+                out.seek(HASH_OFFSET + 4 * id);
+                out.writeInt(in.getHash(id));
+                out.seek(DATA_VERSION_OFFSET + id);
+                out.writeByte(in.getDataVersion(id));
+                nextSector += sectorsFor(data.length);
+            }
+            if (in != null) {
+                out.seek(META_OFFSET + 8);
+                out.writeLong(in.getLastWrite());
+                out.writeLong(in.getWatermark());
+            }
+            out.getChannel().force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeMeta(RandomAccessFile region) throws IOException {
+        region.seek(META_OFFSET);
+        region.writeInt(MAGIC);
+        region.writeInt(VERSION);
+    }
+
+    /**
+     * Returns the id of the chunk within its region
+     *
+     * @param x
+     *         The x coordinate of the chunk
+     * @param z
+     *         The z coordinate of the chunk
+     * @return The id of the chunk
+     */
+    static int chunkId(int x, int z) {
+        return (x & 0x1F) | ((z & 0x1F) << 5);
+    }
+
+    // Returns the number of sectors an entry of the given
+    // size occupies in the current format
+    static int sectorsFor(int size) {
+        return (size + SECTOR_SIZE - 1) / SECTOR_SIZE;
+    }
+
+    /**
+     * Reads the stored data of the chunk
+     *
+     * @param id
+     *         The id of the chunk
+     * @return The data or null if there isn't an entry
+     * @throws IOException
+     *         If the data can't be read
+     */
+    byte[] read(int id) throws IOException {
+        if (offsets[id] == 0) {
+            return null;
+        }
+        byte[] data = new byte[sizes[id]];
+        region.seek(offsets[id] * (long) getSectorSize());
+        region.readFully(data);
+        return data;
+    }
+
+    /**
+     * Returns whether the region contains an entry for the chunk
+     *
+     * @param id
+     *         The id of the chunk
+     * @return Whether the chunk is stored
+     */
+    boolean contains(int id) {
+        return offsets[id] != 0;
+    }
+
+    /**
+     * Returns the hash of the uncompressed data of the chunk
+     *
+     * @param id
+     *         The id of the chunk
+     * @return The hash or 0 if it isn't known
+     */
+    int getHash(int id) {
+        return hashes[id];
+    }
+
+    /**
+     * Returns the format version the chunk's data was written in
+     *
+     * @param id
+     *         The id of the chunk
+     * @return The data version or 0 if it was written before
+     * versions were stored
+     */
+    int getDataVersion(int id) {
+        return dataVersions[id] & 0xFF;
+    }
+
+    /**
+     * Returns whether any chunk in the region was written in a
+     * format older than the given version
+     *
+     * @param dataVersion
+     *         The data version to compare against
+     * @return Whether there are older entries
+     */
+    boolean hasDataOlderThan(int dataVersion) {
+        for (int i = 0; i < ENTRIES; i++) {
+            if (offsets[i] != 0 && getDataVersion(i) < dataVersion) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the flags of the chunk's entry
+     *
+     * @param id
+     *         The id of the chunk
+     * @return The flags
+     */
+    int getFlags(int id) {
+        return flags[id];
+    }
+
+    /**
+     * Returns the time (in milliseconds) at which a chunk was
+     * last saved into this region
+     *
+     * @return The time of the last write
+     */
+    long getLastWrite() {
+        return lastWrite;
+    }
+
+    /**
+     * Returns the time (in milliseconds) at which every chunk
+     * in the region was last recompressed
+     *
+     * @return The recompression watermark
+     */
+    long getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * Marks every chunk in the region as recompressed up until
+     * the given time
+     *
+     * @param watermark
+     *         The time of the recompression
+     * @throws IOException
+     *         If the watermark can't be written
+     */
+    void setWatermark(long watermark) throws IOException {
+        region.seek(META_OFFSET + 16);
+        region.writeLong(watermark);
+        this.watermark = watermark;
+    }
+
+    /**
+     * Stores the data for the chunk, reusing the old space
+     * if it fits otherwise using the first gap large enough
+     * to hold it or the free space at the end of the file
+     *
+     * @param id
+     *         The id of the chunk
+     * @param data
+     *         The data to store
+     * @param hash
+     *         The hash of the uncompressed data
+     * @param flags
+     *         The flags for the entry
+     * @param dataVersion
+     *         The format version of the data
+     * @throws IOException
+     *         If the data can't be written
+     */
+    void write(int id, byte[] data, int hash, int flags, int dataVersion) throws IOException {
+        int needed = sectorsFor(data.length);
+        int offset = offsets[id];
+        if (offset == 0 || needed > sectorsFor(sizes[id])) {
+            // Search for a new location, filling in the
+            // used spaces first
+            int fileSectors = getFileSectors();
+            boolean[] usedSpace = new boolean[fileSectors];
+            for (int i = 0; i < HEADER_SIZE / SECTOR_SIZE; i++) {
+                usedSpace[i] = true;
+            }
+            for (int i = 0; i < ENTRIES; i++) {
+                if (i == id || offsets[i] == 0) continue;
+                for (int j = offsets[i]; j < offsets[i] + sectorsFor(sizes[i]); j++) {
+                    usedSpace[j] = true;
+                }
+            }
+            // Use the first free run that is large enough, otherwise
+            // extend the free run at the end of the file (if any)
+            // instead of leaving it behind as a hole
+            int run = 0;
+            offset = -1;
+            for (int i = HEADER_SIZE / SECTOR_SIZE; i < fileSectors; i++) {
+                if (usedSpace[i]) {
+                    run = 0;
+                } else if (++run == needed) {
+                    offset = i - needed + 1;
+                    break;
+                }
+            }
+            if (offset == -1) {
+                offset = fileSectors - run;
+            }
+        }
+        region.seek(offset * (long) SECTOR_SIZE);
+        region.write(data);
+        region.seek(8 * id);
+        region.writeInt(offset);
+        region.writeInt(data.length | (flags << 24));
+        region.seek(HASH_OFFSET + 4 * id);
+        region.writeInt(hash);
+        region.seek(DATA_VERSION_OFFSET + id);
+        region.writeByte(dataVersion);
+        offsets[id] = offset;
+        sizes[id] = data.length;
+        hashes[id] = hash;
+        this.flags[id] = flags;
+        dataVersions[id] = (byte) dataVersion;
+        if ((flags & FLAG_RECOMPRESSED) == 0) {
+            lastWrite = System.currentTimeMillis();
+            region.seek(META_OFFSET + 8);
+            region.writeLong(lastWrite);
+        }
+    }
+
+    /**
+     * Removes the chunk from the region. The space it used is free
+     * for later writes and dropped when the region is compacted
+     *
+     * @param id
+     *         The id of the chunk
+     * @throws IOException
+     *         If the location table can't be written
+     */
+    void remove(int id) throws IOException {
+        region.seek(8 * id);
+        region.writeInt(0);
+        region.writeInt(0);
+        offsets[id] = 0;
+        sizes[id] = 0;
+        flags[id] = 0;
+    }
+
+    /**
+     * Returns the number of sectors used by entries in this region
+     *
+     * @return The number of used sectors
+     */
+    int getUsedSectors() {
+        int used = 0;
+        for (int i = 0; i < ENTRIES; i++) {
+            if (offsets[i] == 0) continue;
+            used += version == 0 ? (sizes[i] / LEGACY_SECTOR_SIZE) + 1 : sectorsFor(sizes[i]);
+        }
+        return used;
+    }
+
+    /**
+     * Returns the number of sectors the file spans, including
+     * the header
+     *
+     * @return The number of sectors
+     * @throws IOException
+     *         If the length of the file can't be read
+     */
+    int getFileSectors() throws IOException {
+        return (int) ((region.length() + getSectorSize() - 1) / getSectorSize());
+    }
+
+    /**
+     * Returns the number of sectors the header spans
+     *
+     * @return The number of header sectors
+     */
+    int getHeaderSectors() {
+        return (version >= 2 ? HEADER_SIZE : LEGACY_HEADER_SIZE) / getSectorSize();
+    }
+
+    /**
+     * Returns the size of the sectors used by this file
+     *
+     * @return The sector size in bytes
+     */
+    int getSectorSize() {
+        return version == 0 ? LEGACY_SECTOR_SIZE : SECTOR_SIZE;
+    }
+
+    /**
+     * Returns the version of the format this file uses
+     *
+     * @return The format version
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns whether this file needs converting to the
+     * current format
+     *
+     * @return Whether this is a legacy file
+     */
+    boolean isLegacy() {
+        return version < VERSION;
+    }
+
+    /**
+     * Returns the file backing this region
+     *
+     * @return The file
+     */
+    File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        region.close();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The compressed copies of parts of a cached chunk, keyed by the
+ * mask of sections they contain. Clients request the same few ranges
+ * of a chunk so keeping them saves decompressing and recompressing
+ * the chunk for every request. Only the most recently used masks
+ * are kept
+ */
+class SectionSlices {
+
+    private static final int MAX_SLICES = 4;
+
+    private final Map<Integer, byte[]> slices = new LinkedHashMap<Integer, byte[]>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > MAX_SLICES;
+        }
+    };
+
+    /**
+     * Returns the compressed data for the sections
+     *
+     * @param mask
+     *         The mask of sections
+     * @return The compressed data or null if it isn't cached
+     */
+    synchronized byte[] get(int mask) {
+        return slices.get(mask);
+    }
+
+    /**
+     * Stores the compressed data for the sections
+     *
+     * @param mask
+     *         The mask of sections
+     * @param data
+     *         The compressed data
+     */
+    synchronized void put(int mask, byte[] data) {
+        slices.put(mask, data);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import org.bukkit.Material;
+
+/**
+ * Removes the sections of a chunk that can't be seen from the
+ * surface (e.g. solid stone and enclosed caves). A section is kept
+ * if the open air above the chunk or a sky lit block can reach it
+ * through non-occluding blocks, as well as the sections directly
+ * above and below those so that the faces bordering them still
+ * exist.
+ * <p>
+ * Removed sections are listed in a mask after the biomes and the
+ * client treats them as solid
+ */
+class SurfaceFilter {
+
+    private static final int SECTION_SIZE = ChunkData.SECTION_SIZE;
+    private static final boolean[] occluding = new boolean[4096];
+
+    static {
+        for (int id = 0; id < occluding.length; id++) {
+            Material material = Material.getMaterial(id);
+            occluding[id] = material != null && material.isOccluding();
+        }
+    }
+
+    private SurfaceFilter() {
+    }
+
+    /**
+     * Removes the sections that can't be seen from the surface
+     * from the uncompressed chunk data
+     *
+     * @param raw
+     *         The uncompressed chunk data
+     * @return The filtered chunk data or the passed data if every
+     * section is visible
+     */
+    static byte[] filter(byte[] raw) {
+        if (raw.length < 3 || raw[0] == 0) {
+            return raw;
+        }
+        int mask = ChunkData.getMask(raw);
+        int count = Integer.bitCount(mask);
+        if (count == 0) {
+            return raw;
+        }
+        // The position of each section in the data and in the
+        // sky light
+        int[] index = new int[16];
+        int[] skyIndex = new int[16];
+        int skyMask = ChunkData.getSkyMask(raw);
+        int highest = 0;
+        for (int i = 0, j = 0, k = 0; i < 16; i++) {
+            if ((mask & (1 << i)) != 0) {
+                index[i] = j++;
+                highest = i;
+            } else {
+                index[i] = -1;
+            }
+            skyIndex[i] = (skyMask & (1 << i)) != 0 ? k++ : -1;
+        }
+        int start = ChunkData.getDataOffset(raw);
+        int skyOffset = ChunkData.getSkyOffset(raw);
+        int heightmapOffset = ChunkData.getBiomeOffset(raw) + 256;
+
+        boolean[] visited = new boolean[16 * 16 * 256];
+        int[] queue = new int[visited.length];
+        int head = 0;
+        int tail = 0;
+
+        // The air above the highest section is open to the sky
+        if (highest < 15) {
+            int y = (highest + 1) << 4;
+            for (int i = 0; i < 256; i++) {
+                int cell = (y << 8) | i;
+                visited[cell] = true;
+                queue[tail++] = cell;
+            }
+        }
+        // As are any blocks with sky light, this includes the
+        // entrances of caves lit from neighbouring chunks
+        for (int i = 0; i < 16; i++) {
+            if (index[i] == -1) {
+                continue;
+            }
+            for (int j = 0; j < SECTION_SIZE; j++) {
+                int cell = (i << 12) | j;
+                boolean lit = skyIndex[i] != -1
+                        ? raw[skyOffset + skyIndex[i] * SECTION_SIZE + j] != 0
+                        : (cell >> 8) >= (raw[heightmapOffset + (j & 0xFF)] & 0xFF);
+                if (lit && !isOccluding(raw, start, index, cell)) {
+                    visited[cell] = true;
+                    queue[tail++] = cell;
+                }
+            }
+        }
+
+        int reachable = 0;
+        while (head < tail) {
+            int cell = queue[head++];
+            int x = cell & 0xF;
+            int z = (cell >> 4) & 0xF;
+            int y = cell >> 8;
+            reachable |= 1 << (y >> 4);
+            if (x > 0) tail = visit(raw, start, index, visited, queue, tail, cell - 1);
+            if (x < 15) tail = visit(raw, start, index, visited, queue, tail, cell + 1);
+            if (z > 0) tail = visit(raw, start, index, visited, queue, tail, cell - 16);
+            if (z < 15) tail = visit(raw, start, index, visited, queue, tail, cell + 16);
+            if (y > 0) tail = visit(raw, start, index, visited, queue, tail, cell - 256);
+            if (y < 255) tail = visit(raw, start, index, visited, queue, tail, cell + 256);
+        }
+
+        int keep = (reachable | (reachable << 1) | (reachable >> 1)) & 0xFFFF;
+        int hidden = mask & ~keep;
+        if (hidden == 0) {
+            return raw;
+        }
+
+        return ChunkData.rebuild(raw, mask & ~hidden, hidden, 0);
+    }
+
+    private static int visit(byte[] raw, int start, int[] index, boolean[] visited, int[] queue, int tail, int cell) {
+        if (visited[cell] || isOccluding(raw, start, index, cell)) {
+            return tail;
+        }
+        visited[cell] = true;
+        queue[tail++] = cell;
+        return tail;
+    }
+
+    // Cells are indexed in the same order as the chunk data:
+    // x, then z, then y
+    private static boolean isOccluding(byte[] raw, int start, int[] index, int cell) {
+        int section = index[cell >> 12];
+        if (section == -1) {
+            // Empty sections are all air
+            return false;
+        }
+        int offset = start + ((section * SECTION_SIZE + (cell & 0xFFF)) << 1);
+        int id = (((raw[offset] & 0xFF) << 8) | (raw[offset + 1] & 0xFF)) >> 4;
+        return occluding[id];
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.zip.Deflater;
+
+/**
+ * Renders the top down map tiles of a world. Tiles form a quadtree:
+ * a tile at zoom 0 shows 8x8 chunks with a pixel per block and
+ * each zoom level above halves the detail of the four tiles below
+ * it. Every pixel is 4 bytes, the colour (rgb) followed by the
+ * height of the top face (0 where there aren't any blocks).
+ * <p>
+ * Zoom 0 tiles are rendered from the chunk summaries stored next to
+ * the region files whenever a chunk is saved. Rendered tiles are
+ * cached (gzip'd) in the world's tiles folder along with the time
+ * their sources were last modified so that they are only redrawn
+ * once something below them changes. Empty tiles are only
+ * remembered in memory as any coordinate can be requested
+ */
+public class TileStore {
+
+    /**
+     * The width and height of a tile in pixels
+     */
+    public static final int TILE_SIZE = 128;
+    /**
+     * The most zoomed out level
+     */
+    public static final int MAX_ZOOM = 6;
+
+    private static final int CHUNKS_PER_TILE = TILE_SIZE / 16;
+    private static final int CACHE_SIZE = 64;
+    private static final int EMPTY_CACHE_SIZE = 4096;
+    // How long a tile is trusted before its sources are checked
+    // for changes again
+    private static final long CHECK_INTERVAL = 10000;
+
+    private final File worldFolder;
+    private final ReadWriteLock worldLock;
+    private final BlockColours colours;
+    private final Map<String, Tile> cache = new LinkedHashMap<String, Tile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Tile> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    // Tiles without any pixels, these aren't stored
+    private final Map<String, Tile> empty = new LinkedHashMap<String, Tile>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Tile> eldest) {
+            return size() > EMPTY_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Creates a tile store for the world's folder
+     *
+     * @param worldFolder
+     *         The folder containing the world's region files
+     * @param worldLock
+     *         The lock guarding the region files
+     * @param colours
+     *         The colours of the blocks
+     */
+    public TileStore(File worldFolder, ReadWriteLock worldLock, BlockColours colours) {
+        this.worldFolder = worldFolder;
+        this.worldLock = worldLock;
+        this.colours = colours;
+    }
+
+    /**
+     * Writes the gzip'd tile into out
+     *
+     * @param zoom
+     *         The zoom level of the tile
+     * @param x
+     *         The x coordinate of the tile
+     * @param y
+     *         The y (z in the world) coordinate of the tile
+     * @param out
+     *         The buffer to write the tile to
+     * @return Whether the tile has anything in it
+     * @throws IOException
+     *         If the tile couldn't be rendered
+     */
+    public synchronized boolean getTile(int zoom, int x, int y, ByteBuf out) throws IOException {
+        if (zoom < 0 || zoom > MAX_ZOOM) {
+            return false;
+        }
+        Tile tile = get(zoom, x, y);
+        if (tile.compressed == null) {
+            return false;
+        }
+        out.writeBytes(tile.compressed);
+        return true;
+    }
+
+    // Returns the tile, redrawing it if its sources have changed
+    private Tile get(int zoom, int x, int y) throws IOException {
+        String key = zoom + "/" + x + "_" + y;
+        Tile tile = cache.get(key);
+        if (tile == null) {
+            tile = empty.get(key);
+        }
+        long now = System.currentTimeMillis();
+        if (tile != null && now - tile.checked < CHECK_INTERVAL) {
+            return tile;
+        }
+
+        File file = new File(worldFolder, "tiles/" + key + ".bin");
+        Tile[] children = null;
+        long modified;
+        if (!hasSources(zoom, x, y)) {
+            // Nothing to draw, no need to look at the tiles below
+            modified = 0;
+            if (tile == null || tile.modified != modified) {
+                tile = markEmpty(key, file, modified);
+            }
+        } else if (zoom == 0) {
+            modified = getSummaryFile(x * CHUNKS_PER_TILE >> 5, y * CHUNKS_PER_TILE >> 5).lastModified();
+        } else {
+            children = new Tile[4];
+            modified = 0;
+            for (int i = 0; i < 4; i++) {
+                children[i] = get(zoom - 1, (x << 1) + (i & 1), (y << 1) + (i >> 1));
+                modified = Math.max(modified, children[i].modified);
+            }
+        }
+
+        if (tile == null) {
+            tile = readTile(file);
+        }
+        if (tile == null || tile.modified != modified) {
+            byte[] pixels = zoom == 0 ? render(x, y) : downsample(children);
+            if (pixels == null) {
+                tile = markEmpty(key, file, modified);
+            } else {
+                tile = new Tile(modified, ChunkManager.gzip(pixels, Deflater.BEST_COMPRESSION));
+                tile.pixels = pixels;
+                writeTile(file, tile);
+                empty.remove(key);
+            }
+        }
+        tile.checked = now;
+        if (tile.compressed != null) {
+            cache.put(key, tile);
+        } else {
+            empty.put(key, tile);
+        }
+        return tile;
+    }
+
+    // Replaces the tile with an empty one which is only kept in
+    // memory, removing the stored copy from when it had something
+    // in it
+    private Tile markEmpty(String key, File file, long modified) {
+        cache.remove(key);
+        FileUtils.deleteQuietly(file);
+        return new Tile(modified, null);
+    }
+
+    // Returns whether any of the regions the tile covers have chunk
+    // summaries, tiles without any are empty
+    private boolean hasSources(int zoom, int x, int y) {
+        long cx = ((long) x << zoom) * CHUNKS_PER_TILE;
+        long cz = ((long) y << zoom) * CHUNKS_PER_TILE;
+        long size = (long) CHUNKS_PER_TILE << zoom;
+        for (long rz = cz >> 5; rz <= (cz + size - 1) >> 5; rz++) {
+            for (long rx = cx >> 5; rx <= (cx + size - 1) >> 5; rx++) {
+                if (getSummaryFile((int) rx, (int) rz).exists()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Draws a zoom 0 tile from the stored chunk summaries
+    private byte[] render(int x, int y) throws IOException {
+        int cx = x * CHUNKS_PER_TILE;
+        int cz = y * CHUNKS_PER_TILE;
+        byte[][] summaries = new byte[CHUNKS_PER_TILE * CHUNKS_PER_TILE][];
+        boolean empty = true;
+        Lock lock = worldLock.readLock();
+        lock.lock();
+        try (RegionFile region = RegionFile.open(getSummaryFile(cx >> 5, cz >> 5))) {
+            if (region == null) {
+                return null;
+            }
+            for (int i = 0; i < summaries.length; i++) {
+                byte[] data = region.read(RegionFile.chunkId(cx + (i % CHUNKS_PER_TILE), cz + (i / CHUNKS_PER_TILE)));
+                if (data != null) {
+                    summaries[i] = ChunkManager.gunzip(data);
+                    empty = false;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (empty) {
+            return null;
+        }
+
+        byte[] pixels = new byte[TILE_SIZE * TILE_SIZE * 4];
+        for (int i = 0; i < summaries.length; i++) {
+            byte[] summary = summaries[i];
+            if (summary == null) {
+                continue;
+            }
+            int ox = (i % CHUNKS_PER_TILE) << 4;
+            int oz = (i / CHUNKS_PER_TILE) << 4;
+            for (int j = 0; j < 256; j++) {
+                int in = j << 2;
+                int height = summary[in + 2] & 0xFF;
+                if (height == 0) {
+                    continue;
+                }
+                int block = ((summary[in] & 0xFF) << 8) | (summary[in + 1] & 0xFF);
+                int colour = colours.getColour(block, summary[in + 3] & 0xFF);
+                int out = (((oz + (j >> 4)) * TILE_SIZE) + ox + (j & 0xF)) << 2;
+                pixels[out] = (byte) (colour >> 16);
+                pixels[out + 1] = (byte) (colour >> 8);
+                pixels[out + 2] = (byte) colour;
+                pixels[out + 3] = (byte) height;
+            }
+        }
+        return pixels;
+    }
+
+    // Combines the four tiles below into one, each pixel is the
+    // average of the non-empty pixels it covers
+    private byte[] downsample(Tile[] children) throws IOException {
+        byte[] pixels = null;
+        int half = TILE_SIZE / 2;
+        for (int i = 0; i < 4; i++) {
+            byte[] child = children[i].getPixels();
+            if (child == null) {
+                continue;
+            }
+            if (pixels == null) {
+                pixels = new byte[TILE_SIZE * TILE_SIZE * 4];
+            }
+            int ox = (i & 1) * half;
+            int oy = (i >> 1) * half;
+            for (int py = 0; py < half; py++) {
+                for (int px = 0; px < half; px++) {
+                    int r = 0, g = 0, b = 0, h = 0, count = 0;
+                    for (int s = 0; s < 4; s++) {
+                        int in = ((((py << 1) + (s >> 1)) * TILE_SIZE) + (px << 1) + (s & 1)) << 2;
+                        int height = child[in + 3] & 0xFF;
+                        if (height == 0) {
+                            continue;
+                        }
+                        r += child[in] & 0xFF;
+                        g += child[in + 1] & 0xFF;
+                        b += child[in + 2] & 0xFF;
+                        h += height;
+                        count++;
+                    }
+                    if (count == 0) {
+                        continue;
+                    }
+                    int out = (((oy + py) * TILE_SIZE) + ox + px) << 2;
+                    pixels[out] = (byte) (r / count);
+                    pixels[out + 1] = (byte) (g / count);
+                    pixels[out + 2] = (byte) (b / count);
+                    pixels[out + 3] = (byte) (h / count);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    // Tiles are stored as the time their sources were modified
+    // followed by the gzip'd pixels
+    private static Tile readTile(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] data = FileUtils.readFileToByteArray(file);
+        if (data.length <= 8) {
+            // Empty tiles used to be stored too
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long modified = buffer.getLong();
+        byte[] compressed = new byte[buffer.remaining()];
+        buffer.get(compressed);
+        return new Tile(modified, compressed);
+    }
+
+    private static void writeTile(File file, Tile tile) throws IOException {
+        if (!file.getParentFile().exists() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Failed to create " + file.getParentFile());
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(0);
+            out.writeLong(tile.modified);
+            out.write(tile.compressed);
+        }
+    }
+
+    // Returns the file holding the chunk summaries of the region
+    private File getSummaryFile(int rx, int rz) {
+        return getSummaryFile(worldFolder, rx, rz);
+    }
+
+    /**
+     * Returns the file holding the chunk summaries of the region
+     *
+     * @param worldFolder
+     *         The folder containing the world's region files
+     * @param rx
+     *         The x coordinate of the region
+     * @param rz
+     *         The z coordinate of the region
+     * @return The summary file
+     */
+    static File getSummaryFile(File worldFolder, int rx, int rz) {
+        return new File(worldFolder, String.format("tiles_%d-%d.dat", rx, rz));
+    }
+
+    private static class Tile {
+        private final long modified;
+        private final byte[] compressed;
+        private byte[] pixels;
+        private long checked;
+
+        private Tile(long modified, byte[] compressed) {
+            this.modified = modified;
+            this.compressed = compressed;
+        }
+
+        private byte[] getPixels() throws IOException {
+            if (pixels == null && compressed != null) {
+                pixels = ChunkManager.gunzip(compressed);
+            }
+            return pixels;
+        }
+    }
+}
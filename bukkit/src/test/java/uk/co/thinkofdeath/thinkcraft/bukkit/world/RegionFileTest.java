@@ -0,0 +1,193 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.bukkit.world;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RegionFileTest {
+
+    private File folder;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("region").toFile();
+        file = new File(folder, "region_0-0.dat");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Test
+    public void missingFilesAreNotOpened() throws IOException {
+        assertNull(RegionFile.open(file));
+    }
+
+    @Test
+    public void readsWrittenEntries() throws IOException {
+        byte[] first = data(1, 100);
+        byte[] last = data(2, 5000);
+        try (RegionFile region = RegionFile.openForWriting(file)) {
+            region.write(0, first, 11, 0, 4);
+            region.write(RegionFile.ENTRIES - 1, last, 22, RegionFile.FLAG_RECOMPRESSED, 3);
+        }
+        try (RegionFile region = RegionFile.open(file)) {
+            assertEquals(RegionFile.VERSION, region.getVersion());
+            assertFalse(region.isLegacy());
+            assertArrayEquals(first, region.read(0));
+            assertEquals(11, region.getHash(0));
+            assertEquals(0, region.getFlags(0));
+            assertEquals(4, region.getDataVersion(0));
+            assertArrayEquals(last, region.read(RegionFile.ENTRIES - 1));
+            assertEquals(22, region.getHash(RegionFile.ENTRIES - 1));
+            assertEquals(RegionFile.FLAG_RECOMPRESSED, region.getFlags(RegionFile.ENTRIES - 1));
+            assertEquals(3, region.getDataVersion(RegionFile.ENTRIES - 1));
+            assertFalse(region.contains(1));
+            assertNull(region.read(1));
+            assertTrue(region.hasDataOlderThan(4));
+            assertFalse(region.hasDataOlderThan(3));
+        }
+    }
+
+    @Test
+    public void overwritesEntries() throws IOException {
+        byte[] first = data(1, 300);
+        byte[] second = data(2, 300);
+        try (RegionFile region = RegionFile.openForWriting(file)) {
+            region.write(0, first, 1, 0, 4);
+            region.write(1, second, 2, 0, 4);
+            // Smaller, stays in place
+            byte[] smaller = data(3, 100);
+            region.write(0, smaller, 3, 0, 4);
+            assertArrayEquals(smaller, region.read(0));
+            // Larger, has to move after the second entry
+            byte[] larger = data(4, 2000);
+            region.write(0, larger, 4, 0, 4);
+            assertArrayEquals(larger, region.read(0));
+            assertArrayEquals(second, region.read(1));
+            assertEquals(4, region.getHash(0));
+            assertEquals(2, region.getHash(1));
+        }
+    }
+
+    @Test
+    public void growsIntoTrailingSpace() throws IOException {
+        byte[] first = data(1, 2 * RegionFile.SECTOR_SIZE);
+        byte[] second = data(2, 2 * RegionFile.SECTOR_SIZE);
+        try (RegionFile region = RegionFile.openForWriting(file)) {
+            region.write(0, first, 1, 0, 4);
+            region.write(1, second, 2, 0, 4);
+            // Moves after the second entry
+            first = data(3, 3 * RegionFile.SECTOR_SIZE);
+            region.write(0, first, 3, 0, 4);
+            long length = file.length();
+            // Now the last entry so grows in place instead of moving
+            // to the end of the file
+            first = data(4, 4 * RegionFile.SECTOR_SIZE);
+            region.write(0, first, 4, 0, 4);
+            assertEquals(length + RegionFile.SECTOR_SIZE, file.length());
+            assertArrayEquals(first, region.read(0));
+            assertArrayEquals(second, region.read(1));
+            // The space left at the start is reused
+            byte[] third = data(5, 2 * RegionFile.SECTOR_SIZE);
+            region.write(2, third, 5, 0, 4);
+            assertEquals(length + RegionFile.SECTOR_SIZE, file.length());
+            assertArrayEquals(third, region.read(2));
+        }
+    }
+
+    @Test
+    public void removesEntries() throws IOException {
+        byte[] first = data(1, 300);
+        byte[] second = data(2, 300);
+        try (RegionFile region = RegionFile.openForWriting(file)) {
+            region.write(0, first, 1, 0, 4);
+            region.write(1, second, 2, 0, 4);
+            region.remove(0);
+        }
+        long length = file.length();
+        try (RegionFile region = RegionFile.openForWriting(file)) {
+            assertFalse(region.contains(0));
+            assertNull(region.read(0));
+            assertArrayEquals(second, region.read(1));
+            // The space is reused
+            region.write(2, first, 3, 0, 4);
+            assertEquals(length, file.length());
+            assertArrayEquals(first, region.read(2));
+        }
+    }
+
+    @Test
+    public void rewritePacksEntries() throws IOException {
+        byte[][] entries = new byte[8][];
+        try (RegionFile region = RegionFile.openForWriting(file)) {
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = data(i, 200 + i * 300);
+                region.write(i * 3, entries[i], i + 1, i & RegionFile.FLAG_RECOMPRESSED, i);
+            }
+            // Leaves holes behind
+            for (int i = 0; i < entries.length; i += 2) {
+                entries[i] = data(i + 100, 4000);
+                region.write(i * 3, entries[i], i + 1, i & RegionFile.FLAG_RECOMPRESSED, i);
+            }
+            region.setWatermark(1234);
+        }
+        long lastWrite;
+        try (RegionFile region = RegionFile.open(file)) {
+            assertTrue(region.getFileSectors() > region.getHeaderSectors() + region.getUsedSectors());
+            lastWrite = region.getLastWrite();
+        }
+
+        RegionFile.rewrite(file);
+
+        try (RegionFile region = RegionFile.open(file)) {
+            assertEquals(region.getHeaderSectors() + region.getUsedSectors(), region.getFileSectors());
+            for (int i = 0; i < entries.length; i++) {
+                assertArrayEquals(entries[i], region.read(i * 3));
+                assertEquals(i + 1, region.getHash(i * 3));
+                assertEquals(i & RegionFile.FLAG_RECOMPRESSED, region.getFlags(i * 3));
+                assertEquals(i, region.getDataVersion(i * 3));
+                assertFalse(region.contains(i * 3 + 1));
+            }
+            assertEquals(lastWrite, region.getLastWrite());
+            assertEquals(1234, region.getWatermark());
+        }
+        assertFalse(new File(folder, file.getName() + ".tmp").exists());
+    }
+
+    private static byte[] data(long seed, int size) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
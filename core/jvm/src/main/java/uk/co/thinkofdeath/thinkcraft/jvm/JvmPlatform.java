@@ -0,0 +1,80 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.jvm;
+
+import uk.co.thinkofdeath.thinkcraft.jvm.buffer.JvmBufferAllocator;
+import uk.co.thinkofdeath.thinkcraft.jvm.serialize.JvmSerializerFactory;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.Platform;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.BufferAllocator;
+import uk.co.thinkofdeath.thinkcraft.shared.serializing.SerializerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the shared code on the jvm instead of in the browser
+ */
+public class JvmPlatform extends Platform {
+
+    private static boolean initialized;
+
+    private final JvmBufferAllocator allocator = new JvmBufferAllocator();
+    private final JvmSerializerFactory serializers = new JvmSerializerFactory();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ThinkMap Platform");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private JvmPlatform() {
+    }
+
+    /**
+     * Sets the jvm as the platform if it hasn't been already
+     */
+    public static synchronized void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        Platform.setPlatform(new JvmPlatform());
+    }
+
+    @Override
+    protected BufferAllocator allocator() {
+        return allocator;
+    }
+
+    @Override
+    protected void repeatTask(Runnable runnable, int timeMS) {
+        scheduler.scheduleAtFixedRate(runnable, timeMS, timeMS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected SerializerFactory serializersWorker() {
+        // Nothing crosses a worker boundary on the jvm so the
+        // serializers just hold the values in memory
+        return serializers;
+    }
+}
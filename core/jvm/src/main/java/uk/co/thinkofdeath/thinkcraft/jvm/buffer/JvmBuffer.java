@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.jvm.buffer;
+
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.Buffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A typed array backed by a {@link java.nio.ByteBuffer}. Like the
+ * javascript typed arrays, views created from a buffer share its
+ * storage and their offsets are relative to the start of the storage
+ * instead of the buffer they were created from
+ */
+public abstract class JvmBuffer implements Buffer {
+
+    protected final ByteBuffer data;
+    protected final int byteOffset;
+    protected final int length;
+    private final int elementSize;
+
+    protected JvmBuffer(ByteBuffer data, int byteOffset, int length, int elementSize) {
+        this.data = data;
+        this.byteOffset = byteOffset;
+        this.length = length;
+        this.elementSize = elementSize;
+    }
+
+    /**
+     * Allocates storage for a buffer. Always little endian to match
+     * the typed arrays of the browsers the client runs on as models
+     * built on the jvm are uploaded by the client as is
+     *
+     * @param size
+     *         The size of the storage in bytes
+     * @return The storage
+     */
+    static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void set(int offset, Buffer buffer) {
+        JvmBuffer other = (JvmBuffer) buffer;
+        if (other.getClass() == getClass()) {
+            ByteBuffer src = other.data.duplicate();
+            src.position(other.byteOffset);
+            src.limit(other.byteOffset + other.byteSize());
+            ByteBuffer dst = data.duplicate();
+            dst.position(byteOffset + offset * elementSize);
+            dst.put(src);
+            return;
+        }
+        // Converted value by value like typed arrays do
+        for (int i = 0; i < other.length; i++) {
+            setElement(offset + i, other.getElement(i));
+        }
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    @Override
+    public int byteSize() {
+        return length * elementSize;
+    }
+
+    /**
+     * Returns a copy of the bytes of this buffer
+     *
+     * @return The copied bytes
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[byteSize()];
+        ByteBuffer src = data.duplicate();
+        src.position(byteOffset);
+        src.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the storage of this buffer which is shared with any
+     * views of it
+     *
+     * @return The storage
+     */
+    public ByteBuffer getData() {
+        return data;
+    }
+
+    /**
+     * Returns the offset in bytes of this buffer into its storage
+     *
+     * @return The offset
+     */
+    public int getByteOffset() {
+        return byteOffset;
+    }
+
+    abstract double getElement(int index);
+
+    abstract void setElement(int index, double value);
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.jvm.buffer;
+
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.*;
+
+public class JvmBufferAllocator implements BufferAllocator {
+    @Override
+    public FloatBuffer floatBuffer(int size) {
+        return new JvmFloatBuffer(JvmBuffer.allocate(size * 4), 0, size);
+    }
+
+    @Override
+    public FloatBuffer floatBuffer(FloatBuffer other) {
+        FloatBuffer buffer = floatBuffer(other.size());
+        buffer.set(0, other);
+        return buffer;
+    }
+
+    @Override
+    public FloatBuffer floatBuffer(Buffer view, int offset, int length) {
+        return new JvmFloatBuffer(((JvmBuffer) view).getData(), offset, length);
+    }
+
+    @Override
+    public UByteBuffer ubyteBuffer(int size) {
+        return new JvmUByteBuffer(JvmBuffer.allocate(size), 0, size);
+    }
+
+    @Override
+    public UByteBuffer ubyteBuffer(UByteBuffer other) {
+        UByteBuffer buffer = ubyteBuffer(other.size());
+        buffer.set(0, other);
+        return buffer;
+    }
+
+    @Override
+    public UByteBuffer ubyteBuffer(Buffer view, int offset, int length) {
+        return new JvmUByteBuffer(((JvmBuffer) view).getData(), offset, length);
+    }
+
+    @Override
+    public UShortBuffer ushortBuffer(int size) {
+        return new JvmUShortBuffer(JvmBuffer.allocate(size * 2), 0, size);
+    }
+
+    @Override
+    public UShortBuffer ushortBuffer(UShortBuffer other) {
+        UShortBuffer buffer = ushortBuffer(other.size());
+        buffer.set(0, other);
+        return buffer;
+    }
+
+    @Override
+    public UShortBuffer ushortBuffer(Buffer view, int offset, int length) {
+        return new JvmUShortBuffer(((JvmBuffer) view).getData(), offset, length);
+    }
+
+    @Override
+    public ViewBuffer viewBuffer(Buffer view, boolean littleEndian, int offset, int length) {
+        return new JvmViewBuffer(((JvmBuffer) view).getData(), littleEndian, offset);
+    }
+}
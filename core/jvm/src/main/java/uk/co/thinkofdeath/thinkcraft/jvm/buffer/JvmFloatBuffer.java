@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.jvm.buffer;
+
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.FloatBuffer;
+
+import java.nio.ByteBuffer;
+
+public class JvmFloatBuffer extends JvmBuffer implements FloatBuffer {
+
+    JvmFloatBuffer(ByteBuffer data, int byteOffset, int length) {
+        super(data, byteOffset, length, 4);
+    }
+
+    @Override
+    public void set(int index, float value) {
+        data.putFloat(byteOffset + (index << 2), value);
+    }
+
+    @Override
+    public float get(int index) {
+        return data.getFloat(byteOffset + (index << 2));
+    }
+
+    @Override
+    double getElement(int index) {
+        return get(index);
+    }
+
+    @Override
+    void setElement(int index, double value) {
+        set(index, (float) value);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.jvm.buffer;
+
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UByteBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class JvmUByteBuffer extends JvmBuffer implements UByteBuffer {
+
+    JvmUByteBuffer(ByteBuffer data, int byteOffset, int length) {
+        super(data, byteOffset, length, 1);
+    }
+
+    /**
+     * Wraps the array without copying it
+     *
+     * @param bytes
+     *         The array to wrap
+     * @return The buffer
+     */
+    public static JvmUByteBuffer wrap(byte[] bytes) {
+        return new JvmUByteBuffer(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 0, bytes.length);
+    }
+
+    @Override
+    public void set(int index, int value) {
+        data.put(byteOffset + index, (byte) value);
+    }
+
+    @Override
+    public int get(int index) {
+        return data.get(byteOffset + index) & 0xFF;
+    }
+
+    @Override
+    double getElement(int index) {
+        return get(index);
+    }
+
+    @Override
+    void setElement(int index, double value) {
+        set(index, (int) (long) value);
+    }
+}
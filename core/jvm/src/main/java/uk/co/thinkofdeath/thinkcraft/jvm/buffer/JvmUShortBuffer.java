@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.jvm.buffer;
+
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UShortBuffer;
+
+import java.nio.ByteBuffer;
+
+public class JvmUShortBuffer extends JvmBuffer implements UShortBuffer {
+
+    JvmUShortBuffer(ByteBuffer data, int byteOffset, int length) {
+        super(data, byteOffset, length, 2);
+    }
+
+    @Override
+    public void set(int index, int value) {
+        data.putShort(byteOffset + (index << 1), (short) value);
+    }
+
+    @Override
+    public int get(int index) {
+        return data.getShort(byteOffset + (index << 1)) & 0xFFFF;
+    }
+
+    @Override
+    double getElement(int index) {
+        return get(index);
+    }
+
+    @Override
+    void setElement(int index, double value) {
+        set(index, (int) (long) value);
+    }
+}
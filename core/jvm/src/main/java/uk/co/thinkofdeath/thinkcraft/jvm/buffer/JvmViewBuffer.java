@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.jvm.buffer;
+
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.ViewBuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads and writes values of any type to a buffer's storage with
+ * the byte order it was created with
+ */
+public class JvmViewBuffer implements ViewBuffer {
+
+    private final ByteBuffer data;
+    private final int offset;
+
+    JvmViewBuffer(ByteBuffer data, boolean littleEndian, int offset) {
+        this.data = data.duplicate().order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        this.offset = offset;
+    }
+
+    @Override
+    public void setUInt8(int index, int value) {
+        data.put(offset + index, (byte) value);
+    }
+
+    @Override
+    public void setInt8(int index, int value) {
+        data.put(offset + index, (byte) value);
+    }
+
+    @Override
+    public void setUInt16(int index, int value) {
+        data.putShort(offset + index, (short) value);
+    }
+
+    @Override
+    public void setInt16(int index, int value) {
+        data.putShort(offset + index, (short) value);
+    }
+
+    @Override
+    public void setUInt32(int index, int value) {
+        data.putInt(offset + index, value);
+    }
+
+    @Override
+    public void setInt32(int index, int value) {
+        data.putInt(offset + index, value);
+    }
+
+    @Override
+    public void setFloat32(int index, float value) {
+        data.putFloat(offset + index, value);
+    }
+
+    @Override
+    public void setFloat64(int index, double value) {
+        data.putDouble(offset + index, value);
+    }
+
+    @Override
+    public int getUInt8(int index) {
+        return data.get(offset + index) & 0xFF;
+    }
+
+    @Override
+    public int getInt8(int index) {
+        return data.get(offset + index);
+    }
+
+    @Override
+    public int getUInt16(int index) {
+        return data.getShort(offset + index) & 0xFFFF;
+    }
+
+    @Override
+    public int getInt16(int index) {
+        return data.getShort(offset + index);
+    }
+
+    @Override
+    public int getUInt32(int index) {
+        return data.getInt(offset + index);
+    }
+
+    @Override
+    public int getInt32(int index) {
+        return data.getInt(offset + index);
+    }
+
+    @Override
+    public float getFloat32(int index) {
+        return data.getFloat(offset + index);
+    }
+
+    @Override
+    public double getFloat64(int index) {
+        return data.getDouble(offset + index);
+    }
+}
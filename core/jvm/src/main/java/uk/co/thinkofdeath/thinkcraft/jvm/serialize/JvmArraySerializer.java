@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.jvm.serialize;
+
+import uk.co.thinkofdeath.thinkcraft.shared.serializing.ArraySerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An in memory array backed by a list
+ *
+ * @param <V>
+ *         The type of the values stored
+ */
+public class JvmArraySerializer<V> implements ArraySerializer<V> {
+
+    protected final List<V> values = new ArrayList<>();
+
+    @Override
+    public void add(V v) {
+        values.add(v);
+    }
+
+    @Override
+    public V get(int i) {
+        return values.get(i);
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.jvm.serialize;
+
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.Buffer;
+import uk.co.thinkofdeath.thinkcraft.shared.serializing.ArraySerializer;
+import uk.co.thinkofdeath.thinkcraft.shared.serializing.Serializer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An in memory serializer backed by a map. Values are stored as is
+ * so, like the javascript version, nothing is copied
+ */
+public class JvmObjectSerializer implements Serializer {
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+
+    @Override
+    public void putString(String name, String value) {
+        values.put(name, value);
+    }
+
+    @Override
+    public void putInt(String name, int value) {
+        values.put(name, value);
+    }
+
+    @Override
+    public void putBoolean(String name, boolean value) {
+        values.put(name, value);
+    }
+
+    @Override
+    public void putSub(String name, Serializer value) {
+        values.put(name, value);
+    }
+
+    @Override
+    public void putArray(String name, ArraySerializer<?> value) {
+        values.put(name, value);
+    }
+
+    @Override
+    public void putBuffer(String name, Buffer buffer) {
+        values.put(name, buffer);
+    }
+
+    @Override
+    public String getString(String name) {
+        return (String) values.get(name);
+    }
+
+    @Override
+    public int getInt(String name) {
+        Object value = values.get(name);
+        return value == null ? 0 : (Integer) value;
+    }
+
+    @Override
+    public boolean getBoolean(String name) {
+        Object value = values.get(name);
+        return value != null && (Boolean) value;
+    }
+
+    @Override
+    public Serializer getSub(String name) {
+        return (Serializer) values.get(name);
+    }
+
+    @Override
+    public ArraySerializer<?> getArray(String name) {
+        return (ArraySerializer<?>) values.get(name);
+    }
+
+    @Override
+    public Buffer getBuffer(String name) {
+        return (Buffer) values.get(name);
+    }
+
+    @Override
+    public String[] keys() {
+        return values.keySet().toArray(new String[values.size()]);
+    }
+
+    @Override
+    @Deprecated
+    public Object getTemp(String name) {
+        return values.get(name);
+    }
+
+    @Override
+    @Deprecated
+    public void putTemp(String name, Object value) {
+        values.put(name, value);
+    }
+}
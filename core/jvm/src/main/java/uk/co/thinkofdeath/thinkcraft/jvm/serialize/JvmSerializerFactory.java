@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.jvm.serialize;
+
+import uk.co.thinkofdeath.thinkcraft.shared.serializing.*;
+
+public class JvmSerializerFactory implements SerializerFactory {
+
+    @Override
+    public Serializer create() {
+        return new JvmObjectSerializer();
+    }
+
+    @Override
+    public SerializerArraySerializer createSerializerArray() {
+        return new JvmSerializerArray();
+    }
+
+    @Override
+    public IntArraySerializer createIntArray() {
+        return new JvmIntArray();
+    }
+
+    @Override
+    public BooleanArraySerializer createBooleanArray() {
+        return new JvmBooleanArray();
+    }
+
+    @Override
+    public StringArraySerializer createStringArray() {
+        return new JvmStringArray();
+    }
+
+    @Override
+    public ArraySerializerArraySerializer createArrayArray() {
+        return new JvmArraySerializerArray();
+    }
+
+    @Override
+    public BufferArraySerializer createBufferArray() {
+        return new JvmBufferArray();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.shared.block.blocks;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uk.co.thinkofdeath.thinkcraft.jvm.JvmPlatform;
+import uk.co.thinkofdeath.thinkcraft.shared.IMapViewer;
+import uk.co.thinkofdeath.thinkcraft.shared.Texture;
+import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
+import uk.co.thinkofdeath.thinkcraft.shared.block.BlockRegistry;
+import uk.co.thinkofdeath.thinkcraft.shared.world.World;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class PaneConnectionTest {
+
+    private static final String[] PANES = {
+            "minecraft:glass_pane", "minecraft:stained_glass_pane", "minecraft:iron_bars"
+    };
+
+    private static BlockRegistry registry;
+    private static IMapViewer mapViewer;
+
+    @BeforeClass
+    public static void init() {
+        JvmPlatform.init();
+        mapViewer = new IMapViewer() {
+            @Override
+            public BlockRegistry getBlockRegistry() {
+                return registry;
+            }
+
+            @Override
+            public Texture getTexture(String name) {
+                return null;
+            }
+
+            @Override
+            public World getWorld() {
+                return null;
+            }
+        };
+        registry = new BlockRegistry(mapViewer);
+        registry.init();
+    }
+
+    @Test
+    public void isolatedPanesConnectOnEverySide() {
+        World world = new TestWorld(null);
+        for (String name : PANES) {
+            Block all = find(name, true, true, true, true);
+            // Updated before any of the other states so that it is the
+            // one that creates the table
+            assertSame(all, find(name, false, false, false, false).update(world, 0, 64, 0));
+            assertSame(all, all.update(world, 0, 64, 0));
+            assertSame(all, find(name, true, false, false, false).update(world, 0, 64, 0));
+        }
+    }
+
+    @Test
+    public void panesConnectToSolidBlocks() {
+        World world = new TestWorld(registry.get(1, 0));
+        for (String name : PANES) {
+            Block north = find(name, true, false, false, false);
+            assertSame(north, find(name, false, false, false, false).update(world, 0, 64, 0));
+            assertSame(north, find(name, true, true, true, true).update(world, 0, 64, 0));
+        }
+    }
+
+    // Returns the block with the connections, keeping its other states
+    // at their first value
+    private static Block find(String name, boolean north, boolean south, boolean east, boolean west) {
+        Block found = null;
+        for (int i = 0; i < registry.getStateCount(); i++) {
+            Block block = registry.getByStateId(i);
+            String state = block.toString();
+            if (block.getFullName().equals(name)
+                    && state.contains("north=" + north) && state.contains("south=" + south)
+                    && state.contains("east=" + east) && state.contains("west=" + west)) {
+                found = block;
+                break;
+            }
+        }
+        assertNotNull(found);
+        assertEquals(name, found.getFullName());
+        return found;
+    }
+
+    // An empty world with a single block to the north of the origin
+    private static class TestWorld extends World {
+
+        private final Block north;
+
+        TestWorld(Block north) {
+            super(mapViewer);
+            this.north = north;
+        }
+
+        @Override
+        public Block getBlock(int x, int y, int z) {
+            if (north != null && x == 0 && y == 64 && z == -1) {
+                return north;
+            }
+            return registry.get(0, 0);
+        }
+    }
+}
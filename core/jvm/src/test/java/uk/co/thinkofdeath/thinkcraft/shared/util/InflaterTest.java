@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.shared.util;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uk.co.thinkofdeath.thinkcraft.jvm.JvmPlatform;
+import uk.co.thinkofdeath.thinkcraft.jvm.buffer.JvmBuffer;
+import uk.co.thinkofdeath.thinkcraft.jvm.buffer.JvmUByteBuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class InflaterTest {
+
+    @BeforeClass
+    public static void init() {
+        JvmPlatform.init();
+    }
+
+    @Test
+    public void inflatesFixedBlocks() {
+        byte[] data = "hello hello hello world".getBytes();
+        assertArrayEquals(data, inflate(deflate(data, null, Deflater.DEFAULT_COMPRESSION), null));
+    }
+
+    @Test
+    public void inflatesDynamicBlocks() {
+        byte[] data = sample(1, 100000);
+        assertArrayEquals(data, inflate(deflate(data, null, Deflater.BEST_COMPRESSION), null));
+    }
+
+    @Test
+    public void inflatesStoredBlocks() {
+        byte[] data = sample(2, 100000);
+        assertArrayEquals(data, inflate(deflate(data, null, Deflater.NO_COMPRESSION), null));
+    }
+
+    @Test
+    public void inflatesWithDictionary() {
+        byte[] dictionary = sample(3, 4096);
+        // Shares most of its data with the dictionary so that the
+        // stream refers back into it
+        byte[] data = Arrays.copyOf(dictionary, 6000);
+        System.arraycopy(sample(4, 1904), 0, data, 4096, 1904);
+        assertArrayEquals(data, inflate(deflate(data, dictionary, Deflater.BEST_COMPRESSION), dictionary));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingDictionary() {
+        byte[] dictionary = sample(5, 1024);
+        inflate(deflate(dictionary, dictionary, Deflater.DEFAULT_COMPRESSION), null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherStreams() {
+        inflate(new byte[]{0x1F, (byte) 0x8B, 0, 0}, null);
+    }
+
+    // Repetitive data so that the compressor finds matches
+    private static byte[] sample(long seed, int size) {
+        Random random = new Random(seed);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            if (i > 16 && random.nextInt(4) == 0) {
+                data[i] = data[i - 1 - random.nextInt(16)];
+            } else {
+                data[i] = (byte) random.nextInt(32);
+            }
+        }
+        return data;
+    }
+
+    private static byte[] deflate(byte[] data, byte[] dictionary, int level) {
+        Deflater deflater = new Deflater(level);
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data, byte[] dictionary) {
+        return ((JvmBuffer) Inflater.inflate(JvmUByteBuffer.wrap(data),
+                dictionary != null ? JvmUByteBuffer.wrap(dictionary) : null, data.length * 4)).toByteArray();
+    }
+}
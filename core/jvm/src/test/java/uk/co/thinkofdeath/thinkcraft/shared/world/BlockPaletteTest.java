@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.shared.world;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import uk.co.thinkofdeath.thinkcraft.jvm.JvmPlatform;
+import uk.co.thinkofdeath.thinkcraft.shared.IMapViewer;
+import uk.co.thinkofdeath.thinkcraft.shared.Texture;
+import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
+import uk.co.thinkofdeath.thinkcraft.shared.block.BlockRegistry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BlockPaletteTest {
+
+    private static BlockRegistry registry;
+
+    @BeforeClass
+    public static void init() {
+        JvmPlatform.init();
+        registry = new BlockRegistry(new IMapViewer() {
+            @Override
+            public BlockRegistry getBlockRegistry() {
+                return registry;
+            }
+
+            @Override
+            public Texture getTexture(String name) {
+                return null;
+            }
+
+            @Override
+            public World getWorld() {
+                return null;
+            }
+        });
+        registry.init();
+    }
+
+    @Test
+    public void addsBlocksOnce() {
+        BlockPalette palette = new BlockPalette(block(0));
+        assertEquals(1, palette.getOrAdd(block(1)));
+        assertEquals(2, palette.getOrAdd(block(2)));
+        assertEquals(1, palette.getOrAdd(block(1)));
+        assertEquals(3, palette.size());
+        assertSame(block(2), palette.get(2));
+        assertNull(palette.get(3));
+        assertEquals(-1, palette.indexOf(block(3)));
+    }
+
+    @Test
+    public void compactRemovesUnusedBlocks() {
+        BlockPalette palette = new BlockPalette(block(0));
+        for (int i = 1; i <= 4; i++) {
+            palette.getOrAdd(block(i));
+        }
+        palette.addUse(1);
+        palette.addUse(2);
+        palette.removeUse(2);
+        palette.addUse(3);
+        palette.addUse(3);
+
+        int[] remap = palette.compact();
+        assertEquals(0, remap[0]);
+        assertEquals(1, remap[1]);
+        assertEquals(2, remap[3]);
+        assertEquals(3, palette.size());
+        assertSame(block(0), palette.get(0));
+        assertSame(block(1), palette.get(1));
+        assertSame(block(3), palette.get(2));
+        assertNull(palette.get(3));
+        assertEquals(2, palette.indexOf(block(3)));
+        assertEquals(-1, palette.indexOf(block(2)));
+        assertEquals(-1, palette.indexOf(block(4)));
+        // Freed ids are reused
+        assertEquals(3, palette.getOrAdd(block(4)));
+    }
+
+    @Test
+    public void compactKeepsUsedPalette() {
+        BlockPalette palette = new BlockPalette(block(0));
+        palette.addUse(palette.getOrAdd(block(1)));
+        assertNull(palette.compact());
+        assertEquals(2, palette.size());
+    }
+
+    @Test
+    public void compactKeepsUseCounts() {
+        BlockPalette palette = new BlockPalette(block(0));
+        palette.getOrAdd(block(1));
+        palette.addUse(palette.getOrAdd(block(2)));
+        palette.compact();
+        assertEquals(1, palette.indexOf(block(2)));
+        // Still used so a second compact leaves it alone
+        assertNull(palette.compact());
+        palette.removeUse(1);
+        palette.compact();
+        assertEquals(1, palette.size());
+    }
+
+    @Test
+    public void growsAndCompactsLargePalettes() {
+        int count = Math.min(registry.getStateCount(), 200);
+        BlockPalette palette = new BlockPalette(block(0));
+        for (int i = 1; i < count; i++) {
+            int id = palette.getOrAdd(block(i));
+            assertEquals(i, id);
+            if (i % 2 == 0) {
+                palette.addUse(id);
+            }
+        }
+        int[] remap = palette.compact();
+        assertEquals(1 + (count - 1) / 2, palette.size());
+        for (int i = 1; i < count; i++) {
+            if (i % 2 == 0) {
+                assertEquals(i / 2, remap[i]);
+                assertEquals(i / 2, palette.indexOf(block(i)));
+                assertSame(block(i), palette.get(i / 2));
+            } else {
+                assertEquals(-1, palette.indexOf(block(i)));
+            }
+        }
+    }
+
+    @Test
+    public void putReplacesBlock() {
+        BlockPalette palette = new BlockPalette(block(0));
+        palette.put(1, block(1));
+        palette.put(2, block(2));
+        palette.put(1, block(3));
+        assertSame(block(3), palette.get(1));
+        assertEquals(1, palette.indexOf(block(3)));
+        assertEquals(2, palette.indexOf(block(2)));
+        assertEquals(-1, palette.indexOf(block(1)));
+        // The replaced block gets a new id instead of the old one
+        assertEquals(3, palette.getOrAdd(block(1)));
+    }
+
+    @Test
+    public void shouldCompactOnceEnoughIdsAreUnused() {
+        BlockPalette palette = new BlockPalette(block(0));
+        for (int i = 1; i <= 64; i++) {
+            palette.addUse(palette.getOrAdd(block(i)));
+        }
+        assertFalse(palette.shouldCompact());
+        for (int i = 1; i <= 16; i++) {
+            palette.removeUse(i);
+        }
+        assertFalse(palette.shouldCompact());
+        palette.removeUse(17);
+        assertTrue(palette.shouldCompact());
+        // Used again
+        palette.addUse(17);
+        assertFalse(palette.shouldCompact());
+        palette.removeUse(17);
+        palette.compact();
+        assertFalse(palette.shouldCompact());
+        assertEquals(48, palette.size());
+    }
+
+    @Test
+    public void clearKeepsAir() {
+        BlockPalette palette = new BlockPalette(block(0));
+        palette.put(1, block(1));
+        palette.put(2, block(2));
+        palette.clear();
+        assertEquals(1, palette.size());
+        assertSame(block(0), palette.get(0));
+        assertEquals(-1, palette.indexOf(block(1)));
+        assertEquals(1, palette.getOrAdd(block(2)));
+    }
+
+    private static Block block(int stateId) {
+        return registry.getByStateId(stateId);
+    }
+}
@@ -1,54 +0,0 @@
-/*
- * Copyright 2014 Matthew Collins
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package uk.co.thinkofdeath.thinkcraft.shared;
-
-public final class LightInfo {
-
-    private final int emittedLight;
-    private final int skyLight;
-
-    /**
-     * Creates a LightInfo object that stores emitted light information about a location
-     *
-     * @param emittedLight
-     *         The emitted light
-     * @param skyLight
-     *         The sky light
-     */
-    public LightInfo(final int emittedLight, final int skyLight) {
-        this.emittedLight = emittedLight;
-        this.skyLight = skyLight;
-    }
-
-    /**
-     * Returns the emitted light levels at this location
-     *
-     * @return The emitted light
-     */
-    public int getEmittedLight() {
-        return emittedLight;
-    }
-
-    /**
-     * Returns the sky light levels at this location
-     *
-     * @return The sky light
-     */
-    public int getSkyLight() {
-        return skyLight;
-    }
-}
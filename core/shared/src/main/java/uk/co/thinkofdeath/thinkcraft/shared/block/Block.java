@@ -35,6 +35,8 @@ public class Block implements Model.RenderChecker {
     protected String plugin;
     protected String name;
     protected String fullName;
+    // Set when the block is registered
+    int stateId = -1;
     protected AABB[] hitbox;
     // The following should be mirrored in BlockFactory, BlockBuilder
     // and the constructor
@@ -46,6 +48,7 @@ public class Block implements Model.RenderChecker {
     protected boolean allowSelf;
     protected Model model;
     private boolean smoothLighting;
+    private final boolean updatable;
     // Cache value since it doesn't change
     private String toString;
 
@@ -60,6 +63,7 @@ public class Block implements Model.RenderChecker {
         allowSelf = factory.allowSelf;
         model = factory.model;
         smoothLighting = factory.smoothLighting;
+        updatable = factory.updatable;
     }
 
     /**
@@ -191,6 +195,17 @@ public class Block implements Model.RenderChecker {
         return model;
     }
 
+    /**
+     * Returns whether {@link #update(World, int, int, int)} can return
+     * a different block. Blocks that can't are skipped when a chunk
+     * is updated
+     *
+     * @return Whether this block can be updated
+     */
+    public boolean isUpdatable() {
+        return updatable;
+    }
+
     /**
      * Updates block at the location.
      *
@@ -248,4 +263,15 @@ public class Block implements Model.RenderChecker {
     public int getRawState() {
         return state.asInt();
     }
+
+    /**
+     * Returns the id of this block's state in the registry it was
+     * registered with
+     *
+     * @return The state id
+     * @see BlockRegistry#getByStateId(int)
+     */
+    public int getStateId() {
+        return stateId;
+    }
 }
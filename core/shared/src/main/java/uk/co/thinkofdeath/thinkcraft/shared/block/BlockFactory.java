@@ -40,6 +40,8 @@ public class BlockFactory {
     Model model;
     boolean smoothLighting = true;
     boolean allowSelf;
+    // Set by factories whose blocks override Block#update
+    protected boolean updatable;
     protected IMapViewer mapViewer;
 
     /**
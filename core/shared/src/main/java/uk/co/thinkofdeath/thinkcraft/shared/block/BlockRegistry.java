@@ -26,7 +26,10 @@ import uk.co.thinkofdeath.thinkcraft.shared.block.helpers.BlockModels;
 import uk.co.thinkofdeath.thinkcraft.shared.block.states.StateMap;
 import uk.co.thinkofdeath.thinkcraft.shared.util.IntMap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class BlockRegistry {
@@ -34,7 +37,12 @@ public class BlockRegistry {
     private IMapViewer mapViewer;
     private Map<String, Block> blockMap = new HashMap<>();
     private Map<String, IntMap<Block>> blockStateMap = new HashMap<>();
-    private IntMap<Block> legacyMap = new IntMap<>(256 * 16);
+    // Indexed by state id, filled in as blocks are registered
+    private List<Block> stateList = new ArrayList<>();
+    private Block[] states = new Block[0];
+    // Legacy id and data value (id << 4 | data) to state id, -1
+    // when there isn't a block for the value
+    private final int[] legacyStates = new int[256 * 16];
 
     /**
      * Creates a block registry which contains all the known blocks
@@ -44,6 +52,7 @@ public class BlockRegistry {
      */
     public BlockRegistry(IMapViewer mapViewer) {
         this.mapViewer = mapViewer;
+        Arrays.fill(legacyStates, -1);
     }
 
     /**
@@ -107,7 +116,51 @@ public class BlockRegistry {
      * @return The block or null
      */
     public Block get(int legacyId, int dataValue) {
-        return legacyMap.get((legacyId << 4) | dataValue);
+        int id = getStateId(legacyId, dataValue);
+        return id != -1 ? states[id] : null;
+    }
+
+    /**
+     * Returns the state id of the block with the legacy id and data
+     * value
+     *
+     * @param legacyId
+     *         The old style id for the block
+     * @param dataValue
+     *         The data value for the block
+     * @return The state id or -1
+     */
+    public int getStateId(int legacyId, int dataValue) {
+        int key = (legacyId << 4) | dataValue;
+        if (key < 0 || key >= legacyStates.length) {
+            return -1;
+        }
+        return legacyStates[key];
+    }
+
+    /**
+     * Returns a block by its state id. State ids are assigned in the
+     * order blocks are registered so they match between registries
+     * from the same build but shouldn't be stored or sent to the
+     * server
+     *
+     * @param stateId
+     *         The state id of the block
+     * @return The block
+     * @see Block#getStateId()
+     */
+    public Block getByStateId(int stateId) {
+        return states[stateId];
+    }
+
+    /**
+     * Returns the number of state ids in use, every id below this
+     * maps to a block
+     *
+     * @return The number of states
+     */
+    public int getStateCount() {
+        return states.length;
     }
 
 
@@ -148,6 +201,8 @@ public class BlockRegistry {
             block.plugin = plugin;
             block.name = name;
             block.fullName = key;
+            block.stateId = stateList.size();
+            stateList.add(block);
             blockMap.put(block.toString(), block);
             // State lookup
             if (!blockStateMap.containsKey(key)) {
@@ -159,11 +214,11 @@ public class BlockRegistry {
                 int data = block.getLegacyData();
                 if (data == -1) continue; // Virtual block
                 int legacyVal = (legacyId << 4) | data;
-                if (legacyMap.get(legacyVal) != null) {
+                if (legacyStates[legacyVal] != -1) {
                     throw new IllegalArgumentException(block.toString() + " tried to register a duplicate block id "
                             + legacyId + ":" + block.getLegacyData());
                 }
-                legacyMap.put(legacyVal, block);
+                legacyStates[legacyVal] = block.stateId;
             }
         }
     }
@@ -772,6 +827,9 @@ public class BlockRegistry {
                 .renderable(false)
                 .create());
 
+        states = stateList.toArray(new Block[stateList.size()]);
+        stateList = null;
+
         Blocks.init(this);
 
         System.out.println("Blocks registered: " + blockMap.size() + " (" + blockStateMap.size()
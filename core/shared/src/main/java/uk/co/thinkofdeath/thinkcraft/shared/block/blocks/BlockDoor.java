@@ -47,6 +47,7 @@ public class BlockDoor extends BlockFactory {
 
     public BlockDoor(IMapViewer iMapViewer, String texture) {
         super(iMapViewer);
+        updatable = true;
         upper = mapViewer.getTexture(texture + "_upper");
         lower = mapViewer.getTexture(texture + "_lower");
     }
@@ -42,6 +42,7 @@ public class BlockDoubleFlowers extends BlockFactory {
 
     public BlockDoubleFlowers(IMapViewer iMapViewer) {
         super(iMapViewer);
+        updatable = true;
 
         textures = new Texture[DoubleFlowerType.values().length * 2];
         for (DoubleFlowerType type : DoubleFlowerType.values()) {
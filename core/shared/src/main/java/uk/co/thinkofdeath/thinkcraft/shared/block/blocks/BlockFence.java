@@ -21,6 +21,7 @@ import uk.co.thinkofdeath.thinkcraft.shared.IMapViewer;
 import uk.co.thinkofdeath.thinkcraft.shared.Texture;
 import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
 import uk.co.thinkofdeath.thinkcraft.shared.block.BlockFactory;
+import uk.co.thinkofdeath.thinkcraft.shared.block.helpers.ConnectionTable;
 import uk.co.thinkofdeath.thinkcraft.shared.block.states.BooleanState;
 import uk.co.thinkofdeath.thinkcraft.shared.block.states.StateKey;
 import uk.co.thinkofdeath.thinkcraft.shared.block.states.StateMap;
@@ -38,6 +39,7 @@ public class BlockFence extends BlockFactory {
 
     public BlockFence(IMapViewer iMapViewer) {
         super(iMapViewer);
+        updatable = true;
     }
 
     @Override
@@ -56,6 +58,9 @@ public class BlockFence extends BlockFactory {
 
     private class BlockImpl extends Block {
 
+        // Shared by the blocks that only differ by their connections
+        private Block[] connections;
+
         BlockImpl(StateMap state) {
             super(BlockFence.this, state);
         }
@@ -113,14 +118,24 @@ public class BlockFence extends BlockFactory {
 
         @Override
         public Block update(World world, int x, int y, int z) {
-            StateMap map = new StateMap();
-
-            map.set(NORTH, checkFence(world, x, y, z - 1));
-            map.set(SOUTH, checkFence(world, x, y, z + 1));
-            map.set(EAST, checkFence(world, x + 1, y, z));
-            map.set(WEST, checkFence(world, x - 1, y, z));
+            int mask = 0;
+            if (checkFence(world, x, y, z - 1)) mask |= ConnectionTable.NORTH;
+            if (checkFence(world, x, y, z + 1)) mask |= ConnectionTable.SOUTH;
+            if (checkFence(world, x + 1, y, z)) mask |= ConnectionTable.EAST;
+            if (checkFence(world, x - 1, y, z)) mask |= ConnectionTable.WEST;
+            return connect(mask);
+        }
 
-            return mapViewer.getBlockRegistry().get(fullName, map);
+        // Returns the block with the connections in the mask
+        private Block connect(int mask) {
+            if (connections == null) {
+                Block[] table = ConnectionTable.create(mapViewer.getBlockRegistry(), fullName, state,
+                        NORTH, SOUTH, EAST, WEST);
+                for (Block block : table) {
+                    ((BlockImpl) block).connections = table;
+                }
+            }
+            return connections[mask];
         }
 
         @Override
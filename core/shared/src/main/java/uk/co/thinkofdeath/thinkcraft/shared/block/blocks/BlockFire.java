@@ -46,6 +46,7 @@ public class BlockFire extends BlockFactory {
 
     public BlockFire(IMapViewer iMapViewer) {
         super(iMapViewer);
+        updatable = true;
 
         layer0 = mapViewer.getTexture("fire_layer_0");
         layer1 = mapViewer.getTexture("fire_layer_1");
@@ -22,6 +22,7 @@ import uk.co.thinkofdeath.thinkcraft.shared.IMapViewer;
 import uk.co.thinkofdeath.thinkcraft.shared.Texture;
 import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
 import uk.co.thinkofdeath.thinkcraft.shared.block.BlockFactory;
+import uk.co.thinkofdeath.thinkcraft.shared.block.helpers.ConnectionTable;
 import uk.co.thinkofdeath.thinkcraft.shared.block.states.BooleanState;
 import uk.co.thinkofdeath.thinkcraft.shared.block.states.StateKey;
 import uk.co.thinkofdeath.thinkcraft.shared.block.states.StateMap;
@@ -43,6 +44,7 @@ public class BlockGlassPane extends BlockFactory {
 
     public BlockGlassPane(IMapViewer iMapViewer) {
         super(iMapViewer);
+        updatable = true;
 
         this.texture = mapViewer.getTexture("glass");
         top = mapViewer.getTexture("glass_pane_top");
@@ -63,6 +65,9 @@ public class BlockGlassPane extends BlockFactory {
 
     protected class BlockImpl extends Block {
 
+        // Shared by the blocks that only differ by their connections
+        private Block[] connections;
+
         BlockImpl(StateMap state) {
             super(BlockGlassPane.this, state);
         }
@@ -166,22 +171,27 @@ public class BlockGlassPane extends BlockFactory {
 
         @Override
         public Block update(World world, int x, int y, int z) {
-            StateMap stateMap = new StateMap(state);
-            stateMap.set(NORTH, checkAttach(world, x, y, z, Face.NORTH));
-            stateMap.set(SOUTH, checkAttach(world, x, y, z, Face.SOUTH));
-            stateMap.set(EAST, checkAttach(world, x, y, z, Face.EAST));
-            stateMap.set(WEST, checkAttach(world, x, y, z, Face.WEST));
-
-            if (!stateMap.get(NORTH)
-                    && !stateMap.get(SOUTH)
-                    && !stateMap.get(EAST)
-                    && !stateMap.get(WEST)) {
-                stateMap.set(NORTH, true);
-                stateMap.set(SOUTH, true);
-                stateMap.set(EAST, true);
-                stateMap.set(WEST, true);
+            int mask = 0;
+            if (checkAttach(world, x, y, z, Face.NORTH)) mask |= ConnectionTable.NORTH;
+            if (checkAttach(world, x, y, z, Face.SOUTH)) mask |= ConnectionTable.SOUTH;
+            if (checkAttach(world, x, y, z, Face.EAST)) mask |= ConnectionTable.EAST;
+            if (checkAttach(world, x, y, z, Face.WEST)) mask |= ConnectionTable.WEST;
+            return connect(mask);
+        }
+
+        // Returns the block with the connections in the mask
+        private Block connect(int mask) {
+            if (connections == null) {
+                Block[] table = ConnectionTable.create(mapViewer.getBlockRegistry(), fullName, state,
+                        NORTH, SOUTH, EAST, WEST);
+                for (Block block : table) {
+                    ((BlockImpl) block).connections = table;
+                }
+                // Panes on their own connect on every side. Done after
+                // sharing the table so the unconnected block has it too
+                table[0] = table[ConnectionTable.ALL];
             }
-            return mapViewer.getBlockRegistry().get(fullName, stateMap);
+            return connections[mask];
         }
 
         @Override
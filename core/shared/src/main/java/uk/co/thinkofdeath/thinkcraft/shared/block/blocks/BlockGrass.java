@@ -40,6 +40,7 @@ public class BlockGrass extends BlockFactory {
 
     public BlockGrass(IMapViewer iMapViewer) {
         super(iMapViewer);
+        updatable = true;
 
         grassTop = iMapViewer.getTexture("grass_top");
         grassSide = iMapViewer.getTexture("grass_side");
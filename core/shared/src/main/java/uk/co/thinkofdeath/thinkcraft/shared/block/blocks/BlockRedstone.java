@@ -46,6 +46,7 @@ public class BlockRedstone extends BlockFactory {
 
     public BlockRedstone(IMapViewer iMapViewer) {
         super(iMapViewer);
+        updatable = true;
 
         line = mapViewer.getTexture("redstone_dust_line");
         cross = mapViewer.getTexture("redstone_dust_cross");
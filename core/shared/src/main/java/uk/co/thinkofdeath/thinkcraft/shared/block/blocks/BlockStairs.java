@@ -40,6 +40,7 @@ public class BlockStairs extends BlockFactory {
 
     public BlockStairs(IMapViewer iMapViewer) {
         super(iMapViewer);
+        updatable = true;
     }
 
     @Override
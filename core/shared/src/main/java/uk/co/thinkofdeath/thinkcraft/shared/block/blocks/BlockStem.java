@@ -44,6 +44,7 @@ public class BlockStem<T extends Block> extends BlockFactory {
 
     public BlockStem(IMapViewer iMapViewer, String type, String target) {
         super(iMapViewer);
+        updatable = true;
         this.target = target;
 
         connected = mapViewer.getTexture(type + "_stem_connected");
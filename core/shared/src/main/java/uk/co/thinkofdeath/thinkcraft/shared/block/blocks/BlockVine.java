@@ -40,6 +40,7 @@ public class BlockVine extends BlockFactory {
 
     public BlockVine(IMapViewer iMapViewer) {
         super(iMapViewer);
+        updatable = true;
 
         texture = iMapViewer.getTexture("vine");
     }
@@ -22,6 +22,7 @@ import uk.co.thinkofdeath.thinkcraft.shared.IMapViewer;
 import uk.co.thinkofdeath.thinkcraft.shared.Texture;
 import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
 import uk.co.thinkofdeath.thinkcraft.shared.block.BlockFactory;
+import uk.co.thinkofdeath.thinkcraft.shared.block.helpers.ConnectionTable;
 import uk.co.thinkofdeath.thinkcraft.shared.block.enums.WallType;
 import uk.co.thinkofdeath.thinkcraft.shared.block.states.BooleanState;
 import uk.co.thinkofdeath.thinkcraft.shared.block.states.EnumState;
@@ -45,6 +46,7 @@ public class BlockWall extends BlockFactory {
 
     public BlockWall(IMapViewer iMapViewer) {
         super(iMapViewer);
+        updatable = true;
         for (WallType wallType : WallType.values()) {
             textures[wallType.ordinal()] = mapViewer.getTexture(wallType.name().toLowerCase());
         }
@@ -66,6 +68,9 @@ public class BlockWall extends BlockFactory {
 
     private class BlockImpl extends Block {
 
+        // Shared by the blocks that only differ by their connections
+        private Block[] connections;
+
         BlockImpl(StateMap state) {
             super(BlockWall.this, state);
         }
@@ -149,14 +154,24 @@ public class BlockWall extends BlockFactory {
 
         @Override
         public Block update(World world, int x, int y, int z) {
-            StateMap map = new StateMap();
-
-            map.set(NORTH, check(world, x, y, z - 1));
-            map.set(SOUTH, check(world, x, y, z + 1));
-            map.set(EAST, check(world, x + 1, y, z));
-            map.set(WEST, check(world, x - 1, y, z));
+            int mask = 0;
+            if (check(world, x, y, z - 1)) mask |= ConnectionTable.NORTH;
+            if (check(world, x, y, z + 1)) mask |= ConnectionTable.SOUTH;
+            if (check(world, x + 1, y, z)) mask |= ConnectionTable.EAST;
+            if (check(world, x - 1, y, z)) mask |= ConnectionTable.WEST;
+            return connect(mask);
+        }
 
-            return mapViewer.getBlockRegistry().get(fullName, map);
+        // Returns the block with the connections in the mask
+        private Block connect(int mask) {
+            if (connections == null) {
+                Block[] table = ConnectionTable.create(mapViewer.getBlockRegistry(), fullName, state,
+                        NORTH, SOUTH, EAST, WEST);
+                for (Block block : table) {
+                    ((BlockImpl) block).connections = table;
+                }
+            }
+            return connections[mask];
         }
 
         @Override
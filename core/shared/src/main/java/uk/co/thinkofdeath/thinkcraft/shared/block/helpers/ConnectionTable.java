@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.shared.block.helpers;
+
+import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
+import uk.co.thinkofdeath.thinkcraft.shared.block.BlockRegistry;
+import uk.co.thinkofdeath.thinkcraft.shared.block.states.StateKey;
+import uk.co.thinkofdeath.thinkcraft.shared.block.states.StateMap;
+
+/**
+ * Builds the tables used by blocks that connect to their neighbours
+ * (fences, walls, panes). A table maps the sides the block connects
+ * on to the block with those connections so updating the block only
+ * needs an array lookup
+ */
+public final class ConnectionTable {
+
+    public static final int NORTH = 0x1;
+    public static final int SOUTH = 0x2;
+    public static final int EAST = 0x4;
+    public static final int WEST = 0x8;
+    public static final int ALL = NORTH | SOUTH | EAST | WEST;
+
+    private ConnectionTable() {
+    }
+
+    /**
+     * Creates a table containing the block with every combination of
+     * connections. The block's other states are kept
+     *
+     * @param registry
+     *         The registry the block was registered with
+     * @param fullName
+     *         The full name of the block
+     * @param state
+     *         The block's current state
+     * @param north
+     *         The state for connecting to the north
+     * @param south
+     *         The state for connecting to the south
+     * @param east
+     *         The state for connecting to the east
+     * @param west
+     *         The state for connecting to the west
+     * @return The blocks indexed by their connections
+     */
+    public static Block[] create(BlockRegistry registry, String fullName, StateMap state,
+                                 StateKey<Boolean> north, StateKey<Boolean> south,
+                                 StateKey<Boolean> east, StateKey<Boolean> west) {
+        Block[] table = new Block[ALL + 1];
+        for (int mask = 0; mask <= ALL; mask++) {
+            StateMap stateMap = new StateMap(state);
+            stateMap.set(north, (mask & NORTH) != 0);
+            stateMap.set(south, (mask & SOUTH) != 0);
+            stateMap.set(east, (mask & EAST) != 0);
+            stateMap.set(west, (mask & WEST) != 0);
+            table[mask] = registry.get(fullName, stateMap);
+        }
+        return table;
+    }
+}
@@ -33,7 +33,7 @@ public class IntegerState implements BlockState<Integer> {
     public IntegerState(int min, int max) {
         this.min = min;
         this.max = max;
-        states = new Integer[max - min];
+        states = new Integer[max - min + 1];
         for (int i = min; i <= max; i++) {
             states[i - min] = i;
         }
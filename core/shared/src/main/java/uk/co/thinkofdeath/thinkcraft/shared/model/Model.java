@@ -17,14 +17,12 @@
 package uk.co.thinkofdeath.thinkcraft.shared.model;
 
 import uk.co.thinkofdeath.thinkcraft.shared.Face;
-import uk.co.thinkofdeath.thinkcraft.shared.LightInfo;
 import uk.co.thinkofdeath.thinkcraft.shared.Texture;
 import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
 import uk.co.thinkofdeath.thinkcraft.shared.building.ModelBuilder;
 import uk.co.thinkofdeath.thinkcraft.shared.vector.Vector3;
 import uk.co.thinkofdeath.thinkcraft.shared.world.Biome;
-import uk.co.thinkofdeath.thinkcraft.shared.world.Chunk;
-import uk.co.thinkofdeath.thinkcraft.shared.world.World;
+import uk.co.thinkofdeath.thinkcraft.shared.world.SectionSnapshot;
 
 import java.util.*;
 
@@ -62,7 +60,7 @@ public class Model {
     }
 
     /**
-     * Renders this model into the passed model builder offset by the passed x, y and z relative to the passed chunk. No culling will be performed.
+     * Renders this model into the passed model builder offset by the passed x, y and z relative to the snapshot's chunk. No culling will be performed.
      *
      * @param builder
      *         The builder to render into
@@ -72,15 +70,15 @@ public class Model {
      *         The y offset
      * @param z
      *         The z offset
-     * @param chunk
-     *         The chunk this relative to
+     * @param snapshot
+     *         The snapshot of the section being built
      */
-    public void render(ModelBuilder builder, int x, int y, int z, Chunk chunk) {
-        render(builder, x, y, z, chunk, ALWAYS_RENDER);
+    public void render(ModelBuilder builder, int x, int y, int z, SectionSnapshot snapshot) {
+        render(builder, x, y, z, snapshot, ALWAYS_RENDER);
     }
 
     /**
-     * Renders this model into the passed model builder offset by the passed x, y and z relative to the passed chunk. If a face is cullable then the passed render checker will be used to check whether the face should be culled or not
+     * Renders this model into the passed model builder offset by the passed x, y and z relative to the snapshot's chunk. If a face is cullable then the passed render checker will be used to check whether the face should be culled or not
      *
      * @param builder
      *         The builder to render into
@@ -90,36 +88,35 @@ public class Model {
      *         The y offset
      * @param z
      *         The z offset
-     * @param chunk
-     *         The chunk this relative to
+     * @param snapshot
+     *         The snapshot of the section being built
      * @param renderChecker
      *         The RenderChecker to use for culling
      */
-    public void render(ModelBuilder builder, int x, int y, int z, Chunk chunk,
+    public void render(ModelBuilder builder, int x, int y, int z, SectionSnapshot snapshot,
                        RenderChecker renderChecker) {
+        int worldX = (snapshot.getChunkX() << 4) + x;
+        int worldZ = (snapshot.getChunkZ() << 4) + z;
+        int light = snapshot.getEmittedLight(worldX, y, worldZ)
+                | (snapshot.getSkyLight(worldX, y, worldZ) << 8);
+        boolean smooth = renderChecker.useSmoothLighting();
         for (ModelFace face : faces) {
             if (face.cullable) {
-                if (!renderChecker.shouldRenderAgainst(chunk.getWorld().getBlock(
-                        (chunk.getX() << 4) + x + face.getFace().getOffsetX(),
+                if (!renderChecker.shouldRenderAgainst(snapshot.getBlock(
+                        worldX + face.getFace().getOffsetX(),
                         y + face.getFace().getOffsetY(),
-                        (chunk.getZ() << 4) + z + face.getFace().getOffsetZ()
+                        worldZ + face.getFace().getOffsetZ()
                 ))) {
                     continue;
                 }
             }
             if (face.grassBiomeColour) {
-                int colour = getBiomeColorFor(chunk.getWorld(),
-                        (chunk.getX() << 4) + x,
-                        (chunk.getZ() << 4) + z,
-                        grassBiomeColors);
+                int colour = getBiomeColorFor(snapshot, x, z, false, grassBiomeColors);
                 face.r = (colour >> 16) & 0xFF;
                 face.g = (colour >> 8) & 0xFF;
                 face.b = colour & 0xFF;
             } else if (face.foliageBiomeColour) {
-                int colour = getBiomeColorFor(chunk.getWorld(),
-                        (chunk.getX() << 4) + x,
-                        (chunk.getZ() << 4) + z,
-                        foliageBiomeColors);
+                int colour = getBiomeColorFor(snapshot, x, z, true, foliageBiomeColors);
                 face.r = (colour >> 16) & 0xFF;
                 face.g = (colour >> 8) & 0xFF;
                 face.b = colour & 0xFF;
@@ -128,118 +125,112 @@ public class Model {
             // First triangle
             for (int i = 0; i < 3; i++) {
                 ModelVertex vertex = face.vertices[2 - i];
-                LightInfo light = calculateLight(chunk.getWorld(), x, y, z,
-                        (chunk.getX() << 4) + x + vertex.getX(),
+                int vertexLight = calculateLight(snapshot, light,
+                        worldX + vertex.getX(),
                         y + vertex.getY(),
-                        (chunk.getZ() << 4) + z + vertex.getZ(), face.getFace(),
-                        renderChecker.useSmoothLighting(),
-                        forceShade);
+                        worldZ + vertex.getZ(), face.getFace(),
+                        smooth, forceShade);
                 builder
                         .position(x + vertex.getX(), y + vertex.getY(), z + vertex.getZ())
                         .colour(face.r, face.g, face.b)
                         .texturePosition(vertex.getTextureX(), vertex.getTextureY())
                         .textureDetails(texture.getVirtualX(), texture.getVirtualY(), texture.getSize())
-                        .lighting(light.getEmittedLight(), light.getSkyLight());
+                        .lighting(vertexLight & 0xFF, vertexLight >> 8);
             }
             // Second triangle
             for (int i = 0; i < 3; i++) {
                 ModelVertex vertex = face.vertices[1 + i];
-                LightInfo light = calculateLight(chunk.getWorld(), x, y, z,
-                        (chunk.getX() << 4) + x + vertex.getX(),
+                int vertexLight = calculateLight(snapshot, light,
+                        worldX + vertex.getX(),
                         y + vertex.getY(),
-                        (chunk.getZ() << 4) + z + vertex.getZ(), face.getFace(),
-                        renderChecker.useSmoothLighting(),
-                        forceShade);
+                        worldZ + vertex.getZ(), face.getFace(),
+                        smooth, forceShade);
                 builder
                         .position(x + vertex.getX(), y + vertex.getY(), z + vertex.getZ())
                         .colour(face.r, face.g, face.b)
                         .texturePosition(vertex.getTextureX(), vertex.getTextureY())
                         .textureDetails(texture.getVirtualX(), texture.getVirtualY(), texture.getSize())
-                        .lighting(light.getEmittedLight(), light.getSkyLight());
+                        .lighting(vertexLight & 0xFF, vertexLight >> 8);
             }
         }
     }
 
-    private static LightInfo calculateLight(World world,
-                                            int origX, int origY, int origZ,
-                                            float x, float y, float z,
-                                            Face face, boolean smooth, boolean forceShade) {
-        int emittedLight = world.getEmittedLight(origX, origY, origZ);
-        int skyLight = world.getSkyLight(origX, origY, origZ);
+    // Returns the light for the vertex packed as the emitted light
+    // in the lowest 8 bits and the sky light in the next 8. With
+    // smooth lighting this is the average of the block's own light
+    // and the 2x2x2 blocks in front of the vertex
+    private static int calculateLight(SectionSnapshot snapshot, int light,
+                                      float x, float y, float z,
+                                      Face face, boolean smooth, boolean forceShade) {
         if (!smooth) {
-            return new LightInfo(emittedLight, skyLight);
+            return light;
         }
 
-        int count = 1;
-
-        int pox;
-        int poy;
-        int poz;
+        // Lowest corner of the box sampled
         int nox;
         int noy;
         int noz;
 
         switch (face) {
             case TOP:
-                poz = pox = 0;
                 noz = nox = -1;
-                poy = 1;
                 noy = 0;
                 break;
             case BOTTOM:
-                poz = pox = 0;
                 noz = nox = -1;
-                poy = -1;
                 noy = -2;
                 break;
             case LEFT:
-                poz = poy = 0;
                 noz = noy = -1;
-                pox = 1;
                 nox = 0;
                 break;
             case RIGHT:
-                poz = poy = 0;
                 noz = noy = -1;
-                pox = -1;
                 nox = -2;
                 break;
             case FRONT:
-                poy = pox = 0;
                 noy = nox = -1;
-                poz = 1;
                 noz = 0;
                 break;
             case BACK:
-                poy = pox = 0;
                 noy = nox = -1;
-                poz = -1;
                 noz = -2;
                 break;
             default:
                 throw new UnsupportedOperationException("Unsupported face");
         }
-        for (int ox = nox; ox <= pox; ox++) {
-            for (int oy = noy; oy <= poy; oy++) {
-                for (int oz = noz; oz <= poz; oz++) {
-                    int bx = (int) (x + ox);
-                    int by = (int) (y + oy);
-                    int bz = (int) (z + oz);
-                    count++;
-                    emittedLight += world.getEmittedLight(bx, by, bz);
-                    if (!forceShade) {
-                        skyLight += world.getSkyLight(bx, by, bz);
-                    } else {
-                        Block block = world.getBlock(bx, by, bz);
-                        if (!block.isRenderable()) {
-                            skyLight += 15;
+        int sum;
+        if (x == (int) x && y == (int) y && z == (int) z) {
+            // Vertices on block corners share their boxes with the
+            // faces around them
+            sum = snapshot.getLightSum((int) x + nox, (int) y + noy, (int) z + noz, forceShade);
+        } else {
+            int emittedLight = 0;
+            int skyLight = 0;
+            for (int ox = nox; ox <= nox + 1; ox++) {
+                for (int oy = noy; oy <= noy + 1; oy++) {
+                    for (int oz = noz; oz <= noz + 1; oz++) {
+                        int bx = (int) (x + ox);
+                        int by = (int) (y + oy);
+                        int bz = (int) (z + oz);
+                        emittedLight += snapshot.getEmittedLight(bx, by, bz);
+                        if (!forceShade) {
+                            skyLight += snapshot.getSkyLight(bx, by, bz);
+                        } else {
+                            Block block = snapshot.getBlock(bx, by, bz);
+                            if (!block.isRenderable()) {
+                                skyLight += 15;
+                            }
                         }
                     }
                 }
             }
+            sum = emittedLight | (skyLight << 8);
         }
-        if (count == 0) return new LightInfo(emittedLight, skyLight);
-        return new LightInfo(emittedLight / count, skyLight / count);
+        // The block's own light and the 8 in the box
+        int emittedLight = ((light & 0xFF) + (sum & 0xFF)) / 9;
+        int skyLight = ((light >> 8) + (sum >> 8)) / 9;
+        return emittedLight | (skyLight << 8);
     }
 
     private static final List<Face> rotationHelperY = Arrays.asList(
@@ -477,8 +468,23 @@ public class Model {
         forceShade = true;
     }
 
-    private static int getBiomeColorFor(World world, int x, int z, Map<Integer, Integer> colors) {
-        int color = getBiomeColorAt(world, x, z, colors);
+    // Returns the biome colour for the column relative to the
+    // snapshot's chunk, blended with the columns around it
+    private static int getBiomeColorFor(SectionSnapshot snapshot, int cx, int cz, boolean foliage,
+                                        Map<Integer, Integer> colors) {
+        int[] cache = snapshot.getColourCache(foliage);
+        int idx = (cx & 0xF) | ((cz & 0xF) << 4);
+        if (cache[idx] == -1) {
+            cache[idx] = getBiomeColorFor(snapshot,
+                    (snapshot.getChunkX() << 4) + cx,
+                    (snapshot.getChunkZ() << 4) + cz,
+                    colors);
+        }
+        return cache[idx];
+    }
+
+    private static int getBiomeColorFor(SectionSnapshot snapshot, int x, int z, Map<Integer, Integer> colors) {
+        int color = getBiomeColorAt(snapshot, x, z, colors);
         int r = (color >> 16) & 0xFF;
         int g = (color >> 8) & 0xFF;
         int b = color & 0xFF;
@@ -487,7 +493,7 @@ public class Model {
         for (int xx = -2; xx <= 2; xx++) {
             for (int zz = -2; zz <= 2; zz++) {
                 if (xx == 0 && zz == 0) continue;
-                color = getBiomeColorAt(world, x + xx, z + zz, colors);
+                color = getBiomeColorAt(snapshot, x + xx, z + zz, colors);
                 r += (color >> 16) & 0xFF;
                 g += (color >> 8) & 0xFF;
                 b += color & 0xFF;
@@ -502,8 +508,8 @@ public class Model {
                 | (b & 0xFF);
     }
 
-    private static int getBiomeColorAt(World world, int x, int z, Map<Integer, Integer> colors) {
-        Biome biome = world.getBiome(x, z);
+    private static int getBiomeColorAt(SectionSnapshot snapshot, int x, int z, Map<Integer, Integer> colors) {
+        Biome biome = snapshot.getBiome(x, z);
         if (colors.containsKey(biome.getColorIndex())) {
             return colors.get(biome.getColorIndex());
         }
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.shared.util;
+
+import uk.co.thinkofdeath.thinkcraft.shared.platform.Platform;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UByteBuffer;
+
+/**
+ * A small zlib (deflate) decoder which supports preset dictionaries.
+ * Browsers will only decompress data without a dictionary so chunks
+ * compressed with one have to be handled by the map viewer itself
+ */
+public class Inflater {
+
+    private static final int[] LENGTH_BASE = {
+            3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+            35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+    };
+    private static final int[] LENGTH_EXTRA = {
+            0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+            3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+    };
+    private static final int[] DISTANCE_BASE = {
+            1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+            257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+            8193, 12289, 16385, 24577
+    };
+    private static final int[] DISTANCE_EXTRA = {
+            0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+            7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+    };
+    private static final int[] CODE_LENGTH_ORDER = {
+            16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+    };
+
+    private static Huffman fixedLengths;
+    private static Huffman fixedDistances;
+
+    private final UByteBuffer in;
+    private final UByteBuffer dictionary;
+    private int inPosition;
+    private int bitBuffer;
+    private int bitCount;
+
+    private UByteBuffer out;
+    private int outPosition;
+
+    private Inflater(UByteBuffer in, UByteBuffer dictionary, int sizeHint) {
+        this.in = in;
+        this.dictionary = dictionary;
+        out = Platform.alloc().ubyteBuffer(Math.max(sizeHint, 1024));
+    }
+
+    /**
+     * Decompresses the zlib stream using the dictionary (if the
+     * stream requires one)
+     *
+     * @param in
+     *         The compressed data
+     * @param dictionary
+     *         The preset dictionary or null
+     * @param sizeHint
+     *         The expected size of the decompressed data
+     * @return The decompressed data
+     * @throws IllegalArgumentException
+     *         If the stream is invalid
+     */
+    public static UByteBuffer inflate(UByteBuffer in, UByteBuffer dictionary, int sizeHint) {
+        Inflater inflater = new Inflater(in, dictionary, sizeHint);
+        inflater.readHeader();
+        inflater.readBlocks();
+        return Platform.alloc().ubyteBuffer(inflater.out, 0, inflater.outPosition);
+    }
+
+    private void readHeader() {
+        int cmf = in.get(inPosition++);
+        int flags = in.get(inPosition++);
+        if ((cmf & 0xF) != 8 || ((cmf << 8) | flags) % 31 != 0) {
+            throw new IllegalArgumentException("Not a zlib stream");
+        }
+        if ((flags & 0x20) != 0) {
+            if (dictionary == null) {
+                throw new IllegalArgumentException("Missing dictionary");
+            }
+            // Skip the dictionary's id
+            inPosition += 4;
+        }
+    }
+
+    private void readBlocks() {
+        boolean last;
+        do {
+            last = bits(1) == 1;
+            int type = bits(2);
+            switch (type) {
+                case 0:
+                    stored();
+                    break;
+                case 1:
+                    if (fixedLengths == null) {
+                        createFixed();
+                    }
+                    compressed(fixedLengths, fixedDistances);
+                    break;
+                case 2:
+                    dynamic();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid block type");
+            }
+        } while (!last);
+    }
+
+    private void stored() {
+        // Skip to the next byte
+        bitBuffer = 0;
+        bitCount = 0;
+        int length = in.get(inPosition) | (in.get(inPosition + 1) << 8);
+        inPosition += 4;
+        ensureSpace(length);
+        for (int i = 0; i < length; i++) {
+            out.set(outPosition++, in.get(inPosition++));
+        }
+    }
+
+    private void dynamic() {
+        int numLengths = bits(5) + 257;
+        int numDistances = bits(5) + 1;
+        int numCodes = bits(4) + 4;
+
+        int[] lengths = new int[19];
+        for (int i = 0; i < numCodes; i++) {
+            lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+        }
+        Huffman codeLengths = new Huffman(lengths, 0, 19);
+
+        lengths = new int[numLengths + numDistances];
+        for (int i = 0; i < numLengths + numDistances; ) {
+            int symbol = decode(codeLengths);
+            if (symbol < 16) {
+                lengths[i++] = symbol;
+                continue;
+            }
+            int value = 0;
+            int repeat;
+            if (symbol == 16) {
+                if (i == 0) {
+                    throw new IllegalArgumentException("Invalid repeat");
+                }
+                value = lengths[i - 1];
+                repeat = 3 + bits(2);
+            } else if (symbol == 17) {
+                repeat = 3 + bits(3);
+            } else {
+                repeat = 11 + bits(7);
+            }
+            if (i + repeat > lengths.length) {
+                throw new IllegalArgumentException("Too many lengths");
+            }
+            for (int j = 0; j < repeat; j++) {
+                lengths[i++] = value;
+            }
+        }
+
+        compressed(new Huffman(lengths, 0, numLengths),
+                new Huffman(lengths, numLengths, numDistances));
+    }
+
+    private void compressed(Huffman lengthCodes, Huffman distanceCodes) {
+        while (true) {
+            int symbol = decode(lengthCodes);
+            if (symbol < 256) {
+                ensureSpace(1);
+                out.set(outPosition++, symbol);
+            } else if (symbol == 256) {
+                return;
+            } else {
+                symbol -= 257;
+                if (symbol >= LENGTH_BASE.length) {
+                    throw new IllegalArgumentException("Invalid length");
+                }
+                int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+                int distanceSymbol = decode(distanceCodes);
+                if (distanceSymbol >= DISTANCE_BASE.length) {
+                    throw new IllegalArgumentException("Invalid distance");
+                }
+                int distance = DISTANCE_BASE[distanceSymbol] + bits(DISTANCE_EXTRA[distanceSymbol]);
+                copy(distance, length);
+            }
+        }
+    }
+
+    // Copies previously decompressed data (or data from the
+    // dictionary) to the end of the output
+    private void copy(int distance, int length) {
+        ensureSpace(length);
+        for (int i = 0; i < length; i++) {
+            int value;
+            if (distance > outPosition) {
+                int index = dictionary != null ? dictionary.size() - (distance - outPosition) : -1;
+                if (index < 0) {
+                    throw new IllegalArgumentException("Distance too far back");
+                }
+                value = dictionary.get(index);
+            } else {
+                value = out.get(outPosition - distance);
+            }
+            out.set(outPosition++, value);
+        }
+    }
+
+    private void ensureSpace(int size) {
+        if (outPosition + size <= out.size()) {
+            return;
+        }
+        UByteBuffer newOut = Platform.alloc().ubyteBuffer(
+                MathUtils.nextPowerOfTwo(outPosition + size));
+        newOut.set(0, out);
+        out = newOut;
+    }
+
+    private int decode(Huffman huffman) {
+        int code = 0;
+        int first = 0;
+        int index = 0;
+        for (int length = 1; length < 16; length++) {
+            code |= bits(1);
+            int count = huffman.counts[length];
+            if (code - count < first) {
+                return huffman.symbols[index + (code - first)];
+            }
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new IllegalArgumentException("Invalid code");
+    }
+
+    private int bits(int count) {
+        while (bitCount < count) {
+            if (inPosition >= in.size()) {
+                throw new IllegalArgumentException("Unexpected end of stream");
+            }
+            bitBuffer |= in.get(inPosition++) << bitCount;
+            bitCount += 8;
+        }
+        int value = bitBuffer & ((1 << count) - 1);
+        bitBuffer >>>= count;
+        bitCount -= count;
+        return value;
+    }
+
+    private static void createFixed() {
+        int[] lengths = new int[288];
+        for (int i = 0; i < 288; i++) {
+            lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        int[] distances = new int[30];
+        for (int i = 0; i < 30; i++) {
+            distances[i] = 5;
+        }
+        fixedDistances = new Huffman(distances, 0, 30);
+        fixedLengths = new Huffman(lengths, 0, 288);
+    }
+
+    // A canonical huffman code
+    private static class Huffman {
+        private final int[] counts = new int[16];
+        private final int[] symbols;
+
+        Huffman(int[] lengths, int offset, int size) {
+            symbols = new int[size];
+            for (int i = 0; i < size; i++) {
+                counts[lengths[offset + i]]++;
+            }
+            counts[0] = 0;
+            int[] offsets = new int[16];
+            for (int i = 1; i < 15; i++) {
+                offsets[i + 1] = offsets[i] + counts[i];
+            }
+            for (int i = 0; i < size; i++) {
+                if (lengths[offset + i] != 0) {
+                    symbols[offsets[lengths[offset + i]]++] = i;
+                }
+            }
+        }
+    }
+}
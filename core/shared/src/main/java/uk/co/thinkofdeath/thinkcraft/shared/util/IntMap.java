@@ -75,7 +75,7 @@ public class IntMap<T> implements Iterable<T> {
     public void put(int key, T value) {
         if (key >= values.length) {
             Object[] old = values;
-            values = new Object[MathUtils.nextPowerOfTwo(key)];
+            values = new Object[MathUtils.nextPowerOfTwo(key + 1)];
             System.arraycopy(old, 0, values, 0, old.length);
         }
         if (values[key] == null) {
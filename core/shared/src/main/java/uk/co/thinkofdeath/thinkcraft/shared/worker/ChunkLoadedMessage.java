@@ -32,8 +32,10 @@ public class ChunkLoadedMessage extends WorkerMessage {
     private int z;
     private Section[] sections = new Section[16];
     private List<BlockMapping> mappingList = new ArrayList<>();
-    private int nextId;
     private int[] biomes = new int[256];
+    private int hiddenSections;
+    private int pendingSections;
+    private boolean remapped;
 
     ChunkLoadedMessage() {
     }
@@ -85,17 +87,46 @@ public class ChunkLoadedMessage extends WorkerMessage {
     }
 
     /**
-     * Sets the next block id for this chunk
+     * Sets the mask of sections that the server left out
      *
-     * @param nextId
-     *         The next id
+     * @param hiddenSections
+     *         The hidden sections
      */
-    public void setNextId(int nextId) {
-        this.nextId = nextId;
+    public void setHiddenSections(int hiddenSections) {
+        this.hiddenSections = hiddenSections;
     }
 
-    public int getNextId() {
-        return nextId;
+    public int getHiddenSections() {
+        return hiddenSections;
+    }
+
+    /**
+     * Sets the mask of sections that haven't been loaded yet
+     *
+     * @param pendingSections
+     *         The pending sections
+     */
+    public void setPendingSections(int pendingSections) {
+        this.pendingSections = pendingSections;
+    }
+
+    public int getPendingSections() {
+        return pendingSections;
+    }
+
+    public void setRemapped(boolean remapped) {
+        this.remapped = remapped;
+    }
+
+    /**
+     * Returns whether the worker changed the ids of the blocks since
+     * the chunk was last sent, the sections already loaded have to
+     * be changed to the new ids
+     *
+     * @return Whether the ids were changed
+     */
+    public boolean isRemapped() {
+        return remapped;
     }
 
     public int[] getBiomes() {
@@ -115,7 +146,7 @@ public class ChunkLoadedMessage extends WorkerMessage {
      *         The block
      */
     public void addIdBlockMapping(int key, Block value) {
-        mappingList.add(new BlockMapping(key, value.getFullName(), value.getRawState()));
+        mappingList.add(new BlockMapping(key, value.getStateId()));
     }
 
     public List<BlockMapping> getMappingList() {
@@ -127,14 +158,15 @@ public class ChunkLoadedMessage extends WorkerMessage {
         super.serialize(serializer);
         serializer.putInt("x", x);
         serializer.putInt("z", z);
-        serializer.putInt("nextId", nextId);
+        serializer.putInt("hiddenSections", hiddenSections);
+        serializer.putInt("pendingSections", pendingSections);
+        serializer.putBoolean("remapped", remapped);
 
         SerializerArraySerializer ms = Platform.workerSerializers().createSerializerArray();
         for (BlockMapping mapping : mappingList) {
             Serializer ss = Platform.workerSerializers().create();
             ss.putInt("id", mapping.getId());
-            ss.putString("name", mapping.getFullName());
-            ss.putInt("state", mapping.getRawState());
+            ss.putInt("state", mapping.getStateId());
             ms.add(ss);
         }
         serializer.putArray("idMap", ms);
@@ -164,16 +196,14 @@ public class ChunkLoadedMessage extends WorkerMessage {
         super.deserialize(serializer);
         x = serializer.getInt("x");
         z = serializer.getInt("z");
-        nextId = serializer.getInt("nextId");
+        hiddenSections = serializer.getInt("hiddenSections");
+        pendingSections = serializer.getInt("pendingSections");
+        remapped = serializer.getBoolean("remapped");
 
         SerializerArraySerializer ms = (SerializerArraySerializer) serializer.getArray("idMap");
         for (int i = 0; i < ms.size(); i++) {
             Serializer ss = ms.get(i);
-            mappingList.add(new BlockMapping(
-                    ss.getInt("id"),
-                    ss.getString("name"),
-                    ss.getInt("state")
-            ));
+            mappingList.add(new BlockMapping(ss.getInt("id"), ss.getInt("state")));
         }
 
         SerializerArraySerializer arraySerializer = (SerializerArraySerializer) serializer.getArray("sections");
@@ -219,25 +249,26 @@ public class ChunkLoadedMessage extends WorkerMessage {
 
     public static class BlockMapping {
         private final int id;
-        private final String fullName;
-        private final int rawState;
+        private final int stateId;
 
-        private BlockMapping(int id, String fullName, int rawState) {
+        private BlockMapping(int id, int stateId) {
             this.id = id;
-            this.fullName = fullName;
-            this.rawState = rawState;
+            this.stateId = stateId;
         }
 
         public int getId() {
             return id;
         }
 
-        public String getFullName() {
-            return fullName;
-        }
-
-        public int getRawState() {
-            return rawState;
+        /**
+         * Returns the state id of the block, the worker and the
+         * client share the same block registrations so the id can
+         * be used directly
+         *
+         * @return The state id
+         */
+        public int getStateId() {
+            return stateId;
         }
     }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.shared.world;
+
+import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
+
+import java.util.Arrays;
+
+/**
+ * Maps the block ids stored in a chunk's sections to blocks. The
+ * reverse lookup is an open addressed table keyed by the block's
+ * state id so adding and looking up blocks doesn't allocate.
+ * The number of times each id is used is tracked so that ids which
+ * are no longer used can be removed by {@link #compact()}
+ */
+public class BlockPalette {
+
+    // Unused ids allowed before compacting is worth remapping the
+    // sections for
+    private static final int MIN_UNUSED = 16;
+
+    private Block[] blocks = new Block[16];
+    private int[] uses = new int[16];
+    private int size;
+    // Ids other than air that have a block but no uses
+    private int unused;
+    // State id + 1 (0 marks an empty slot) -> block id
+    private int[] keys = new int[32];
+    private int[] values = new int[32];
+    private int used;
+
+    /**
+     * Creates a palette with air as the first block
+     *
+     * @param air
+     *         The block to use as id 0
+     */
+    public BlockPalette(Block air) {
+        put(0, air);
+    }
+
+    /**
+     * Returns the block with the id
+     *
+     * @param id
+     *         The block id
+     * @return The block or null
+     */
+    public Block get(int id) {
+        if (id >= size) {
+            return null;
+        }
+        return blocks[id];
+    }
+
+    /**
+     * Returns the id of the block in this palette
+     *
+     * @param block
+     *         The block to look up
+     * @return The block id or -1
+     */
+    public int indexOf(Block block) {
+        int key = block.getStateId() + 1;
+        int mask = keys.length - 1;
+        for (int slot = key & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the id of the block, adding it to the palette if
+     * needed
+     *
+     * @param block
+     *         The block to look up
+     * @return The block id
+     */
+    public int getOrAdd(Block block) {
+        int id = indexOf(block);
+        if (id == -1) {
+            id = size;
+            put(id, block);
+        }
+        return id;
+    }
+
+    /**
+     * Sets the block for the id. Used to copy another palette, if
+     * the id already has a different block that block is replaced
+     * and can no longer be looked up
+     *
+     * @param id
+     *         The block id
+     * @param block
+     *         The block
+     */
+    public void put(int id, Block block) {
+        if (id >= blocks.length) {
+            int length = Math.max(blocks.length << 1, id + 1);
+            blocks = Arrays.copyOf(blocks, length);
+            uses = Arrays.copyOf(uses, length);
+        }
+        Block old = id < size ? blocks[id] : null;
+        if (old == block) {
+            return;
+        }
+        blocks[id] = block;
+        if (id >= size) {
+            size = id + 1;
+        }
+        if (old != null) {
+            // Open addressing can't remove a single key without
+            // breaking the probe chains after it
+            rehash(keys.length);
+            return;
+        }
+        if (id != 0 && uses[id] <= 0) {
+            unused++;
+        }
+        if ((used + 1) << 1 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        insert(block.getStateId() + 1, id);
+    }
+
+    /**
+     * Records that the id gained a use
+     *
+     * @param id
+     *         The block id
+     */
+    public void addUse(int id) {
+        if (uses[id]++ == 0 && id != 0) {
+            unused--;
+        }
+    }
+
+    /**
+     * Records that the id lost a use
+     *
+     * @param id
+     *         The block id
+     */
+    public void removeUse(int id) {
+        if (--uses[id] == 0 && id != 0) {
+            unused++;
+        }
+    }
+
+    /**
+     * Returns the number of ids used by this palette, every id
+     * below this may have a block
+     *
+     * @return The number of ids
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether enough ids are unused that {@link #compact()}
+     * should be called. Only meaningful when the uses are tracked
+     *
+     * @return Whether the palette should be compacted
+     */
+    public boolean shouldCompact() {
+        return unused > MIN_UNUSED && unused << 2 > size;
+    }
+
+    /**
+     * Removes every block apart from air
+     */
+    public void clear() {
+        Arrays.fill(blocks, 1, size, null);
+        Arrays.fill(uses, 0, size, 0);
+        size = 1;
+        unused = 0;
+        rehash(keys.length);
+    }
+
+    /**
+     * Removes the blocks that are no longer used and gives the
+     * remaining blocks consecutive ids. Air always keeps id 0.
+     * The ids stored in the sections must be remapped by the caller
+     * as well
+     *
+     * @return The new id of each old id, or null if nothing was
+     * removed
+     */
+    public int[] compact() {
+        int live = 1;
+        for (int i = 1; i < size; i++) {
+            if (blocks[i] != null && uses[i] > 0) {
+                live++;
+            }
+        }
+        if (live == size) {
+            return null;
+        }
+        int[] remap = new int[size];
+        int next = 1;
+        for (int i = 1; i < size; i++) {
+            if (blocks[i] == null || uses[i] <= 0) {
+                continue;
+            }
+            remap[i] = next;
+            blocks[next] = blocks[i];
+            uses[next] = uses[i];
+            next++;
+        }
+        Arrays.fill(blocks, next, size, null);
+        Arrays.fill(uses, next, size, 0);
+        size = next;
+        unused = 0;
+        rehash(keys.length);
+        return remap;
+    }
+
+    private void insert(int key, int id) {
+        int mask = keys.length - 1;
+        int slot = key & mask;
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (keys[slot] == 0) {
+            used++;
+        }
+        keys[slot] = key;
+        values[slot] = id;
+    }
+
+    private void rehash(int length) {
+        keys = new int[length];
+        values = new int[length];
+        used = 0;
+        for (int i = 0; i < size; i++) {
+            if (blocks[i] != null) {
+                insert(blocks[i].getStateId() + 1, i);
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package uk.co.thinkofdeath.thinkcraft.shared.world;
+
+import uk.co.thinkofdeath.thinkcraft.shared.Face;
+import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
+import uk.co.thinkofdeath.thinkcraft.shared.block.BlockRegistry;
+import uk.co.thinkofdeath.thinkcraft.shared.block.Blocks;
+import uk.co.thinkofdeath.thinkcraft.shared.building.ModelBuilder;
+import uk.co.thinkofdeath.thinkcraft.shared.model.Model;
+import uk.co.thinkofdeath.thinkcraft.shared.model.PositionedModel;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.Platform;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UByteBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.ViewBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.worker.ChunkBuildReply;
+
+import java.util.ArrayList;
+
+/**
+ * A chunk loaded from the data sent by the server which can build
+ * its sections into models. Used by the web workers and by the
+ * server when it builds the models itself
+ */
+public abstract class BuildableChunk extends Chunk {
+
+    // Positions (x | z << 4 | y << 8) of the blocks in each section
+    // that can be changed by an update. Only kept between loading
+    // the sections and updating them
+    private final int[][] updateCandidates = new int[16][];
+    private final int[] updateCandidateCounts = new int[16];
+    // Set when compacting the palette changes the ids stored in the
+    // sections. Cleared by whatever the ids are shared with
+    protected boolean paletteRemapped;
+
+    protected BuildableChunk(World world, int x, int z) {
+        super(world, x, z);
+    }
+
+    @Override
+    public void setBlock(int x, int y, int z, Block block) {
+        super.setBlock(x, y, z, block);
+        // Updates keep replacing blocks, without this the ids they
+        // leave behind would never be reused
+        if (palette.shouldCompact() && compactPalette()) {
+            paletteRemapped = true;
+        }
+    }
+
+    // Loads the sections and biomes contained in the data returning
+    // the mask of the sections that were loaded
+    protected int load(UByteBuffer byteData, boolean additional) {
+        BlockRegistry blockRegistry = getWorld().getMapViewer().getBlockRegistry();
+
+        ViewBuffer dataStream = Platform.alloc().viewBuffer(byteData, false, 0, byteData.byteSize());
+
+        int flags = byteData.get(0);
+        // Bit mask of what sections actually exist in the chunk
+        int sectionMask = dataStream.getUInt16(1);
+        // Sections missing from this mask take their sky light
+        // from the heightmap instead
+        int skyMask = sectionMask;
+        int start = 3;
+        if ((flags & 0x8) != 0) {
+            skyMask = dataStream.getUInt16(3);
+            start = 5;
+        }
+
+        // Current offset into the buffer
+        int offset = 0;
+        int skyOffset = 0;
+
+        int count = Integer.bitCount(sectionMask);
+
+        // Runs of the same block are common so the last lookup
+        // is reused
+        int lastId = -1;
+        int lastBlockId = 0;
+        boolean lastUpdatable = false;
+
+        int blockDataOffset = start + 16 * 16 * 16 * 2 * count;
+        int skyDataOffset = start + 16 * 16 * 16 * 3 * count;
+        int biomeOffset = skyDataOffset + 16 * 16 * 16 * Integer.bitCount(skyMask);
+        int heightmapOffset = biomeOffset + 256;
+
+        for (int i = 0; i < 16; i++) {
+            if ((sectionMask & (1 << i)) == 0) {
+                continue;
+            }
+            boolean hasSky = (skyMask & (1 << i)) != 0;
+            ChunkSection chunkSection = sections[i] = new ChunkSection();
+            updateCandidateCounts[i] = 0;
+            int idx = 0;
+            for (int oy = 0; oy < 16; oy++) {
+                for (int oz = 0; oz < 16; oz++) {
+                    for (int ox = 0; ox < 16; ox++) {
+                        int id = dataStream.getUInt16(start + (offset << 1));
+                        int light = byteData.get(blockDataOffset + offset);
+                        int sky;
+                        if (hasSky) {
+                            sky = byteData.get(skyDataOffset + skyOffset++);
+                        } else {
+                            sky = (i << 4) + oy >= byteData.get(heightmapOffset + ox + (oz << 4)) ? 15 : 0;
+                        }
+                        offset++;
+
+                        if (id != lastId) {
+                            int stateId = blockRegistry.getStateId(id >> 4, id & 0xF);
+                            Block block = stateId != -1
+                                    ? blockRegistry.getByStateId(stateId)
+                                    : Blocks.MISSING_BLOCK();
+                            lastId = id;
+                            lastBlockId = palette.getOrAdd(block);
+                            lastUpdatable = block.isUpdatable();
+                        }
+                        palette.addUse(lastBlockId);
+                        if (lastUpdatable) {
+                            addUpdateCandidate(i, idx);
+                        }
+
+                        chunkSection.getBlocks().set(idx, lastBlockId);
+                        chunkSection.getBlockLight().set(idx, light);
+                        chunkSection.getSkyLight().set(idx, sky);
+                        idx++;
+
+                        if (lastBlockId != 0) {
+                            chunkSection.increaseCount();
+                        }
+                        if (light != 0) {
+                            chunkSection.increaseCount();
+                        }
+                        if (sky != 15) {
+                            chunkSection.increaseCount();
+                        }
+                    }
+                }
+            }
+        }
+        if (additional) {
+            // The pending mask sent with the data is relative to the
+            // request and not to what we already have
+            pendingSections &= ~sectionMask;
+            return sectionMask;
+        }
+        for (int bx = 0; bx < 16; bx++) {
+            for (int bz = 0; bz < 16; bz++) {
+                setBiome(bx, bz, Biome.getById(byteData.get(biomeOffset + bx + bz * 16)));
+            }
+        }
+        // The sections that were left out are listed after the biomes
+        // and the heightmap
+        int trailer = (flags & 0x8) != 0 ? heightmapOffset + 256 : heightmapOffset;
+        if ((flags & 0x2) != 0) {
+            hiddenSections = dataStream.getUInt16(trailer);
+            trailer += 2;
+        }
+        if ((flags & 0x4) != 0) {
+            pendingSections = dataStream.getUInt16(trailer);
+        }
+        return sectionMask;
+    }
+
+    // Records a block that needs updating once the section is loaded
+    private void addUpdateCandidate(int section, int idx) {
+        int[] candidates = updateCandidates[section];
+        int count = updateCandidateCounts[section];
+        if (candidates == null) {
+            candidates = updateCandidates[section] = new int[64];
+        } else if (count == candidates.length) {
+            int[] grown = new int[count << 1];
+            System.arraycopy(candidates, 0, grown, 0, count);
+            candidates = updateCandidates[section] = grown;
+        }
+        candidates[count] = idx;
+        updateCandidateCounts[section] = count + 1;
+    }
+
+    // Updates the blocks in and around the sections in the mask.
+    // Only blocks that can change are updated, within the sections
+    // these were recorded whilst loading and around them they are
+    // checked for
+    protected void updateSections(int mask) {
+        // The chunks around this one, the border blocks are in these
+        Chunk[] around = new Chunk[9];
+        for (int cz = -1; cz <= 1; cz++) {
+            for (int cx = -1; cx <= 1; cx++) {
+                around[(cx + 1) + (cz + 1) * 3] = getWorld().getChunk(getX() + cx, getZ() + cz);
+            }
+        }
+        // Sections loaded later also affect the sections above
+        // and below them
+        int border = mask == 0xFFFF ? 0 : 1;
+        for (int i = 0; i < 16; i++) {
+            if (sections[i] == null || (mask & (1 << i)) == 0) {
+                continue;
+            }
+            for (int oy = -border; oy < 16 + border; oy++) {
+                int y = (i << 4) + oy;
+                if (y < 0 || y > 255) {
+                    continue;
+                }
+                if (oy < 0 || oy > 15) {
+                    for (int oz = -1; oz < 17; oz++) {
+                        for (int ox = -1; ox < 17; ox++) {
+                            updateIfNeeded(around, ox, y, oz);
+                        }
+                    }
+                    continue;
+                }
+                for (int o = -1; o < 17; o++) {
+                    updateIfNeeded(around, o, y, -1);
+                    updateIfNeeded(around, o, y, 16);
+                }
+                for (int o = 0; o < 16; o++) {
+                    updateIfNeeded(around, -1, y, o);
+                    updateIfNeeded(around, 16, y, o);
+                }
+            }
+            int[] candidates = updateCandidates[i];
+            int count = updateCandidateCounts[i];
+            for (int j = 0; j < count; j++) {
+                int idx = candidates[j];
+                updateBlock(idx & 0xF, (i << 4) | (idx >> 8), (idx >> 4) & 0xF);
+            }
+            updateCandidates[i] = null;
+            updateCandidateCounts[i] = 0;
+        }
+        if (mask == 0xFFFF) {
+            // Blocks replaced by the update aren't needed anymore.
+            // Nothing has the ids yet on the first load so they can
+            // always be compacted, after that only once enough are
+            // unused (see setBlock)
+            compactPalette();
+        }
+    }
+
+    // Updates the block relative to this chunk if it can change
+    private void updateIfNeeded(Chunk[] around, int x, int y, int z) {
+        Chunk chunk = around[((x >> 4) + 1) + ((z >> 4) + 1) * 3];
+        if (chunk == null) {
+            return;
+        }
+        if (chunk.getBlock(x & 0xF, y, z & 0xF).isUpdatable()) {
+            chunk.updateBlock(x & 0xF, y, z & 0xF);
+        }
+    }
+
+    /**
+     * Builds the chunk section for rendering
+     *
+     * @param sectionNumber
+     *         The section number of build
+     * @param buildNumber
+     *         The id for this build
+     * @return The built section
+     */
+    public ChunkBuildReply build(int sectionNumber, int buildNumber) {
+        ModelBuilder builder = new ModelBuilder();
+        ModelBuilder transBuilder = new ModelBuilder();
+        ArrayList<PositionedModel> modelJsArray = new ArrayList<>();
+        SectionSnapshot snapshot = new SectionSnapshot(getWorld(), getX(), sectionNumber, getZ());
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    Block block = snapshot.getBlock((getX() << 4) + x, (sectionNumber << 4) + y, (getZ() << 4) + z);
+                    if (block.isRenderable()) {
+                        Model model = block.getModel();
+                        if (!block.isTransparent()) {
+                            model.render(builder, x, (sectionNumber << 4) + y, z, snapshot, block);
+                        } else {
+                            int start = transBuilder.getOffset();
+                            model.render(transBuilder, x, (sectionNumber << 4) + y, z, snapshot, block);
+                            int length = transBuilder.getOffset() - start;
+                            if (length > 0) {
+                                modelJsArray.add(new PositionedModel(
+                                                x, (sectionNumber << 4) + y, z, start,
+                                                length)
+                                );
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        // Compute face access
+        updateSideAccess(sectionNumber);
+
+        // Trimmed to what was actually built
+        UByteBuffer data = Platform.alloc().ubyteBuffer(builder.toTypedArray(), 0, builder.getOffset());
+        UByteBuffer transData = Platform.alloc().ubyteBuffer(transBuilder.toTypedArray(), 0, transBuilder.getOffset());
+        int[] accessData = sections[sectionNumber].getSideAccess();
+        return new ChunkBuildReply(
+                getX(), getZ(), sectionNumber, buildNumber,
+                accessData, data,
+                transData, modelJsArray
+        );
+    }
+
+    private void updateSideAccess(int sectionNumber) {
+        ChunkSection section = sections[sectionNumber];
+        Face[] faces = Face.values();
+        for (int i = 0; i < faces.length; i++) {
+            section.getSideAccess()[i] = 0;
+        }
+        boolean[] checked = new boolean[16 * 16 * 16];
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    int key = keyBlockSection(x, y, z);
+                    if (checked[key]) {
+                        continue;
+                    }
+                    Block block = getBlock(x, (sectionNumber << 4) + y, z);
+                    if (!block.isRenderable() || !block.isSolid()) {
+                        int[] toCheck = new int[16 * 16 * 16];
+                        int pointer = 0;
+                        toCheck[pointer++] = key;
+                        checked[key] = true;
+                        boolean[] visitedFaces = new boolean[faces.length];
+                        while (pointer > 0) {
+                            int val = toCheck[--pointer];
+                            int bx = val & 0xF;
+                            int bz = (val >> 4) & 0xF;
+                            int by = val >> 8;
+
+                            if (bx == 0) {
+                                visitedFaces[Face.RIGHT.ordinal()] = true;
+                            } else if (bx == 15) {
+                                visitedFaces[Face.LEFT.ordinal()] = true;
+                            }
+                            if (by == 0) {
+                                visitedFaces[Face.BOTTOM.ordinal()] = true;
+                            } else if (by == 15) {
+                                visitedFaces[Face.TOP.ordinal()] = true;
+                            }
+                            if (bz == 0) {
+                                visitedFaces[Face.BACK.ordinal()] = true;
+                            } else if (bz == 15) {
+                                visitedFaces[Face.FRONT.ordinal()] = true;
+                            }
+
+                            int nKey;
+                            // X
+                            if (bx > 0 && !checked[nKey = keyBlockSection(bx - 1, by, bz)]) {
+                                Block b = getBlock(bx - 1, (sectionNumber << 4) + by, bz);
+                                if (!b.isRenderable() || !b.isSolid()) {
+                                    toCheck[pointer++] = nKey;
+                                }
+                                checked[nKey] = true;
+                            }
+                            if (bx < 15 && !checked[nKey = keyBlockSection(bx + 1, by, bz)]) {
+                                Block b = getBlock(bx + 1, (sectionNumber << 4) + by, bz);
+                                if (!b.isRenderable() || !b.isSolid()) {
+                                    checked[nKey] = true;
+                                    toCheck[pointer++] = nKey;
+                                }
+                                checked[nKey] = true;
+                            }
+                            // Y
+                            if (by > 0 && !checked[nKey = keyBlockSection(bx, by - 1, bz)]) {
+                                Block b = getBlock(bx, (sectionNumber << 4) + by - 1, bz);
+                                if (!b.isRenderable() || !b.isSolid()) {
+                                    toCheck[pointer++] = nKey;
+                                }
+                                checked[nKey] = true;
+                            }
+                            if (by < 15 && !checked[nKey = keyBlockSection(bx, by + 1, bz)]) {
+                                Block b = getBlock(bx, (sectionNumber << 4) + by + 1, bz);
+                                if (!b.isRenderable() || !b.isSolid()) {
+                                    checked[nKey] = true;
+                                    toCheck[pointer++] = nKey;
+                                }
+                                checked[nKey] = true;
+                            }
+                            // Z
+                            if (bz > 0 && !checked[nKey = keyBlockSection(bx, by, bz - 1)]) {
+                                Block b = getBlock(bx, (sectionNumber << 4) + by, bz - 1);
+                                if (!b.isRenderable() || !b.isSolid()) {
+                                    toCheck[pointer++] = nKey;
+                                }
+                                checked[nKey] = true;
+                            }
+                            if (bz < 15 && !checked[nKey = keyBlockSection(bx, by, bz + 1)]) {
+                                Block b = getBlock(bx, (sectionNumber << 4) + by, bz + 1);
+                                if (!b.isRenderable() || !b.isSolid()) {
+                                    checked[nKey] = true;
+                                    toCheck[pointer++] = nKey;
+                                }
+                                checked[nKey] = true;
+                            }
+                        }
+                        for (int i = 0; i < visitedFaces.length; i++) {
+                            if (visitedFaces[i]) {
+                                Face face = faces[i];
+                                for (int j = 0; j < visitedFaces.length; j++) {
+                                    if (visitedFaces[j]) {
+                                        Face other = faces[j];
+                                        section.setSideAccess(face, other, true);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static int keyBlockSection(int x, int y, int z) {
+        return x | (z << 4) | (y << 8);
+    }
+}
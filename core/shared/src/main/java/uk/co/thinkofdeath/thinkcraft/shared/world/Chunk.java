@@ -18,33 +18,29 @@ package uk.co.thinkofdeath.thinkcraft.shared.world;
 
 import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
 import uk.co.thinkofdeath.thinkcraft.shared.block.Blocks;
-import uk.co.thinkofdeath.thinkcraft.shared.util.IntMap;
-
-import java.util.HashMap;
-import java.util.Map;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UShortBuffer;
 
 public abstract class Chunk {
 
     protected final ChunkSection[] sections = new ChunkSection[16];
-    // TODO: Fix the leaking as the blocks are never removed
-    // from these maps
-    protected final Map<Block, Integer> blockIdMap = new HashMap<>();
-    protected final IntMap<Block> idBlockMap = new IntMap<>();
+    // Always has air as the first block
+    protected final BlockPalette palette = new BlockPalette(Blocks.AIR());
     private final World world;
-    protected int nextId = 1;
     private int x;
     private int z;
     private boolean unloaded = false;
     protected int[] biomes = new int[256];
+    // Sections left out by the server as they can't be seen from
+    // the surface. These are treated as solid
+    protected int hiddenSections;
+    // Sections that exist on the server but haven't been requested
+    // yet. These are treated as solid until they are loaded
+    protected int pendingSections;
 
     protected Chunk(World world, int x, int z) {
         this.world = world;
         this.x = x;
         this.z = z;
-
-        // Always have air as the first block
-        blockIdMap.put(Blocks.AIR(), 0);
-        idBlockMap.put(0, Blocks.AIR());
     }
 
     /**
@@ -116,9 +112,12 @@ public abstract class Chunk {
     public Block getBlock(int x, int y, int z) {
         ChunkSection section = sections[y >> 4];
         if (section == null) {
+            if (((hiddenSections | pendingSections) & (1 << (y >> 4))) != 0) {
+                return Blocks.NULL_BLOCK();
+            }
             return Blocks.AIR();
         }
-        return idBlockMap.get(section.getBlocks().get(x | (z << 4) | ((y & 0xF) << 8)));
+        return palette.get(section.getBlocks().get(x | (z << 4) | ((y & 0xF) << 8)));
     }
 
     public void setBlock(int x, int y, int z, Block block) {
@@ -129,13 +128,33 @@ public abstract class Chunk {
             }
             section = sections[y >> 4] = new ChunkSection();
         }
-        if (!blockIdMap.containsKey(block)) {
-            idBlockMap.put(nextId, block);
-            blockIdMap.put(block, nextId);
-            nextId++;
+        int idx = x | (z << 4) | ((y & 0xF) << 8);
+        int id = palette.getOrAdd(block);
+        palette.removeUse(section.getBlocks().get(idx));
+        palette.addUse(id);
+        section.getBlocks().set(idx, id);
+    }
+
+    /**
+     * Removes the blocks from the palette that are no longer used
+     * by any section. This changes the ids stored in the sections
+     * so anything they were shared with must be told
+     *
+     * @return Whether any ids were changed
+     */
+    protected boolean compactPalette() {
+        int[] remap = palette.compact();
+        if (remap == null) {
+            return false;
+        }
+        for (ChunkSection section : sections) {
+            if (section == null) continue;
+            UShortBuffer blocks = section.getBlocks();
+            for (int i = 0; i < 16 * 16 * 16; i++) {
+                blocks.set(i, remap[blocks.get(i)]);
+            }
         }
-        int id = blockIdMap.get(block);
-        section.getBlocks().set(x | (z << 4) | ((y & 0xF) << 8), id);
+        return true;
     }
 
     /**
@@ -171,7 +190,7 @@ public abstract class Chunk {
     public int getSkyLight(int x, int y, int z) {
         ChunkSection section = sections[y >> 4];
         if (section == null) {
-            return 15;
+            return ((hiddenSections | pendingSections) & (1 << (y >> 4))) != 0 ? 0 : 15;
         }
         return section.getSkyLight().get(x | (z << 4) | ((y & 0xF) << 8));
     }
@@ -197,6 +216,30 @@ public abstract class Chunk {
         return sections[i] != null;
     }
 
+    /**
+     * Returns whether the section was left out by the server as
+     * it can't be seen from the surface
+     *
+     * @param i
+     *         The section number
+     * @return Whether the section is hidden
+     */
+    public boolean isSectionHidden(int i) {
+        return (hiddenSections & (1 << i)) != 0;
+    }
+
+    /**
+     * Returns whether the section exists but hasn't been loaded
+     * yet
+     *
+     * @param i
+     *         The section number
+     * @return Whether the section is pending
+     */
+    public boolean isSectionPending(int i) {
+        return (pendingSections & (1 << i)) != 0;
+    }
+
     public ChunkSection getSection(int y) {
         return sections[y];
     }
@@ -0,0 +1,324 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.shared.world;
+
+import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
+import uk.co.thinkofdeath.thinkcraft.shared.block.Blocks;
+
+import java.util.Arrays;
+
+/**
+ * A copy of the blocks, light and biomes in and around a chunk section
+ * taken before the section is built. Building reads the neighbours of
+ * every block several times, reading them from here avoids looking up
+ * the chunk for each read.
+ * <p>
+ * The copy extends {@link #PADDING} blocks past the section on every
+ * side as smooth lighting samples up to two blocks away. Reads outside
+ * of the copy fall back to the world. Positions are in world
+ * coordinates like the methods in {@link World}
+ */
+public class SectionSnapshot {
+
+    /**
+     * The number of blocks copied past each side of the section
+     */
+    public static final int PADDING = 2;
+    private static final int SIZE = 16 + PADDING * 2;
+
+    private final World world;
+    private final int chunkX;
+    private final int chunkZ;
+    // World position of the first copied block
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+
+    // Indexed by x + z * SIZE + y * SIZE * SIZE
+    private final Block[] blocks = new Block[SIZE * SIZE * SIZE];
+    private final byte[] emittedLight = new byte[SIZE * SIZE * SIZE];
+    private final byte[] skyLight = new byte[SIZE * SIZE * SIZE];
+    // Indexed by x + z * SIZE
+    private final Biome[] biomes = new Biome[SIZE * SIZE];
+    // Blended biome colours for the columns of the section, filled
+    // in as they are used (-1 if not yet)
+    private final int[] grassColours = new int[16 * 16];
+    private final int[] foliageColours = new int[16 * 16];
+    // Light summed over the 2x2x2 boxes used by smooth lighting,
+    // indexed by the box's lowest corner like the block arrays but
+    // one smaller in each direction. Filled in as they are used
+    // (-1 if not yet), allocated on first use
+    private int[] lightSums;
+    private int[] shadeSums;
+
+    /**
+     * Copies the section and the blocks around it from the world
+     *
+     * @param world
+     *         The world to copy from
+     * @param chunkX
+     *         The x position of the chunk containing the section
+     * @param sectionY
+     *         The section number
+     * @param chunkZ
+     *         The z position of the chunk containing the section
+     */
+    public SectionSnapshot(World world, int chunkX, int sectionY, int chunkZ) {
+        this.world = world;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        minX = (chunkX << 4) - PADDING;
+        minY = (sectionY << 4) - PADDING;
+        minZ = (chunkZ << 4) - PADDING;
+        Arrays.fill(grassColours, -1);
+        Arrays.fill(foliageColours, -1);
+
+        // Each chunk is only looked up once
+        for (int cz = -1; cz <= 1; cz++) {
+            for (int cx = -1; cx <= 1; cx++) {
+                Chunk chunk = world.getChunk(chunkX + cx, chunkZ + cz);
+                int startX = Math.max(0, (cx << 4) + PADDING);
+                int endX = Math.min(SIZE, (cx << 4) + 16 + PADDING);
+                int startZ = Math.max(0, (cz << 4) + PADDING);
+                int endZ = Math.min(SIZE, (cz << 4) + 16 + PADDING);
+                copy(chunk, startX, endX, startZ, endZ);
+            }
+        }
+    }
+
+    // Copies the part of the snapshot within the chunk
+    private void copy(Chunk chunk, int startX, int endX, int startZ, int endZ) {
+        for (int z = startZ; z < endZ; z++) {
+            for (int x = startX; x < endX; x++) {
+                int bx = (minX + x) & 0xF;
+                int bz = (minZ + z) & 0xF;
+                biomes[x + z * SIZE] = chunk != null ? chunk.getBiome(bx, bz) : Biome.INVALID;
+                for (int y = 0; y < SIZE; y++) {
+                    int idx = x + z * SIZE + y * SIZE * SIZE;
+                    int by = minY + y;
+                    if (by < 0 || by > 255) {
+                        blocks[idx] = Blocks.AIR();
+                        skyLight[idx] = 15;
+                    } else if (chunk == null) {
+                        blocks[idx] = Blocks.NULL_BLOCK();
+                        skyLight[idx] = 15;
+                    } else {
+                        blocks[idx] = chunk.getBlock(bx, by, bz);
+                        emittedLight[idx] = (byte) chunk.getEmittedLight(bx, by, bz);
+                        skyLight[idx] = (byte) chunk.getSkyLight(bx, by, bz);
+                    }
+                }
+            }
+        }
+    }
+
+    // Returns the index of the position or -1 if it wasn't copied
+    private int index(int x, int y, int z) {
+        x -= minX;
+        y -= minY;
+        z -= minZ;
+        if (x < 0 || x >= SIZE || y < 0 || y >= SIZE || z < 0 || z >= SIZE) {
+            return -1;
+        }
+        return x + z * SIZE + y * SIZE * SIZE;
+    }
+
+    /**
+     * Returns the block at the location
+     *
+     * @param x
+     *         The position of the block on the x axis
+     * @param y
+     *         The position of the block on the y axis
+     * @param z
+     *         The position of the block on the z axis
+     * @return The block at the location
+     */
+    public Block getBlock(int x, int y, int z) {
+        int idx = index(x, y, z);
+        if (idx == -1) {
+            return world.getBlock(x, y, z);
+        }
+        return blocks[idx];
+    }
+
+    /**
+     * Returns the emitted light at the location
+     *
+     * @param x
+     *         The position of the block on the x axis
+     * @param y
+     *         The position of the block on the y axis
+     * @param z
+     *         The position of the block on the z axis
+     * @return The emitted light at the location
+     */
+    public int getEmittedLight(int x, int y, int z) {
+        int idx = index(x, y, z);
+        if (idx == -1) {
+            return world.getEmittedLight(x, y, z);
+        }
+        return emittedLight[idx];
+    }
+
+    /**
+     * Returns the sky light at the location
+     *
+     * @param x
+     *         The position of the block on the x axis
+     * @param y
+     *         The position of the block on the y axis
+     * @param z
+     *         The position of the block on the z axis
+     * @return The sky light at the location
+     */
+    public int getSkyLight(int x, int y, int z) {
+        int idx = index(x, y, z);
+        if (idx == -1) {
+            return world.getSkyLight(x, y, z);
+        }
+        return skyLight[idx];
+    }
+
+    /**
+     * Returns the light summed over the 2x2x2 blocks starting at the
+     * location, packed as the emitted light in the lowest 8 bits and
+     * the sky light in the next 8. Used for smooth lighting, where
+     * neighbouring vertices share most of their boxes.
+     * <p>
+     * When shading the sky light counts 15 for each block that
+     * isn't renderable instead of the stored value
+     *
+     * @param x
+     *         The lowest position of the box on the x axis
+     * @param y
+     *         The lowest position of the box on the y axis
+     * @param z
+     *         The lowest position of the box on the z axis
+     * @param shade
+     *         Whether to count the sky light by renderable blocks
+     * @return The packed light
+     */
+    public int getLightSum(int x, int y, int z, boolean shade) {
+        int ox = x - minX;
+        int oy = y - minY;
+        int oz = z - minZ;
+        int size = SIZE - 1;
+        if (ox < 0 || ox >= size || oy < 0 || oy >= size || oz < 0 || oz >= size) {
+            return sumLight(x, y, z, shade);
+        }
+        int[] cache = shade ? shadeSums : lightSums;
+        if (cache == null) {
+            cache = new int[size * size * size];
+            Arrays.fill(cache, -1);
+            if (shade) {
+                shadeSums = cache;
+            } else {
+                lightSums = cache;
+            }
+        }
+        int idx = ox + oz * size + oy * size * size;
+        if (cache[idx] == -1) {
+            int emitted = 0;
+            int sky = 0;
+            for (int by = 0; by < 2; by++) {
+                for (int bz = 0; bz < 2; bz++) {
+                    for (int bx = 0; bx < 2; bx++) {
+                        int bidx = (ox + bx) + (oz + bz) * SIZE + (oy + by) * SIZE * SIZE;
+                        emitted += emittedLight[bidx];
+                        if (!shade) {
+                            sky += skyLight[bidx];
+                        } else if (!blocks[bidx].isRenderable()) {
+                            sky += 15;
+                        }
+                    }
+                }
+            }
+            cache[idx] = emitted | (sky << 8);
+        }
+        return cache[idx];
+    }
+
+    // Sums the light of a box that isn't fully within the copy
+    private int sumLight(int x, int y, int z, boolean shade) {
+        int emitted = 0;
+        int sky = 0;
+        for (int by = 0; by < 2; by++) {
+            for (int bz = 0; bz < 2; bz++) {
+                for (int bx = 0; bx < 2; bx++) {
+                    emitted += getEmittedLight(x + bx, y + by, z + bz);
+                    if (!shade) {
+                        sky += getSkyLight(x + bx, y + by, z + bz);
+                    } else if (!getBlock(x + bx, y + by, z + bz).isRenderable()) {
+                        sky += 15;
+                    }
+                }
+            }
+        }
+        return emitted | (sky << 8);
+    }
+
+    /**
+     * Returns the biome at the location
+     *
+     * @param x
+     *         The position of the block on the x axis
+     * @param z
+     *         The position of the block on the z axis
+     * @return The biome at the location
+     */
+    public Biome getBiome(int x, int z) {
+        int ox = x - minX;
+        int oz = z - minZ;
+        if (ox < 0 || ox >= SIZE || oz < 0 || oz >= SIZE) {
+            return world.getBiome(x, z);
+        }
+        return biomes[ox + oz * SIZE];
+    }
+
+    /**
+     * Returns the cache of blended biome colours for the columns of
+     * the section, indexed by x | z << 4 relative to the chunk.
+     * Entries that haven't been worked out yet are -1
+     *
+     * @param foliage
+     *         Whether to return the foliage colours instead of the
+     *         grass colours
+     * @return The colour cache
+     */
+    public int[] getColourCache(boolean foliage) {
+        return foliage ? foliageColours : grassColours;
+    }
+
+    /**
+     * Returns the x position of the chunk the section is in
+     *
+     * @return The chunk's x position
+     */
+    public int getChunkX() {
+        return chunkX;
+    }
+
+    /**
+     * Returns the z position of the chunk the section is in
+     *
+     * @return The chunk's z position
+     */
+    public int getChunkZ() {
+        return chunkZ;
+    }
+}
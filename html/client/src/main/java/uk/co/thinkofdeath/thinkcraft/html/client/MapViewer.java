@@ -21,6 +21,7 @@ import com.google.gwt.core.client.EntryPoint;
 import elemental.client.Browser;
 import elemental.events.Event;
 import elemental.events.EventListener;
+import elemental.html.ArrayBuffer;
 import elemental.html.CanvasElement;
 import elemental.html.ImageElement;
 import elemental.js.util.Json;
@@ -34,6 +35,7 @@ import uk.co.thinkofdeath.thinkcraft.html.client.texture.VirtualTexture;
 import uk.co.thinkofdeath.thinkcraft.html.client.worker.WorkerPool;
 import uk.co.thinkofdeath.thinkcraft.html.client.world.ClientWorld;
 import uk.co.thinkofdeath.thinkcraft.html.shared.JavascriptLib;
+import uk.co.thinkofdeath.thinkcraft.html.shared.buffer.JavascriptUByteBuffer;
 import uk.co.thinkofdeath.thinkcraft.html.shared.serialize.JsObjectSerializer;
 import uk.co.thinkofdeath.thinkcraft.html.shared.settings.ClientSettings;
 import uk.co.thinkofdeath.thinkcraft.protocol.ServerPacketHandler;
@@ -41,6 +43,7 @@ import uk.co.thinkofdeath.thinkcraft.protocol.packets.KeepAlive;
 import uk.co.thinkofdeath.thinkcraft.protocol.packets.ServerSettings;
 import uk.co.thinkofdeath.thinkcraft.protocol.packets.SpawnPosition;
 import uk.co.thinkofdeath.thinkcraft.protocol.packets.TimeUpdate;
+import uk.co.thinkofdeath.thinkcraft.protocol.packets.ViewerInterest;
 import uk.co.thinkofdeath.thinkcraft.shared.IMapViewer;
 import uk.co.thinkofdeath.thinkcraft.shared.Texture;
 import uk.co.thinkofdeath.thinkcraft.shared.TextureMap;
@@ -71,6 +74,7 @@ public class MapViewer implements EntryPoint, EventListener, ServerPacketHandler
     private final MessageHandler messageHandler = new WorkerMessageHandler(this);
 
     private ClientSettings clientSettings;
+    private boolean serverMeshing;
 
     private HashMap<String, Texture> textures = new HashMap<>();
     private VirtualTexture[] virtualTextures;
@@ -82,6 +86,12 @@ public class MapViewer implements EntryPoint, EventListener, ServerPacketHandler
     private ClientWorld world;
     private boolean shouldUpdateWorld = false;
     private double lastKeepAlive = Duration.currentTimeMillis();
+    private int lastChunkX = Integer.MIN_VALUE;
+    private int lastChunkZ = Integer.MIN_VALUE;
+    private int lastHeading;
+    // Where the camera starts in static mode, applied once the
+    // dictionary has loaded as every exported chunk needs it
+    private SpawnPosition staticSpawn;
 
     private int noTextures;
     ArrayList<TextureLoadHandler> earlyTextures = new ArrayList<>();
@@ -95,7 +105,7 @@ public class MapViewer implements EntryPoint, EventListener, ServerPacketHandler
         if (!featureHandler.detect()) return;
         // Atlas to look up position of textures
         xhr = Browser.getWindow().newXMLHttpRequest();
-        xhr.open("GET", "http://" + getConfigAdddress() + "/resources/blocks.json", true);
+        xhr.open("GET", getUrl("resources/blocks.json"), true);
         xhr.setOnload(this);
         xhr.send();
 
@@ -107,10 +117,30 @@ public class MapViewer implements EntryPoint, EventListener, ServerPacketHandler
                     lastKeepAlive = Duration.currentTimeMillis();
                     connection.send(new KeepAlive());
                 }
+                sendInterest();
             }
         }, 1000);
     }
 
+    // Tells the server when the camera moves into another chunk
+    // or turns so it knows which chunks this viewer can see and
+    // can prepare the chunks in the direction of travel. Only
+    // called once a second to limit the traffic
+    private void sendInterest() {
+        if (renderer == null) return;
+        Camera camera = getCamera();
+        int cx = (int) Math.floor(camera.getX()) >> 4;
+        int cz = (int) Math.floor(camera.getZ()) >> 4;
+        int heading = (int) Math.floor(camera.getRotationY() / (Math.PI * 2) * 256) & 0xFF;
+        int turned = Math.abs(heading - lastHeading);
+        if (cx != lastChunkX || cz != lastChunkZ || Math.min(turned, 256 - turned) >= 16) {
+            lastChunkX = cx;
+            lastChunkZ = cz;
+            lastHeading = heading;
+            connection.send(new ViewerInterest(cx, cz, VIEW_DISTANCE, heading));
+        }
+    }
+
     /**
      * Internal method
      *
@@ -138,14 +168,76 @@ public class MapViewer implements EntryPoint, EventListener, ServerPacketHandler
                 ImageElement texture = imageElements[i] = (ImageElement) Browser.getDocument().createElement("img");
                 texture.setOnload(new TextureLoadHandler(this, i, texture));
                 texture.setCrossOrigin("anonymous");
-                texture.setSrc("http://" + getConfigAdddress() + "/resources/blocks_" + i + ".png");
+                texture.setSrc(getUrl("resources/blocks_" + i + ".png"));
             }
             inputManager.hook();
 
-            connection = new Connection(getConfigAdddress(), this, null);
+            if (isStaticMode()) {
+                loadManifest();
+            } else {
+                connection = new Connection(getConfigAdddress(), this, null);
+            }
         }
     }
 
+    // Static exports have no server to talk to, the settings the
+    // server would send are read from the export's manifest instead
+    private void loadManifest() {
+        final XMLHttpRequest request = Browser.getWindow().newXMLHttpRequest();
+        request.open("GET", getUrl("manifest.json"), true);
+        request.setOnload(new EventListener() {
+            @Override
+            public void handleEvent(Event evt) {
+                if (request.getStatus() != 200) return;
+                JsObjectSerializer manifest = JsObjectSerializer.from(Json.parse((String) request.getResponse()));
+                staticSpawn = new SpawnPosition(
+                        manifest.getInt("spawnX"), manifest.getInt("spawnY"), manifest.getInt("spawnZ")
+                );
+                handle(new ServerSettings(manifest.getBoolean("hideOres"), manifest.getString("dictionary"), false));
+                handle(new TimeUpdate(manifest.getInt("time")));
+                if (manifest.getString("dictionary").isEmpty()) {
+                    handle(staticSpawn);
+                }
+            }
+        });
+        request.send();
+    }
+
+    /**
+     * Returns whether the viewer is showing a static export
+     * instead of talking to a server
+     *
+     * @return Whether the viewer is in static mode
+     */
+    public native boolean isStaticMode()/*-{
+        return !!$wnd.MapViewerConfig.staticMode;
+    }-*/;
+
+    /**
+     * Returns the url for the path on the map's server. Static
+     * exports are loaded relative to the page
+     *
+     * @param path
+     *         The path without a leading slash
+     * @return The url
+     */
+    public String getUrl(String path) {
+        if (isStaticMode()) {
+            return path;
+        }
+        return "http://" + getConfigAdddress() + "/" + path;
+    }
+
+    /**
+     * Returns whether chunk sections are built by the server instead
+     * of the workers
+     *
+     * @return Whether the server builds the sections
+     */
+    public boolean isServerMeshing() {
+        return serverMeshing;
+    }
+
     public int getNumberOfTextures() {
         return noTextures;
     }
@@ -182,6 +274,7 @@ public class MapViewer implements EntryPoint, EventListener, ServerPacketHandler
     @Override
     public void handle(ServerSettings serverSettings) {
         clientSettings = ClientSettings.create(serverSettings.areOresHidden());
+        serverMeshing = serverSettings.isServerMeshing();
 
         // Sync to workers
         getWorkerPool().sendMessage(new ClientSettingsMessage(clientSettings.areOresHidden()), true);
@@ -193,6 +286,30 @@ public class MapViewer implements EntryPoint, EventListener, ServerPacketHandler
         for (TextureLoadHandler handler : earlyTextures) {
             handler.load();
         }
+
+        if (!serverSettings.getDictionary().isEmpty()) {
+            loadDictionary(serverSettings.getDictionary());
+        }
+    }
+
+    // Fetches the preset dictionary used to compress chunks. Chunks
+    // are sent with gzip until it has loaded
+    private void loadDictionary(final String id) {
+        final XMLHttpRequest request = Browser.getWindow().newXMLHttpRequest();
+        request.open("GET", getUrl((isStaticMode() ? "dictionary/" : "server/dictionary/") + id), true);
+        request.setResponseType("arraybuffer");
+        request.setOnload(new EventListener() {
+            @Override
+            public void handleEvent(Event evt) {
+                if (request.getStatus() != 200) return;
+                ArrayBuffer data = (ArrayBuffer) request.getResponse();
+                world.setDictionary(id, JavascriptUByteBuffer.create(data, 0, data.getByteLength()));
+                if (staticSpawn != null) {
+                    handle(staticSpawn);
+                }
+            }
+        });
+        request.send();
     }
 
     @Override
@@ -69,6 +69,12 @@ public class WorkerMessageHandler implements MessageHandler {
     @Override
     public void handle(ChunkLoadedMessage chunkLoadedMessage) {
         ClientWorld world = (ClientWorld) mapViewer.getWorld();
+        ClientChunk existing = (ClientChunk) world.getChunk(chunkLoadedMessage.getX(), chunkLoadedMessage.getZ());
+        if (existing != null) {
+            existing.loadSections(chunkLoadedMessage);
+            world.sectionsLoaded(existing);
+            return;
+        }
         world.addChunk(new ClientChunk(world, chunkLoadedMessage));
     }
 
@@ -83,7 +83,7 @@ public class Connection implements EventListener {
 
     public void send(Packet<ClientPacketHandler> packet) {
         DataPacketStream packetStream = new DataPacketStream();
-        packetStream.writeInt(Packets.getClientPacketId(packet));
+        packetStream.writeUByte(Packets.getClientPacketId(packet));
         packet.write(packetStream);
         UByteBuffer data = packetStream.getBuffer().getArray();
         send(data);
@@ -100,9 +100,13 @@ public class Connection implements EventListener {
         MessageEvent event = (MessageEvent) evt;
 
         DataPacketStream packetStream = new DataPacketStream((ArrayBuffer) event.getData());
-        int id = packetStream.readUByte();
-        Packet<ServerPacketHandler> packet = Packets.createServerPacket(id);
-        packet.read(packetStream);
-        packet.handle(handler);
+        // The server groups packets sent at the same time into a
+        // single message
+        while (packetStream.hasRemaining()) {
+            int id = packetStream.readUByte();
+            Packet<ServerPacketHandler> packet = Packets.createServerPacket(id);
+            packet.read(packetStream);
+            packet.handle(handler);
+        }
     }
 }
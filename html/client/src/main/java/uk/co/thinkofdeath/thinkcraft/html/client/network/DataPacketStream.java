@@ -22,6 +22,8 @@ import uk.co.thinkofdeath.thinkcraft.protocol.PacketStream;
 import uk.co.thinkofdeath.thinkcraft.shared.building.DynamicBuffer;
 import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.ViewBuffer;
 
+import java.io.UnsupportedEncodingException;
+
 public class DataPacketStream implements PacketStream {
 
     private ArrayBuffer data;
@@ -46,7 +48,15 @@ public class DataPacketStream implements PacketStream {
 
     @Override
     public String readString() {
-        throw new UnsupportedOperationException("TODO");
+        byte[] bytes = new byte[readInt()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = readByte();
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
@@ -91,6 +101,15 @@ public class DataPacketStream implements PacketStream {
         return readUByte() != 0;
     }
 
+    /**
+     * Returns whether there is any data left to read
+     *
+     * @return Whether there is more data
+     */
+    public boolean hasRemaining() {
+        return readerOffset < data.getByteLength();
+    }
+
     public DynamicBuffer getBuffer() {
         return buffer;
     }
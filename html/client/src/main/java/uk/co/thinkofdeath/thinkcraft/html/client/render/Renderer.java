@@ -23,6 +23,7 @@ import uk.co.thinkofdeath.thinkcraft.html.client.debug.Debug;
 import uk.co.thinkofdeath.thinkcraft.html.client.render.shaders.ChunkShader;
 import uk.co.thinkofdeath.thinkcraft.html.client.texture.VirtualTexture;
 import uk.co.thinkofdeath.thinkcraft.html.client.world.ClientChunk;
+import uk.co.thinkofdeath.thinkcraft.html.client.world.ClientWorld;
 import uk.co.thinkofdeath.thinkcraft.html.shared.utils.JsUtils;
 import uk.co.thinkofdeath.thinkcraft.shared.Face;
 import uk.co.thinkofdeath.thinkcraft.shared.Position;
@@ -67,6 +68,8 @@ public class Renderer implements RendererUtils.ResizeHandler, Runnable {
     // Objects
     private final ChunkShader chunkShader;
     private final ChunkShader chunkShaderAlpha;
+    // Null when there is no server to provide the tiles
+    private final TerrainBackdrop backdrop;
 
     private final ArrayList<SortableRenderObject> sortableRenderObjects = new ArrayList<>();
 
@@ -114,6 +117,10 @@ public class Renderer implements RendererUtils.ResizeHandler, Runnable {
 
         chunkShader.setup(gl);
         chunkShaderAlpha.setup(gl);
+        backdrop = mapViewer.isStaticMode() ? null : new TerrainBackdrop(mapViewer, gl);
+        if (backdrop != null) {
+            backdrop.resize((float) canvas.getWidth() / canvas.getHeight());
+        }
 
         for (int i = 0; i < blockTextures.length; i++) {
             gl.activeTexture(TEXTURE0 + i);
@@ -166,6 +173,11 @@ public class Renderer implements RendererUtils.ResizeHandler, Runnable {
         combinedMatrix.multiply(perspectiveMatrix);
         frustum.fromMatrix(combinedMatrix);
 
+        if (backdrop != null) {
+            backdrop.render(camera, viewMatrix, timeScale);
+            // The chunks are always in front of the backdrop
+            gl.clear(DEPTH_BUFFER_BIT);
+        }
 
         chunkShader.use();
 
@@ -326,6 +338,15 @@ public class Renderer implements RendererUtils.ResizeHandler, Runnable {
                 continue;
             }
 
+            if (chunk.isSectionPending(position.getY())) {
+                // Fetched once it could be seen, treated as solid
+                // until then
+                ((ClientWorld) mapViewer.getWorld()).requestSection(chunk, position.getY());
+                if (!special) continue;
+            } else if (chunk.isSectionHidden(position.getY()) && !special) {
+                continue;
+            }
+
             if (renderObject != null) {
                 chunkShader.setOffset(renderObject.x, renderObject.z);
                 gl.bindBuffer(ARRAY_BUFFER, renderObject.buffer);
@@ -456,6 +477,9 @@ public class Renderer implements RendererUtils.ResizeHandler, Runnable {
         // Reset the perspective matrix
         perspectiveMatrix.identity();
         perspectiveMatrix.perspective((float) Math.toRadians(80), (float) canvas.getWidth() / canvas.getHeight(), 0.1f, 500f);
+        if (backdrop != null) {
+            backdrop.resize((float) canvas.getWidth() / canvas.getHeight());
+        }
         // TODO: toggle update
     }
 
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.html.client.render;
+
+import elemental.client.Browser;
+import elemental.events.Event;
+import elemental.events.EventListener;
+import elemental.html.ArrayBuffer;
+import elemental.html.ArrayBufferView;
+import elemental.html.WebGLBuffer;
+import elemental.html.WebGLRenderingContext;
+import elemental.xml.XMLHttpRequest;
+import uk.co.thinkofdeath.thinkcraft.html.client.MapViewer;
+import uk.co.thinkofdeath.thinkcraft.html.client.render.shaders.BackdropShader;
+import uk.co.thinkofdeath.thinkcraft.html.shared.buffer.JavascriptUByteBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.building.DynamicBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.Platform;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UByteBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.vector.Matrix4;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static elemental.html.WebGLRenderingContext.*;
+
+/**
+ * Draws the terrain beyond the loaded chunks as a low detail
+ * height field built from the server's top down map tiles. It is
+ * drawn before the chunks with its own depth range so the chunks
+ * always cover it
+ */
+public class TerrainBackdrop {
+
+    // Each pixel of a tile at this zoom covers 4x4 blocks
+    private static final int ZOOM = 2;
+    private static final int TILE_SIZE = 128;
+    private static final int TILE_BLOCKS = TILE_SIZE << ZOOM;
+    // Tiles loaded around the camera
+    private static final int RADIUS = 3;
+    // Pixels between the points of the height field
+    private static final int STEP = 4;
+    private static final int GRID = TILE_SIZE / STEP;
+    private static final int VERTEX_SIZE = 10;
+
+    private final MapViewer mapViewer;
+    private final WebGLRenderingContext gl;
+    private final BackdropShader shader = new BackdropShader();
+    private final Matrix4 perspectiveMatrix = new Matrix4();
+    private final Map<String, BackdropTile> tiles = new HashMap<>();
+    private int lastTileX = Integer.MAX_VALUE;
+    private int lastTileZ = Integer.MAX_VALUE;
+
+    /**
+     * Creates a backdrop drawing into the passed context
+     *
+     * @param mapViewer
+     *         The map viewer to load tiles for
+     * @param gl
+     *         The context to draw with
+     */
+    public TerrainBackdrop(MapViewer mapViewer, WebGLRenderingContext gl) {
+        this.mapViewer = mapViewer;
+        this.gl = gl;
+        shader.setup(gl);
+    }
+
+    /**
+     * Updates the perspective for the size of the canvas
+     *
+     * @param aspect
+     *         The aspect ratio of the canvas
+     */
+    public void resize(float aspect) {
+        perspectiveMatrix.identity();
+        perspectiveMatrix.perspective((float) Math.toRadians(80), aspect, 1f, 4000f);
+    }
+
+    /**
+     * Draws the backdrop, loading and unloading tiles as the
+     * camera moves
+     *
+     * @param camera
+     *         The camera to draw from
+     * @param viewMatrix
+     *         The view matrix of the camera
+     * @param timeScale
+     *         The time of day scale value
+     */
+    public void render(Camera camera, Matrix4 viewMatrix, float timeScale) {
+        int cx = (int) Math.floor(camera.getX());
+        int cz = (int) Math.floor(camera.getZ());
+        update((int) Math.floor(cx / (double) TILE_BLOCKS), (int) Math.floor(cz / (double) TILE_BLOCKS));
+
+        // The loaded chunks are drawn over this area
+        int minX = ((cx >> 4) - MapViewer.VIEW_DISTANCE) << 4;
+        int minZ = ((cz >> 4) - MapViewer.VIEW_DISTANCE) << 4;
+        int maxX = ((cx >> 4) + MapViewer.VIEW_DISTANCE) << 4;
+        int maxZ = ((cz >> 4) + MapViewer.VIEW_DISTANCE) << 4;
+
+        gl.disable(CULL_FACE);
+        shader.use();
+        shader.setPerspectiveMatrix(perspectiveMatrix);
+        shader.setViewMatrix(viewMatrix);
+        shader.setScale(timeScale);
+        for (BackdropTile tile : tiles.values()) {
+            if (tile.buffer == null) continue;
+            int ox = tile.x * TILE_BLOCKS;
+            int oz = tile.z * TILE_BLOCKS;
+            shader.setOffset(ox, oz);
+            shader.setHole(minX - ox, minZ - oz, maxX - ox, maxZ - oz);
+            gl.bindBuffer(ARRAY_BUFFER, tile.buffer);
+            gl.vertexAttribPointer(shader.getPosition(), 3, UNSIGNED_SHORT, false, VERTEX_SIZE, 0);
+            gl.vertexAttribPointer(shader.getColour(), 4, UNSIGNED_BYTE, true, VERTEX_SIZE, 6);
+            gl.drawArrays(TRIANGLES, 0, tile.count);
+        }
+        shader.disable();
+        gl.enable(CULL_FACE);
+    }
+
+    private void update(int tx, int tz) {
+        if (tx == lastTileX && tz == lastTileZ) {
+            return;
+        }
+        lastTileX = tx;
+        lastTileZ = tz;
+        ArrayList<String> toRemove = new ArrayList<>();
+        for (Map.Entry<String, BackdropTile> e : tiles.entrySet()) {
+            BackdropTile tile = e.getValue();
+            if (Math.abs(tile.x - tx) > RADIUS || Math.abs(tile.z - tz) > RADIUS) {
+                toRemove.add(e.getKey());
+                if (tile.buffer != null) {
+                    gl.deleteBuffer(tile.buffer);
+                    tile.buffer = null;
+                }
+                tile.removed = true;
+            }
+        }
+        for (String key : toRemove) {
+            tiles.remove(key);
+        }
+        for (int x = tx - RADIUS; x <= tx + RADIUS; x++) {
+            for (int z = tz - RADIUS; z <= tz + RADIUS; z++) {
+                String key = x + ":" + z;
+                if (!tiles.containsKey(key)) {
+                    BackdropTile tile = new BackdropTile(x, z);
+                    tiles.put(key, tile);
+                    load(tile);
+                }
+            }
+        }
+    }
+
+    private void load(final BackdropTile tile) {
+        final XMLHttpRequest request = Browser.getWindow().newXMLHttpRequest();
+        request.open("GET", mapViewer.getUrl("server/tiles/" + ZOOM + "/" + tile.x + "/" + tile.z), true);
+        request.setResponseType("arraybuffer");
+        request.setOnload(new EventListener() {
+            @Override
+            public void handleEvent(Event evt) {
+                // Missing tiles are left empty until the camera moves
+                // away and back again
+                if (tile.removed || request.getStatus() != 200) return;
+                ArrayBuffer data = (ArrayBuffer) request.getResponse();
+                build(tile, JavascriptUByteBuffer.create(data, 0, data.getByteLength()));
+            }
+        });
+        request.send();
+    }
+
+    // Builds the height field for the tile. The last row and column
+    // of points reuse the edge of the tile so neighbouring tiles meet
+    private void build(BackdropTile tile, UByteBuffer pixels) {
+        DynamicBuffer buffer = new DynamicBuffer(GRID * GRID * 6 * VERTEX_SIZE);
+        for (int gz = 0; gz < GRID; gz++) {
+            for (int gx = 0; gx < GRID; gx++) {
+                vertex(buffer, pixels, gx, gz);
+                vertex(buffer, pixels, gx, gz + 1);
+                vertex(buffer, pixels, gx + 1, gz);
+                vertex(buffer, pixels, gx + 1, gz);
+                vertex(buffer, pixels, gx, gz + 1);
+                vertex(buffer, pixels, gx + 1, gz + 1);
+            }
+        }
+        UByteBuffer data = Platform.alloc().ubyteBuffer(buffer.getArray(), 0, buffer.getOffset());
+        tile.buffer = gl.createBuffer();
+        tile.count = buffer.getOffset() / VERTEX_SIZE;
+        gl.bindBuffer(ARRAY_BUFFER, tile.buffer);
+        gl.bufferData(ARRAY_BUFFER, (ArrayBufferView) data, STATIC_DRAW);
+    }
+
+    private static void vertex(DynamicBuffer buffer, UByteBuffer pixels, int gx, int gz) {
+        int px = Math.min(gx * STEP, TILE_SIZE - 1);
+        int pz = Math.min(gz * STEP, TILE_SIZE - 1);
+        int index = (pz * TILE_SIZE + px) << 2;
+        int height = pixels.get(index + 3);
+        // Shade slopes facing away from the north west so the
+        // shape of the terrain shows
+        int west = pixels.get(((pz * TILE_SIZE + Math.max(px - STEP, 0)) << 2) + 3);
+        int north = pixels.get(((Math.max(pz - STEP, 0) * TILE_SIZE + px) << 2) + 3);
+        float shade = 1.0f;
+        if (west != 0 && north != 0) {
+            shade = Math.max(0.6f, Math.min(1.2f, 1.0f + ((height - west) + (height - north)) * 0.03f));
+        }
+        buffer.addUnsignedShort(gx * (TILE_BLOCKS / GRID));
+        buffer.addUnsignedShort(height);
+        buffer.addUnsignedShort(gz * (TILE_BLOCKS / GRID));
+        buffer.add(Math.min(255, (int) (pixels.get(index) * shade)));
+        buffer.add(Math.min(255, (int) (pixels.get(index + 1) * shade)));
+        buffer.add(Math.min(255, (int) (pixels.get(index + 2) * shade)));
+        buffer.add(height == 0 ? 0 : 255);
+    }
+
+    private static class BackdropTile {
+        private final int x;
+        private final int z;
+        private WebGLBuffer buffer;
+        private int count;
+        private boolean removed;
+
+        private BackdropTile(int x, int z) {
+            this.x = x;
+            this.z = z;
+        }
+    }
+}
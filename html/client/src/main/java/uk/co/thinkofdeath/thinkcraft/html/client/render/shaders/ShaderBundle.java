@@ -29,4 +29,10 @@ public interface ShaderBundle extends ClientBundle {
 
     @Source("chunk_fragment.glsl")
     public TextResource chunkFragmentShader();
+
+    @Source("backdrop_vertex.glsl")
+    public TextResource backdropVertexShader();
+
+    @Source("backdrop_fragment.glsl")
+    public TextResource backdropFragmentShader();
 }
@@ -0,0 +1,15 @@
+precision mediump float;
+
+uniform float scale;
+// The area covered by loaded chunks (relative to the tile)
+uniform vec4 hole;
+
+varying vec4 vColour;
+varying vec2 vPosition;
+
+void main(void) {
+    if (vColour.a < 0.5) discard;
+    if (vPosition.x >= hole.x && vPosition.x < hole.z
+        && vPosition.y >= hole.y && vPosition.y < hole.w) discard;
+    gl_FragColor = vec4(vColour.rgb * clamp(scale, 0.2, 1.0), 1.0);
+}
\ No newline at end of file
@@ -0,0 +1,17 @@
+precision mediump float;
+
+attribute vec3 position;
+attribute vec4 colour;
+
+uniform mat4 pMatrix;
+uniform mat4 uMatrix;
+uniform vec2 offset;
+
+varying vec4 vColour;
+varying vec2 vPosition;
+
+void main(void) {
+    gl_Position = pMatrix * uMatrix * vec4(position + vec3(offset.x, 0.0, offset.y), 1.0);
+    vColour = colour;
+    vPosition = position.xz;
+}
\ No newline at end of file
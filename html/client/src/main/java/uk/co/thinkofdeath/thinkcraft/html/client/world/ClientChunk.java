@@ -21,6 +21,7 @@ import uk.co.thinkofdeath.thinkcraft.html.client.render.SortableRenderObject;
 import uk.co.thinkofdeath.thinkcraft.shared.block.Block;
 import uk.co.thinkofdeath.thinkcraft.shared.model.PositionedModel;
 import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UByteBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UShortBuffer;
 import uk.co.thinkofdeath.thinkcraft.shared.worker.ChunkLoadedMessage;
 import uk.co.thinkofdeath.thinkcraft.shared.world.Chunk;
 import uk.co.thinkofdeath.thinkcraft.shared.world.ChunkSection;
@@ -58,14 +59,73 @@ public class ClientChunk extends Chunk {
             outdatedSections[i] = true;
         }
 
-        for (ChunkLoadedMessage.BlockMapping mapping : chunkLoadedMessage.getMappingList()) {
-            Block block = world.getMapViewer().getBlockRegistry().get(mapping.getFullName(), mapping.getRawState());
-            idBlockMap.put(mapping.getId(), block);
-            blockIdMap.put(block, mapping.getId());
+        loadMappings(chunkLoadedMessage);
+        biomes = chunkLoadedMessage.getBiomes();
+        hiddenSections = chunkLoadedMessage.getHiddenSections();
+        pendingSections = chunkLoadedMessage.getPendingSections();
+    }
+
+    /**
+     * Adds the sections that were pending when the chunk was first
+     * loaded
+     *
+     * @param chunkLoadedMessage
+     *         The message containing the whole chunk as the worker
+     *         has it
+     */
+    public void loadSections(ChunkLoadedMessage chunkLoadedMessage) {
+        if (chunkLoadedMessage.isRemapped()) {
+            remapSections(chunkLoadedMessage);
+        }
+        ChunkLoadedMessage.Section[] sects = chunkLoadedMessage.getSections();
+        for (int i = 0; i < 16; i++) {
+            if (sects[i] == null || sections[i] != null) continue;
+            ChunkSection section = sections[i] = new ChunkSection(sects[i].getBuffer());
+            section.setCount(sects[i].getCount());
+            // The faces bordering the new section were culled against
+            // a solid section
+            for (int y = Math.max(0, i - 1); y <= Math.min(15, i + 1); y++) {
+                outdatedSections[y] = true;
+            }
+            for (int x = -1; x <= 1; x++) {
+                for (int z = -1; z <= 1; z++) {
+                    ClientChunk other = (ClientChunk) world.getChunk(getX() + x, getZ() + z);
+                    if (other != null && other != this) {
+                        other.outdatedSections[i] = true;
+                    }
+                }
+            }
         }
+        loadMappings(chunkLoadedMessage);
+        pendingSections = chunkLoadedMessage.getPendingSections();
+    }
 
-        nextId = chunkLoadedMessage.getNextId();
-        biomes = chunkLoadedMessage.getBiomes();
+    // Changes the ids in the loaded sections to the ones the worker
+    // now uses. Done by block instead of by id so blocks that were
+    // changed by the client keep their block. The blocks themselves
+    // don't change so nothing needs rebuilding
+    private void remapSections(ChunkLoadedMessage chunkLoadedMessage) {
+        Block[] old = new Block[palette.size()];
+        for (int i = 0; i < old.length; i++) {
+            old[i] = palette.get(i);
+        }
+        palette.clear();
+        loadMappings(chunkLoadedMessage);
+        for (ChunkSection section : sections) {
+            if (section == null) continue;
+            UShortBuffer blocks = section.getBlocks();
+            for (int i = 0; i < 16 * 16 * 16; i++) {
+                Block block = old[blocks.get(i)];
+                blocks.set(i, block == null ? 0 : palette.getOrAdd(block));
+            }
+        }
+    }
+
+        private void loadMappings(ChunkLoadedMessage chunkLoadedMessage) {
+        for (ChunkLoadedMessage.BlockMapping mapping : chunkLoadedMessage.getMappingList()) {
+            Block block = world.getMapViewer().getBlockRegistry().getByStateId(mapping.getStateId());
+            palette.put(mapping.getId(), block);
+        }
     }
 
     /**
@@ -129,6 +189,7 @@ public class ClientChunk extends Chunk {
         if (data.size() == 0) {
             if (renderObjects[sectionNumber] != null) {
                 world.mapViewer.getRenderer().removeChunkObject(renderObjects[sectionNumber]);
+                renderObjects[sectionNumber] = null;
             }
         } else {
             if (renderObjects[sectionNumber] == null) {
@@ -24,9 +24,13 @@ import elemental.xml.XMLHttpRequest;
 import uk.co.thinkofdeath.thinkcraft.html.client.MapViewer;
 import uk.co.thinkofdeath.thinkcraft.html.shared.buffer.JavascriptUByteBuffer;
 import uk.co.thinkofdeath.thinkcraft.html.shared.buffer.JavascriptViewBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.model.PositionedModel;
+import uk.co.thinkofdeath.thinkcraft.shared.platform.Platform;
 import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.UByteBuffer;
 import uk.co.thinkofdeath.thinkcraft.shared.platform.buffers.ViewBuffer;
+import uk.co.thinkofdeath.thinkcraft.shared.util.Inflater;
 import uk.co.thinkofdeath.thinkcraft.shared.worker.ChunkBuildMessage;
+import uk.co.thinkofdeath.thinkcraft.shared.worker.ChunkBuildReply;
 import uk.co.thinkofdeath.thinkcraft.shared.worker.ChunkLoadMessage;
 import uk.co.thinkofdeath.thinkcraft.shared.worker.ChunkUnloadMessage;
 import uk.co.thinkofdeath.thinkcraft.shared.world.Chunk;
@@ -37,15 +41,30 @@ import java.util.*;
 public class ClientWorld extends World {
 
     private static final int MAX_WORKER_TASKS = 5;
+    // Sections being built by the server at once
+    private static final int MAX_MESH_REQUESTS = 8;
+    private static final String DICTIONARY_ENCODING = "x-thinkmap-deflate";
+    // The number of sections below the camera that are loaded
+    // with the rest of the chunk. Lower sections are fetched once
+    // the renderer can see them
+    private static final int SECTIONS_BELOW = 2;
     final MapViewer mapViewer;
     private boolean firstTick = true;
     private Set<String> loadingChunks = new HashSet<>();
+    // Pending sections the renderer wants, sent once per tick
+    private Map<ClientChunk, Integer> wantedSections = new HashMap<>();
+    private Set<ClientChunk> loadingSections = new HashSet<>();
     // Last chunk the camera was in
     private int lastChunkX = 0;
     private int lastChunkZ = 0;
 
     private Queue<BuildTask> taskList = new LinkedList<>();
     private Map<String, BuildTask> taskMap = new HashMap<>();
+    private int meshRequests;
+
+    // The preset dictionary used to decompress chunks
+    private String dictionaryId;
+    private UByteBuffer dictionary;
 
     /**
      * Creates a client world
@@ -62,24 +81,26 @@ public class ClientWorld extends World {
     protected void tick() {
         super.tick();
 
+        for (Map.Entry<ClientChunk, Integer> e : wantedSections.entrySet()) {
+            ClientChunk chunk = e.getKey();
+            if (!chunk.isUnloaded()) {
+                loadingSections.add(chunk);
+                fetchChunk(chunk.getX(), chunk.getZ(), e.getValue(), chunk);
+            }
+        }
+        wantedSections.clear();
+
         for (Chunk chunk : getChunks()) {
             ((ClientChunk) chunk).update();
         }
 
-        if (mapViewer.getWorkerPool().hasFreeWorker(MAX_WORKER_TASKS)) {
-            while (!taskList.isEmpty()
-                    && mapViewer.getWorkerPool().hasFreeWorker(MAX_WORKER_TASKS)) {
-                BuildTask task = taskList.remove();
-                taskMap.remove(task.getBuildKey());
-                if (task.getChunk().isUnloaded()) {
-                    continue;
-                }
-                mapViewer.getWorkerPool().sendMessage(
-                        new ChunkBuildMessage(task.getChunk().getX(), task.getChunk().getZ(),
-                                task.getSectionNumber(),
-                                task.getBuildNumber()),
-                        false);
+        while (!taskList.isEmpty() && canBuild()) {
+            BuildTask task = taskList.remove();
+            taskMap.remove(task.getBuildKey());
+            if (task.getChunk().isUnloaded()) {
+                continue;
             }
+            sendBuild(task.getChunk(), task.getSectionNumber(), task.getBuildNumber());
         }
     }
 
@@ -94,11 +115,9 @@ public class ClientWorld extends World {
      *         The build number for this build
      */
     void requestBuild(ClientChunk chunk, int sectionNumber, int buildNumber) {
-        if (mapViewer.getWorkerPool().hasFreeWorker(MAX_WORKER_TASKS)) {
+        if (canBuild()) {
             // Send straight away
-            mapViewer.getWorkerPool().sendMessage(
-                    new ChunkBuildMessage(chunk.getX(), chunk.getZ(), sectionNumber, buildNumber),
-                    false);
+            sendBuild(chunk, sectionNumber, buildNumber);
             return;
         }
         // Queue for later
@@ -115,6 +134,87 @@ public class ClientWorld extends World {
         return x + ":" + z + "@" + section;
     }
 
+    private boolean canBuild() {
+        if (mapViewer.isServerMeshing()) {
+            return meshRequests < MAX_MESH_REQUESTS;
+        }
+        return mapViewer.getWorkerPool().hasFreeWorker(MAX_WORKER_TASKS);
+    }
+
+    private void sendBuild(ClientChunk chunk, int sectionNumber, int buildNumber) {
+        if (mapViewer.isServerMeshing()) {
+            fetchMesh(chunk, sectionNumber, buildNumber);
+            return;
+        }
+        mapViewer.getWorkerPool().sendMessage(
+                new ChunkBuildMessage(chunk.getX(), chunk.getZ(), sectionNumber, buildNumber),
+                false);
+    }
+
+    // Requests the section built by the server. Falls back to the
+    // workers if the server can't build it
+    private void fetchMesh(final ClientChunk chunk, final int sectionNumber, final int buildNumber) {
+        meshRequests++;
+        final XMLHttpRequest xmlHttpRequest = Browser.getWindow().newXMLHttpRequest();
+        xmlHttpRequest.open("POST", mapViewer.getUrl("server/mesh"), true);
+        xmlHttpRequest.setResponseType("arraybuffer");
+        xmlHttpRequest.setOnreadystatechange(new EventListener() {
+            @Override
+            public void handleEvent(Event evt) {
+                if (xmlHttpRequest.getReadyState() != 4) return;
+                meshRequests--;
+                if (chunk.isUnloaded()) {
+                    return;
+                }
+                if (xmlHttpRequest.getStatus() == 200) {
+                    ArrayBuffer data = (ArrayBuffer) xmlHttpRequest.getResponse();
+                    mapViewer.getMessageHandler().handle(
+                            readMesh(chunk, sectionNumber, buildNumber, data));
+                } else {
+                    mapViewer.getWorkerPool().sendMessage(
+                            new ChunkBuildMessage(chunk.getX(), chunk.getZ(), sectionNumber, buildNumber),
+                            false);
+                }
+            }
+        });
+        xmlHttpRequest.send(chunk.getX() + ":" + chunk.getZ() + ":" + sectionNumber);
+    }
+
+    // Reads a section built by the server into the same reply
+    // the workers send
+    private static ChunkBuildReply readMesh(ClientChunk chunk, int sectionNumber, int buildNumber,
+                                            ArrayBuffer data) {
+        ViewBuffer in = JavascriptViewBuffer.create(data, false, 0, data.getByteLength());
+        int offset = 0;
+        int[] accessData = new int[in.getUInt8(offset++)];
+        for (int i = 0; i < accessData.length; i++) {
+            accessData[i] = in.getInt32(offset);
+            offset += 4;
+        }
+        int length = in.getInt32(offset);
+        offset += 4;
+        // Copied so that the buffers start at the beginning of their
+        // own storage as the transparent models are offsets into it
+        UByteBuffer opaque = Platform.alloc().ubyteBuffer(JavascriptUByteBuffer.create(data, offset, length));
+        offset += length;
+        length = in.getInt32(offset);
+        offset += 4;
+        UByteBuffer trans = Platform.alloc().ubyteBuffer(JavascriptUByteBuffer.create(data, offset, length));
+        offset += length;
+        int count = in.getInt32(offset);
+        offset += 4;
+        ArrayList<PositionedModel> models = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            models.add(new PositionedModel(
+                    in.getUInt8(offset), in.getUInt8(offset + 1), in.getUInt8(offset + 2),
+                    in.getInt32(offset + 3), in.getInt32(offset + 7)
+            ));
+            offset += 11;
+        }
+        return new ChunkBuildReply(chunk.getX(), chunk.getZ(), sectionNumber, buildNumber,
+                accessData, opaque, trans, models);
+    }
+
     /**
      * Updates the world's state
      */
@@ -169,38 +269,123 @@ public class ClientWorld extends World {
      * @param z
      *         The chunk z position
      */
-    private void loadChunk(final int x, final int z) {
-        final String key = chunkKey(x, z);
+    private void loadChunk(int x, int z) {
+        String key = chunkKey(x, z);
         if (loadingChunks.contains(key) || isLoaded(x, z)) {
             return;
         }
+        loadingChunks.add(key);
+        if (mapViewer.isStaticMode()) {
+            // Exported chunks are whole files
+            fetchChunk(x, z, 0xFFFF, null);
+            return;
+        }
+        int low = ((int) mapViewer.getCamera().getY() >> 4) - SECTIONS_BELOW;
+        fetchChunk(x, z, low <= 0 ? 0xFFFF : 0xFFFF & ~((1 << low) - 1), null);
+    }
+
+    /**
+     * Requests that a pending section of the chunk is loaded. Requests
+     * are batched per chunk and sent on the next tick
+     *
+     * @param chunk
+     *         The chunk that owns the section
+     * @param sectionNumber
+     *         The position of the section
+     */
+    public void requestSection(ClientChunk chunk, int sectionNumber) {
+        if (loadingSections.contains(chunk) || mapViewer.isStaticMode()) {
+            return;
+        }
+        Integer wanted = wantedSections.get(chunk);
+        wantedSections.put(chunk, (wanted == null ? 0 : wanted) | (1 << sectionNumber));
+    }
+
+    /**
+     * Called once the workers have processed the sections requested
+     * for the chunk
+     *
+     * @param chunk
+     *         The chunk the sections were added to
+     */
+    void sectionsLoaded(ClientChunk chunk) {
+        loadingSections.remove(chunk);
+    }
+
+    // Fetches the sections of the chunk from the server. Partial is
+    // the chunk the sections belong to when adding to a loaded chunk
+    private void fetchChunk(final int x, final int z, int sections, final ClientChunk partial) {
+        final String key = chunkKey(x, z);
+        final boolean staticMode = mapViewer.isStaticMode();
         final XMLHttpRequest xmlHttpRequest = Browser.getWindow().newXMLHttpRequest();
-        xmlHttpRequest.open("POST", "http://" + mapViewer.getConnection().getAddress() + "/server/chunk", true);
+        if (staticMode) {
+            xmlHttpRequest.open("GET", mapViewer.getUrl(
+                    "chunks/" + (x >> 5) + "_" + (z >> 5) + "/" + x + "_" + z + ".bin"), true);
+        } else {
+            xmlHttpRequest.open("POST", mapViewer.getUrl("server/chunk"), true);
+        }
         xmlHttpRequest.setResponseType("arraybuffer");
         xmlHttpRequest.setOnreadystatechange(new EventListener() {
             @Override
             public void handleEvent(Event evt) {
                 if (xmlHttpRequest.getReadyState() != 4) return;
+                if (partial != null && partial.isUnloaded()) {
+                    loadingSections.remove(partial);
+                    return;
+                }
                 if (xmlHttpRequest.getStatus() == 200) {
                     // Got the chunk successfully, move on
                     // to processing the chunk
                     ArrayBuffer data = (ArrayBuffer) xmlHttpRequest.getResponse();
-                    ViewBuffer dataStream = JavascriptViewBuffer.create(data, false, 0, data.getByteLength());
-                    if (dataStream.getInt8(0) == 0) {
+                    UByteBuffer sendableData = JavascriptUByteBuffer.create(data, 0, data.getByteLength());
+                    if (staticMode
+                            || DICTIONARY_ENCODING.equals(xmlHttpRequest.getResponseHeader("Content-Encoding"))) {
+                        // Compressed with the preset dictionary which the
+                        // browser can't handle itself. Static exports are
+                        // always zlib as the host won't label them
+                        sendableData = Inflater.inflate(sendableData, dictionary, sendableData.size() * 8);
+                    }
+                    if (sendableData.get(0) == 0) {
                         loadingChunks.remove(key);
+                        loadingSections.remove(partial);
                         return;
                     }
-                    UByteBuffer sendableData = JavascriptUByteBuffer.create(data, 0, data.getByteLength());
                     mapViewer.getWorkerPool().sendMessage(new ChunkLoadMessage(x, z, sendableData), true);
                 } else {
                     // Request failed (e.g. non-existing chunk)
                     // remove from the loadingChunks set so
                     // that it may be tried again
                     loadingChunks.remove(key);
+                    loadingSections.remove(partial);
                 }
             }
         });
-        xmlHttpRequest.send(key);
+        if (staticMode) {
+            xmlHttpRequest.send();
+            return;
+        }
+        String request = key;
+        if (dictionary != null || sections != 0xFFFF) {
+            request += ":" + (dictionary != null ? dictionaryId : "");
+        }
+        if (sections != 0xFFFF) {
+            request += ":" + Integer.toHexString(sections);
+        }
+        xmlHttpRequest.send(request);
+    }
+
+    /**
+     * Sets the preset dictionary which the server may use to
+     * compress chunks
+     *
+     * @param id
+     *         The id of the dictionary
+     * @param dictionary
+     *         The contents of the dictionary
+     */
+    public void setDictionary(String id, UByteBuffer dictionary) {
+        this.dictionaryId = id;
+        this.dictionary = dictionary;
     }
 
     @Override
@@ -242,6 +427,11 @@ public class ClientWorld extends World {
 
     @Override
     public void unloadChunk(int x, int z) {
+        Chunk chunk = getChunk(x, z);
+        if (chunk != null) {
+            wantedSections.remove(chunk);
+            loadingSections.remove(chunk);
+        }
         super.unloadChunk(x, z);
         mapViewer.getWorkerPool().sendMessage(new ChunkUnloadMessage(x, z), true);
         for (int i = 0; i < 16; i++) {
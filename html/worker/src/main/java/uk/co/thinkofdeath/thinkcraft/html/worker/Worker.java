@@ -146,7 +146,7 @@ public class Worker implements EntryPoint, EventListener, IMapViewer, MessageHan
         WorkerChunk chunk = (WorkerChunk) world.getChunk(chunkBuildMessage.getX(),
                 chunkBuildMessage.getZ());
         if (chunk != null) {
-            chunk.build(chunkBuildMessage.getSectionNumber(),
+            chunk.buildAndSend(chunkBuildMessage.getSectionNumber(),
                     chunkBuildMessage.getBuildNumber());
         } else {
             sendMessage(Messages.NULL, false);
@@ -166,6 +166,12 @@ public class Worker implements EntryPoint, EventListener, IMapViewer, MessageHan
 
     @Override
     public void handle(ChunkLoadMessage chunkLoadMessage) {
+        WorkerChunk existing = (WorkerChunk) world.getChunk(chunkLoadMessage.getX(), chunkLoadMessage.getZ());
+        if (existing != null) {
+            // Sections that were left out of the first load
+            existing.addSections(chunkLoadMessage.getData(), chunkLoadMessage.getReturn());
+            return;
+        }
         WorkerChunk c = new WorkerChunk(world,
                 chunkLoadMessage.getX(), chunkLoadMessage.getZ(),
                 chunkLoadMessage.getData(), chunkLoadMessage.getReturn());
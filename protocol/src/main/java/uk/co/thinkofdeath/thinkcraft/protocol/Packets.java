@@ -34,6 +34,7 @@ public class Packets {
     static {
         client(new InitConnection());
         client(new KeepAlive());
+        client(new ViewerInterest());
 
         server(new ServerSettings());
         server(new TimeUpdate());
@@ -23,13 +23,17 @@ import uk.co.thinkofdeath.thinkcraft.protocol.ServerPacketHandler;
 public class ServerSettings implements Packet<ServerPacketHandler> {
 
     private boolean hideOres;
+    private String dictionary;
+    private boolean serverMeshing;
 
     public ServerSettings() {
 
     }
 
-    public ServerSettings(boolean hideOres) {
+    public ServerSettings(boolean hideOres, String dictionary, boolean serverMeshing) {
         this.hideOres = hideOres;
+        this.dictionary = dictionary;
+        this.serverMeshing = serverMeshing;
     }
 
     @Override
@@ -40,11 +44,15 @@ public class ServerSettings implements Packet<ServerPacketHandler> {
     @Override
     public void read(PacketStream in) {
         hideOres = in.readBoolean();
+        dictionary = in.readString();
+        serverMeshing = in.readBoolean();
     }
 
     @Override
     public void write(PacketStream out) {
         out.writeBoolean(hideOres);
+        out.writeString(dictionary);
+        out.writeBoolean(serverMeshing);
     }
 
     @Override
@@ -55,4 +63,24 @@ public class ServerSettings implements Packet<ServerPacketHandler> {
     public boolean areOresHidden() {
         return hideOres;
     }
+
+    /**
+     * Returns the id of the dictionary used to compress chunks
+     * or an empty string if there isn't one
+     *
+     * @return The dictionary id
+     */
+    public String getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns whether the server builds the chunk sections for
+     * the client
+     *
+     * @return Whether sections should be requested from the server
+     */
+    public boolean isServerMeshing() {
+        return serverMeshing;
+    }
 }
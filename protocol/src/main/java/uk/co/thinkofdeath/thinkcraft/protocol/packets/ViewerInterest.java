@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.protocol.packets;
+
+import uk.co.thinkofdeath.thinkcraft.protocol.ClientPacketHandler;
+import uk.co.thinkofdeath.thinkcraft.protocol.Packet;
+import uk.co.thinkofdeath.thinkcraft.protocol.PacketStream;
+
+/**
+ * Sent by the client, at most once a second, when the area it is
+ * looking at changes. The server uses this to work out which viewers
+ * are interested in a chunk and to prepare the chunks the viewer is
+ * heading towards
+ */
+public class ViewerInterest implements Packet<ClientPacketHandler> {
+
+    private int x;
+    private int z;
+    private int viewDistance;
+    private int heading;
+
+    public ViewerInterest() {
+    }
+
+    /**
+     * Creates an interest update for the viewer
+     *
+     * @param x
+     *         The x coordinate of the chunk the camera is in
+     * @param z
+     *         The z coordinate of the chunk the camera is in
+     * @param viewDistance
+     *         How far (in chunks) the viewer can see
+     * @param heading
+     *         The camera's rotation on the y axis in 256ths of a
+     *         full turn
+     */
+    public ViewerInterest(int x, int z, int viewDistance, int heading) {
+        this.x = x;
+        this.z = z;
+        this.viewDistance = viewDistance;
+        this.heading = heading;
+    }
+
+    @Override
+    public Packet<ClientPacketHandler> create() {
+        return new ViewerInterest();
+    }
+
+    @Override
+    public void read(PacketStream in) {
+        x = in.readInt();
+        z = in.readInt();
+        viewDistance = in.readUByte();
+        heading = in.readUByte();
+    }
+
+    @Override
+    public void write(PacketStream out) {
+        out.writeInt(x);
+        out.writeInt(z);
+        out.writeUByte(viewDistance);
+        out.writeUByte(heading);
+    }
+
+    @Override
+    public void handle(ClientPacketHandler handler) {
+        handler.handle(this);
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public int getViewDistance() {
+        return viewDistance;
+    }
+
+    public int getHeading() {
+        return heading;
+    }
+}
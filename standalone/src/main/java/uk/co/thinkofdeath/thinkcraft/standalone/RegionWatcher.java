@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.standalone;
+
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.RegionChunkStore;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the region files written by the plugin and drops the
+ * cached chunks of a region when it changes. New dictionaries are
+ * picked up the same way
+ */
+public class RegionWatcher implements Runnable {
+
+    private static final Pattern REGION_FILE = Pattern.compile("region_(-?[0-9]+)-(-?[0-9]+)\\.dat");
+
+    private final RegionChunkStore store;
+    private final Logger logger;
+
+    public RegionWatcher(RegionChunkStore store, Logger logger) {
+        this.store = store;
+        this.logger = logger;
+    }
+
+    @Override
+    public void run() {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            Path worldFolder = store.getWorldFolder().toPath();
+            Path dictionaryFolder = store.getDictionaryFolder().toPath();
+            worldFolder.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            if (Files.isDirectory(dictionaryFolder)) {
+                dictionaryFolder.register(watcher, ENTRY_CREATE);
+            }
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        // Missed some changes so everything may be outdated
+                        store.invalidateAll();
+                        store.reloadDictionaries();
+                        continue;
+                    }
+                    String name = event.context().toString();
+                    if (name.endsWith(".dict")) {
+                        store.reloadDictionaries();
+                        continue;
+                    }
+                    Matcher matcher = REGION_FILE.matcher(name);
+                    if (matcher.matches()) {
+                        store.invalidateRegion(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to watch the region files, changes won't be seen", e);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 Matthew Collins
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package uk.co.thinkofdeath.thinkcraft.standalone;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import org.apache.commons.io.FileUtils;
+import uk.co.thinkofdeath.thinkcraft.bukkit.config.PluginConfiguration;
+import uk.co.thinkofdeath.thinkcraft.bukkit.mesh.ChunkMesher;
+import uk.co.thinkofdeath.thinkcraft.bukkit.web.MapServer;
+import uk.co.thinkofdeath.thinkcraft.bukkit.web.WebHandler;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.BlockColours;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.ChunkDictionary;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.MapExporter;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.RegionChunkStore;
+import uk.co.thinkofdeath.thinkcraft.bukkit.world.TileStore;
+import uk.co.thinkofdeath.thinkcraft.protocol.packets.ServerSettings;
+import uk.co.thinkofdeath.thinkcraft.protocol.packets.SpawnPosition;
+import uk.co.thinkofdeath.thinkcraft.protocol.packets.TimeUpdate;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves the worlds stored by the plugin without the game server.
+ * The map is read-only, the plugin keeps writing the region files
+ * (possibly on another machine sharing the folder) and the cached
+ * chunks are dropped as they change.
+ * <p>
+ * Usage: {@code java -jar ThinkMap-Standalone.jar <plugin folder> [world] [port]}
+ * <p>
+ * The world can also be exported as static files instead with
+ * {@code java -jar ThinkMap-Standalone.jar export <plugin folder> <output folder> [world]}
+ */
+public class StandaloneServer implements MapServer {
+
+    // There is no world clock to follow so it is always midday
+    private static final int TIME_OF_DAY = 6000;
+
+    private final Logger logger = Logger.getLogger("ThinkMap");
+    private final PluginConfiguration configuration;
+    private final File worldFolder;
+    private final File resourceDir;
+    private final RegionChunkStore store;
+    private TileStore tileStore;
+    private ChunkMesher mesher;
+    private final WebHandler webHandler;
+    private final int port;
+    private final Date startUpDate = new Date((System.currentTimeMillis() / 1000) * 1000);
+
+    public StandaloneServer(File dataFolder, String worldName, int port) throws Exception {
+        configuration = new PluginConfiguration(new File(dataFolder, "config.yml"));
+        configuration.load();
+        this.port = port != -1 ? port : configuration.getPort();
+        File worldDir = new File(dataFolder, "worlds");
+        worldFolder = new File(worldDir, worldName);
+        resourceDir = new File(dataFolder,
+                "resources/"
+                        + (configuration.getResourcePackName().length() == 0 ?
+                        "default" : configuration.getResourcePackName())
+        );
+        store = new RegionChunkStore(worldDir, worldName, configuration.getChunkCacheSize(),
+                configuration.isSurfaceOnly(), logger);
+        webHandler = new WebHandler(this);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 1 && args[0].equals("export")) {
+            export(args);
+            return;
+        }
+        if (args.length < 1) {
+            System.err.println("Usage: java -jar ThinkMap-Standalone.jar <plugin folder> [world] [port]");
+            System.exit(1);
+        }
+        File dataFolder = new File(args[0]);
+        String worldName = args.length >= 2 ? args[1] : findWorld(new File(dataFolder, "worlds"));
+        if (worldName == null) {
+            System.err.println("No stored worlds found in " + dataFolder);
+            System.exit(1);
+        }
+        int port = args.length >= 3 ? Integer.parseInt(args[2]) : -1;
+
+        StandaloneServer server = new StandaloneServer(dataFolder, worldName, port);
+        if (!new File(server.getResourceDir(), "blocks.json").exists()) {
+            System.err.println("The resources haven't been created yet, start the plugin once first");
+            System.exit(1);
+        }
+
+        Thread watcher = new Thread(new RegionWatcher(server.store, server.logger), "ThinkMap Region Watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+
+        server.logger.info("Serving " + worldName + " on port " + server.getPort());
+        server.webHandler.run();
+    }
+
+    // Exports the stored world as static files
+    private static void export(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java -jar ThinkMap-Standalone.jar export <plugin folder> <output folder> [world]");
+            System.exit(1);
+        }
+        File dataFolder = new File(args[1]);
+        String worldName = args.length >= 4 ? args[3] : findWorld(new File(dataFolder, "worlds"));
+        if (worldName == null) {
+            System.err.println("No stored worlds found in " + dataFolder);
+            System.exit(1);
+        }
+        StandaloneServer server = new StandaloneServer(dataFolder, worldName, -1);
+        if (!new File(server.getResourceDir(), "blocks.json").exists()) {
+            System.err.println("The resources haven't been created yet, start the plugin once first");
+            System.exit(1);
+        }
+
+        MapExporter exporter = new MapExporter(new File(dataFolder, "worlds"), worldName,
+                server.store.getCurrentDictionary(), new ReentrantReadWriteLock(),
+                server.configuration.isSurfaceOnly());
+        int[] spawn = server.readSpawn();
+        exporter.setSpawn(spawn[0], spawn[1], spawn[2]);
+        exporter.setTime(TIME_OF_DAY);
+        exporter.setHideOres(server.configuration.shouldHideOres());
+        int count = exporter.export(new File(args[2]), server.getResourceDir());
+        server.logger.info("Exported " + count + " chunks of " + worldName + " to " + args[2]);
+    }
+
+    // Picks the first stored world
+    private static String findWorld(File worldDir) {
+        File[] worlds = worldDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory() && !file.getName().equals("dictionaries");
+            }
+        });
+        if (worlds == null || worlds.length == 0) {
+            return null;
+        }
+        return worlds[0].getName();
+    }
+
+    @Override
+    public void initConnection(Channel channel) {
+        ChunkDictionary dictionary = store.getCurrentDictionary();
+        channel.write(new ServerSettings(
+                configuration.shouldHideOres(),
+                dictionary != null ? dictionary.getId() : "",
+                configuration.isMeshingEnabled()
+        ));
+        int[] spawn = readSpawn();
+        // The viewer starts at the spawn
+        webHandler.getInterests().seed(channel, spawn[0] >> 4, spawn[2] >> 4);
+        channel.write(new SpawnPosition(spawn[0], spawn[1], spawn[2]));
+        channel.writeAndFlush(new TimeUpdate(TIME_OF_DAY));
+    }
+
+    // Reads the spawn saved by the plugin
+    private int[] readSpawn() {
+        File file = new File(worldFolder, "world.json");
+        if (file.exists()) {
+            try {
+                JsonObject info = new Gson().fromJson(FileUtils.readFileToString(file), JsonObject.class);
+                return new int[]{
+                        info.get("spawnX").getAsInt(),
+                        info.get("spawnY").getAsInt(),
+                        info.get("spawnZ").getAsInt()
+                };
+            } catch (IOException | RuntimeException e) {
+                logger.log(Level.WARNING, "Failed to read the world info", e);
+            }
+        }
+        return new int[]{0, 64, 0};
+    }
+
+    @Override
+    public String getChunkBytes(int x, int z, ByteBuf out, ChunkDictionary dictionary, int sections) {
+        return store.getChunkBytes(x, z, out, dictionary, sections);
+    }
+
+    @Override
+    public synchronized boolean getTile(int zoom, int x, int y, ByteBuf out) throws IOException {
+        if (tileStore == null) {
+            // The plugin writes the region files from another process
+            // so there is nothing to share a lock with
+            tileStore = new TileStore(worldFolder, new ReentrantReadWriteLock(), BlockColours.load(resourceDir));
+        }
+        return tileStore.getTile(zoom, x, y, out);
+    }
+
+    @Override
+    public boolean getMesh(int x, int z, int section, ByteBuf out) throws IOException {
+        if (!configuration.isMeshingEnabled()) {
+            return false;
+        }
+        ChunkMesher mesher;
+        synchronized (this) {
+            if (this.mesher == null) {
+                this.mesher = new ChunkMesher(this, resourceDir,
+                        configuration.shouldHideOres(), configuration.getMeshCacheSize());
+            }
+            mesher = this.mesher;
+        }
+        return mesher.getMesh(x, z, section, out);
+    }
+
+    @Override
+    public ChunkDictionary getCurrentDictionary() {
+        return store.getCurrentDictionary();
+    }
+
+    @Override
+    public ChunkDictionary getDictionary(String id) {
+        return store.getDictionary(id);
+    }
+
+    @Override
+    public void updateViewer(Object viewer, int x, int z, int heading) {
+        // Stored chunks are cheap to read on demand
+    }
+
+    @Override
+    public void removeViewer(Object viewer) {
+    }
+
+    @Override
+    public String getAddress() {
+        return configuration.getAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public Date getStartUpDate() {
+        return new Date(startUpDate.getTime());
+    }
+
+    @Override
+    public File getResourceDir() {
+        return resourceDir;
+    }
+
+    @Override
+    public WebHandler getWebHandler() {
+        return webHandler;
+    }
+}